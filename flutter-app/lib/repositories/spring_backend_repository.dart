@@ -4,6 +4,7 @@ import 'package:read_the_label/repositories/api_client.dart';
 
 import 'dart:convert';
 import 'dart:io';
+import 'dart:math';
 import 'package:http/http.dart' as http;
 import 'package:read_the_label/repositories/ai_repository_interface.dart';
 
@@ -12,6 +13,14 @@ class SpringBackendRepository implements AiRepositoryInterface {
 
   SpringBackendRepository(this._apiClient);
 
+  // One key per analysis; resending the same analysis with it costs no extra model call
+  static String _newIdempotencyKey() {
+    final random = Random.secure();
+    return List.generate(
+            16, (_) => random.nextInt(256).toRadixString(16).padLeft(2, '0'))
+        .join();
+  }
+
   @override
   Future<ProductAnalysisResponse> analyzeProductImages(
       File frontImage, File labelImage) async {
@@ -25,6 +34,7 @@ class SpringBackendRepository implements AiRepositoryInterface {
       if (token != null) {
         request.headers['Authorization'] = 'Bearer $token';
       }
+      request.headers['Idempotency-Key'] = _newIdempotencyKey();
 
       // Add files
       request.files.add(
@@ -71,6 +81,7 @@ class SpringBackendRepository implements AiRepositoryInterface {
       if (token != null) {
         request.headers['Authorization'] = 'Bearer $token';
       }
+      request.headers['Idempotency-Key'] = _newIdempotencyKey();
 
       // Add file
       request.files
@@ -114,6 +125,7 @@ class SpringBackendRepository implements AiRepositoryInterface {
       final token = await _apiClient.getAuthToken();
       Map<String, String> headers = {
         'Content-Type': 'application/json',
+        'Idempotency-Key': _newIdempotencyKey(),
       };
 
       if (token != null) {
@@ -0,0 +1,102 @@
+package com.scanmyfood.backend.configurations;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.firebase.auth.FirebaseToken;
+import com.scanmyfood.backend.models.ApiResponse;
+import com.scanmyfood.backend.services.CallerIdentityService;
+import com.scanmyfood.backend.utils.TokenBucketRateLimiter;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.servlet.DispatcherType;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Applies the {@link RateLimitProperties} token buckets to the AI analysis endpoints and answers
+ * with 429 and {@code Retry-After} once a bucket is empty. The per-IP bucket is checked first so
+ * unauthenticated floods never reach token verification.
+ */
+@Slf4j
+@Component
+public class RateLimitInterceptor implements HandlerInterceptor {
+
+    private final RateLimitProperties properties;
+    private final ObjectMapper objectMapper;
+    private final TokenBucketRateLimiter ipLimiter;
+    private final Map<String, TokenBucketRateLimiter> tierLimiters = new HashMap<>();
+    private final CallerIdentityService callerIdentityService;
+    private final Counter ipRejections;
+    private final Counter userRejections;
+
+    public RateLimitInterceptor(RateLimitProperties properties, ObjectMapper objectMapper, MeterRegistry meterRegistry,
+                                CallerIdentityService callerIdentityService) {
+        this.properties = properties;
+        this.objectMapper = objectMapper;
+        this.callerIdentityService = callerIdentityService;
+        this.ipLimiter = limiter(properties.getIp());
+        properties.getTiers().forEach((tier, limit) -> tierLimiters.put(tier, limiter(limit)));
+        if (!tierLimiters.containsKey(properties.getDefaultTier())) {
+            throw new IllegalStateException("No ai.rate-limit.tiers entry for default tier " + properties.getDefaultTier());
+        }
+        this.ipRejections = Counter.builder("ai.rate-limit.rejected").tag("key", "ip").register(meterRegistry);
+        this.userRejections = Counter.builder("ai.rate-limit.rejected").tag("key", "user").register(meterRegistry);
+    }
+
+    private TokenBucketRateLimiter limiter(RateLimitProperties.Limit limit) {
+        return new TokenBucketRateLimiter(limit.getCapacity(), limit.getRefillPerMinute(),
+                properties.getStripes(), properties.getMaxKeys());
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws IOException {
+        // Analyses complete asynchronously and their result is written on a second, ASYNC dispatch
+        // through this interceptor; only the original request spends a token
+        if (!properties.isEnabled() || request.getDispatcherType() == DispatcherType.ASYNC) {
+            return true;
+        }
+
+        long waitNanos = ipLimiter.tryAcquire(request.getRemoteAddr());
+        if (waitNanos > 0) {
+            ipRejections.increment();
+            return reject(response, waitNanos);
+        }
+
+        // Requests without a valid Firebase ID token are limited by IP only
+        FirebaseToken token = callerIdentityService.verifiedToken(request);
+        if (token != null) {
+            waitNanos = tierLimiter(token).tryAcquire(token.getUid());
+            if (waitNanos > 0) {
+                userRejections.increment();
+                return reject(response, waitNanos);
+            }
+        }
+        return true;
+    }
+
+    private TokenBucketRateLimiter tierLimiter(FirebaseToken token) {
+        Object tier = token.getClaims().get("tier");
+        TokenBucketRateLimiter limiter = tier instanceof String ? tierLimiters.get(tier) : null;
+        return limiter != null ? limiter : tierLimiters.get(properties.getDefaultTier());
+    }
+
+    private boolean reject(HttpServletResponse response, long waitNanos) throws IOException {
+        long retryAfterSeconds = Math.max(1, TimeUnit.NANOSECONDS.toSeconds(waitNanos + 999_999_999));
+        response.setStatus(HttpStatus.TOO_MANY_REQUESTS.value());
+        response.setHeader(HttpHeaders.RETRY_AFTER, Long.toString(retryAfterSeconds));
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        objectMapper.writeValue(response.getOutputStream(),
+                ApiResponse.error("Too many analysis requests, retry in " + retryAfterSeconds + "s"));
+        return false;
+    }
+}
@@ -0,0 +1,46 @@
+package com.scanmyfood.backend.configurations;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Token-bucket limits for the AI analysis endpoints. Signed-in users are limited per Firebase uid
+ * according to their tier (the {@code tier} custom claim, else {@link #defaultTier}); every request
+ * is also limited per client IP.
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "ai.rate-limit")
+public class RateLimitProperties {
+
+    private boolean enabled = true;
+
+    private int stripes = 64;
+
+    // Upper bound on buckets tracked per tier (and for IPs)
+    private int maxKeys = 100_000;
+
+    private String defaultTier = "free";
+
+    private Limit ip = new Limit(60, 30);
+
+    private Map<String, Limit> tiers = new LinkedHashMap<>(Map.of("free", new Limit(10, 5)));
+
+    @Data
+    public static class Limit {
+        private long capacity;
+        private double refillPerMinute;
+
+        public Limit() {
+        }
+
+        public Limit(long capacity, double refillPerMinute) {
+            this.capacity = capacity;
+            this.refillPerMinute = refillPerMinute;
+        }
+    }
+}
@@ -1,17 +1,35 @@
 package com.scanmyfood.backend.configurations;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.api.gax.rpc.ApiException;
 import com.google.auth.oauth2.GoogleCredentials;
 import com.google.cloud.vertexai.VertexAI;
+import com.google.cloud.vertexai.api.GenerateContentResponse;
 import com.google.cloud.vertexai.generativeai.GenerativeModel;
+import com.scanmyfood.backend.utils.AdaptiveConcurrencyLimiter;
+import com.scanmyfood.backend.utils.CircuitBreaker;
+import com.scanmyfood.backend.utils.LatencyAwareRouter;
+import com.scanmyfood.backend.utils.RetryPolicy;
+import com.scanmyfood.backend.utils.SingleFlight;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.core.io.ClassPathResource;
 import org.springframework.core.io.Resource;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
 
 @Configuration
 public class VertexAIConfig {
@@ -25,6 +43,20 @@ public class VertexAIConfig {
     @Value("${vertex.ai.model.name:gemini-2.0-flash}")
     private String MODEL_NAME;
 
+    // Cheaper, faster model for the analyses listed in ai.tiering.light-endpoints
+    @Value("${vertex.ai.model.light-name:gemini-2.0-flash-lite}")
+    private String LIGHT_MODEL_NAME;
+
+    // Additional locations to route model calls to; the primary location is always included
+    @Value("${google.cloud.failover-locations:}")
+    private List<String> failoverLocations;
+
+    // Per-location API endpoint overrides, e.g. {'us-central1': 'localhost:9001'} for local stubs
+    @Value("#{${vertex.ai.api-endpoints:{:}}}")
+    private Map<String, String> apiEndpoints;
+
+    private final Map<String, VertexAI> failoverClients = new LinkedHashMap<>();
+
     @Bean
     public GoogleCredentials googleCredentials() throws IOException {
         // Option 1: Use the service account JSON file that's already present for Firebase
@@ -48,15 +80,191 @@ public class VertexAIConfig {
 
     @Bean
     public VertexAI vertexAI(GoogleCredentials credentials) {
-        return new VertexAI.Builder()
+        return vertexAI(credentials, location);
+    }
+
+    private VertexAI vertexAI(GoogleCredentials credentials, String location) {
+        VertexAI.Builder builder = new VertexAI.Builder()
                 .setProjectId(projectId)
                 .setLocation(location)
-                .setCredentials(credentials)
-                .build();
+                .setCredentials(credentials);
+        String apiEndpoint = apiEndpoints.get(location);
+        if (apiEndpoint != null) {
+            builder.setApiEndpoint(apiEndpoint);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Spreads calls to the standard model over the primary and failover locations, preferring
+     * whichever currently answers fastest, and optionally hedges slow calls to the next best location
+     */
+    @Bean
+    public LatencyAwareRouter<GenerativeModel> generativeModelRouter(VertexAI vertexAI,
+                                                                     GoogleCredentials credentials,
+                                                                     MeterRegistry meterRegistry,
+                                                                     @Value("${ai.routing.explore-rate:0.05}") double exploreRate,
+                                                                     @Value("${ai.routing.hedging.enabled:false}") boolean hedging,
+                                                                     @Value("${ai.routing.hedging.min-delay:2s}") Duration minHedgeDelay) {
+        return modelRouter("standard", MODEL_NAME, vertexAI, credentials, meterRegistry, exploreRate, hedging, minHedgeDelay);
     }
 
+    /**
+     * Same as {@link #generativeModelRouter} for the light model. Its latencies are tracked separately
+     * so a fast light model does not make a region look faster for the standard one.
+     */
     @Bean
-    public GenerativeModel generativeModel(VertexAI vertexAI) {
-        return new GenerativeModel(MODEL_NAME, vertexAI);
+    public LatencyAwareRouter<GenerativeModel> lightGenerativeModelRouter(VertexAI vertexAI,
+                                                                          GoogleCredentials credentials,
+                                                                          MeterRegistry meterRegistry,
+                                                                          @Value("${ai.routing.explore-rate:0.05}") double exploreRate,
+                                                                          @Value("${ai.routing.hedging.enabled:false}") boolean hedging,
+                                                                          @Value("${ai.routing.hedging.min-delay:2s}") Duration minHedgeDelay) {
+        return modelRouter("light", LIGHT_MODEL_NAME, vertexAI, credentials, meterRegistry, exploreRate, hedging, minHedgeDelay);
+    }
+
+    private LatencyAwareRouter<GenerativeModel> modelRouter(String tier, String modelName, VertexAI vertexAI,
+                                                            GoogleCredentials credentials, MeterRegistry meterRegistry,
+                                                            double exploreRate, boolean hedging, Duration minHedgeDelay) {
+        Map<String, GenerativeModel> models = new LinkedHashMap<>();
+        models.put(location, new GenerativeModel(modelName, vertexAI));
+        for (String failoverLocation : failoverLocations) {
+            if (!failoverLocation.isBlank() && !models.containsKey(failoverLocation)) {
+                // Both tiers share one client per location
+                VertexAI client = failoverClients.computeIfAbsent(failoverLocation, name -> vertexAI(credentials, name));
+                models.put(failoverLocation, new GenerativeModel(modelName, client));
+            }
+        }
+
+        LatencyAwareRouter<GenerativeModel> router = new LatencyAwareRouter<>(models, exploreRate, hedging, minHedgeDelay);
+        for (LatencyAwareRouter.Region<GenerativeModel> region : router.getRegions()) {
+            Gauge.builder("ai.routing.latency.ewma", region, LatencyAwareRouter.Region::getLatencyEwmaMillis)
+                    .tag("region", region.getName())
+                    .tag("tier", tier)
+                    .baseUnit("milliseconds")
+                    .register(meterRegistry);
+            FunctionCounter.builder("ai.routing.calls", region, LatencyAwareRouter.Region::getCalls)
+                    .tag("region", region.getName())
+                    .tag("tier", tier)
+                    .register(meterRegistry);
+        }
+        FunctionCounter.builder("ai.routing.hedges", router, LatencyAwareRouter::getHedges)
+                .tag("result", "fired")
+                .tag("tier", tier)
+                .register(meterRegistry);
+        FunctionCounter.builder("ai.routing.hedges", router, LatencyAwareRouter::getHedgeWins)
+                .tag("result", "won")
+                .tag("tier", tier)
+                .register(meterRegistry);
+        return router;
+    }
+
+    @PreDestroy
+    public void closeFailoverClients() {
+        failoverClients.values().forEach(VertexAI::close);
+    }
+
+    @Bean
+    public SingleFlight<String, GenerateContentResponse> generateContentSingleFlight(MeterRegistry meterRegistry) {
+        return new SingleFlight<>(meterRegistry, "generate-content");
+    }
+
+    /**
+     * Caps concurrent model calls at a limit that adapts to observed latency, so a slow or
+     * throttling backend sheds load quickly instead of piling up requests behind it
+     */
+    @Bean
+    public AdaptiveConcurrencyLimiter generateContentLimiter(MeterRegistry meterRegistry,
+                                                             @Value("${ai.limiter.initial-limit:20}") int initialLimit,
+                                                             @Value("${ai.limiter.min-limit:4}") int minLimit,
+                                                             @Value("${ai.limiter.max-limit:200}") int maxLimit,
+                                                             @Value("${ai.limiter.max-queue:100}") int maxQueue,
+                                                             @Value("${ai.limiter.max-wait:5s}") Duration maxWait,
+                                                             @Value("${ai.limiter.tolerance:1.5}") double tolerance,
+                                                             @Value("${ai.limiter.smoothing:0.2}") double smoothing) {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(initialLimit, minLimit, maxLimit,
+                maxQueue, maxWait, tolerance, smoothing, VertexAIConfig::isOverload,
+                () -> new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "AI analysis is at capacity, please retry shortly"));
+
+        Gauge.builder("ai.limiter.limit", limiter, AdaptiveConcurrencyLimiter::getLimit)
+                .description("Current adaptive concurrency limit for model calls")
+                .register(meterRegistry);
+        Gauge.builder("ai.limiter.in-flight", limiter, AdaptiveConcurrencyLimiter::getInFlight)
+                .register(meterRegistry);
+        Gauge.builder("ai.limiter.queued", limiter, AdaptiveConcurrencyLimiter::getQueued)
+                .register(meterRegistry);
+        FunctionCounter.builder("ai.limiter.rejected", limiter, AdaptiveConcurrencyLimiter::getRejected)
+                .description("Model calls rejected because the queue was full or the wait timed out")
+                .register(meterRegistry);
+        return limiter;
+    }
+
+    /**
+     * Retries transient model failures within one deadline for the whole call. Each attempt resends
+     * the request that was already built, so the client does not have to upload its image again.
+     */
+    @Bean
+    public RetryPolicy generateContentRetryPolicy(MeterRegistry meterRegistry,
+                                                  @Value("${ai.retry.max-attempts:3}") int maxAttempts,
+                                                  @Value("${ai.retry.initial-backoff:200ms}") Duration initialBackoff,
+                                                  @Value("${ai.retry.max-backoff:2s}") Duration maxBackoff,
+                                                  @Value("${ai.retry.deadline:60s}") Duration deadline) {
+        RetryPolicy retryPolicy = new RetryPolicy(maxAttempts, initialBackoff, maxBackoff, deadline, VertexAIConfig::isTransient);
+        FunctionCounter.builder("ai.retry.retries", retryPolicy, RetryPolicy::getRetries)
+                .register(meterRegistry);
+        FunctionCounter.builder("ai.retry.deadline-exceeded", retryPolicy, RetryPolicy::getDeadlinesExceeded)
+                .register(meterRegistry);
+        return retryPolicy;
+    }
+
+    /**
+     * Opens when too many AI analyses fail or run slow, so requests fail fast (or fall back to local
+     * estimates) instead of waiting out timeouts while the model is down
+     */
+    @Bean
+    public CircuitBreaker aiCircuitBreaker(MeterRegistry meterRegistry,
+                                           @Value("${ai.circuit-breaker.window-size:50}") int windowSize,
+                                           @Value("${ai.circuit-breaker.minimum-calls:10}") int minimumCalls,
+                                           @Value("${ai.circuit-breaker.failure-rate-threshold:0.5}") double failureRateThreshold,
+                                           @Value("${ai.circuit-breaker.slow-call-rate-threshold:0.8}") double slowCallRateThreshold,
+                                           @Value("${ai.circuit-breaker.slow-call-duration:30s}") Duration slowCallDuration,
+                                           @Value("${ai.circuit-breaker.open-duration:30s}") Duration openDuration,
+                                           @Value("${ai.circuit-breaker.half-open-probes:3}") int halfOpenProbes) {
+        CircuitBreaker circuitBreaker = new CircuitBreaker(windowSize, minimumCalls, failureRateThreshold,
+                slowCallRateThreshold, slowCallDuration, openDuration, halfOpenProbes,
+                // Our own rejections (limiter, breaker) and clients hanging up say nothing about the model's health
+                error -> !(error instanceof ResponseStatusException || error instanceof CancellationException),
+                () -> new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "AI analysis is temporarily unavailable, please retry later"));
+
+        Gauge.builder("ai.circuit-breaker.state", circuitBreaker, breaker -> breaker.getState().ordinal())
+                .description("0 = closed, 1 = open, 2 = half-open")
+                .register(meterRegistry);
+        Gauge.builder("ai.circuit-breaker.failure-rate", circuitBreaker, CircuitBreaker::getFailureRate)
+                .register(meterRegistry);
+        Gauge.builder("ai.circuit-breaker.slow-call-rate", circuitBreaker, CircuitBreaker::getSlowCallRate)
+                .register(meterRegistry);
+        FunctionCounter.builder("ai.circuit-breaker.rejected", circuitBreaker, CircuitBreaker::getRejected)
+                .register(meterRegistry);
+        return circuitBreaker;
+    }
+
+    /**
+     * gRPC statuses worth retrying: the same request may well succeed a moment later
+     */
+    private static boolean isTransient(Throwable error) {
+        return error instanceof ApiException apiException && switch (apiException.getStatusCode().getCode()) {
+            case UNAVAILABLE, RESOURCE_EXHAUSTED, DEADLINE_EXCEEDED, ABORTED, INTERNAL -> true;
+            default -> false;
+        };
+    }
+
+    /**
+     * gRPC statuses that mean the backend is overloaded rather than the request being bad
+     */
+    private static boolean isOverload(Throwable error) {
+        return error instanceof ApiException apiException && switch (apiException.getStatusCode().getCode()) {
+            case RESOURCE_EXHAUSTED, UNAVAILABLE, DEADLINE_EXCEEDED -> true;
+            default -> false;
+        };
     }
-}
\ No newline at end of file
+}
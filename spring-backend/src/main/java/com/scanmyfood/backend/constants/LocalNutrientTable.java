@@ -0,0 +1,111 @@
+package com.scanmyfood.backend.constants;
+
+import com.scanmyfood.backend.utils.MealDescriptionParser;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Approximate nutrients for common foods (USDA FoodData Central, typical preparation), used to
+ * estimate meal descriptions while the model is unavailable. Values are per 100 g, or per 100 ml for
+ * drinks, together with typical portion weights.
+ */
+public class LocalNutrientTable {
+
+    // Portion keys for items without a unit: "2 eggs" is a count, "rice" a default serving
+    public static final String COUNT = "count";
+    public static final String DEFAULT = "default";
+
+    public record Entry(String name, String baseUnit, double calories, double protein, double carbohydrates,
+                        double fat, double fiber, Map<String, Double> portions) {
+
+        /**
+         * Amount of the item in grams or millilitres, or null if its unit has no known conversion
+         */
+        public Double amountFor(MealDescriptionParser.Item item) {
+            double quantity = item.quantity() == null ? 1.0 : item.quantity();
+            Double factor;
+            if (item.unit() != null) {
+                factor = MealDescriptionParser.baseUnitFactor(item.unit(), baseUnit);
+                if (factor == null) {
+                    factor = portions.get(item.unit());
+                }
+            } else if (item.quantity() != null) {
+                factor = portions.get(COUNT);
+            } else {
+                factor = portions.getOrDefault(DEFAULT, portions.get(COUNT));
+            }
+            return factor == null ? null : quantity * factor;
+        }
+
+        /**
+         * Nutrients in the model's response format
+         */
+        public Map<String, Object> nutrientsPer100g() {
+            Map<String, Object> nutrients = new LinkedHashMap<>();
+            nutrients.put("calories", calories);
+            nutrients.put("protein", Map.of("value", protein, "unit", "g"));
+            nutrients.put("carbohydrates", Map.of("value", carbohydrates, "unit", "g"));
+            nutrients.put("fat", Map.of("value", fat, "unit", "g"));
+            nutrients.put("fiber", Map.of("value", fiber, "unit", "g"));
+            return nutrients;
+        }
+    }
+
+    private static final Map<String, Entry> ENTRIES = Map.ofEntries(
+            entry("egg", "Egg", "g", 155, 13.0, 1.1, 11.0, 0.0, Map.of(COUNT, 50.0)),
+            entry("rice", "Cooked white rice", "g", 130, 2.7, 28.0, 0.3, 0.4,
+                    Map.of(DEFAULT, 158.0, "cup", 158.0, "bowl", 200.0, "plate", 250.0, "serving", 158.0)),
+            entry("brown rice", "Cooked brown rice", "g", 123, 2.7, 25.6, 1.0, 1.6,
+                    Map.of(DEFAULT, 195.0, "cup", 195.0, "bowl", 200.0, "serving", 195.0)),
+            entry("bread", "White bread", "g", 265, 9.0, 49.0, 3.2, 2.7,
+                    Map.of(COUNT, 30.0, "slice", 30.0, "piece", 30.0)),
+            entry("toast", "Toasted white bread", "g", 293, 9.0, 54.0, 4.0, 2.5,
+                    Map.of(COUNT, 27.0, "slice", 27.0, "piece", 27.0)),
+            entry("chicken breast", "Cooked chicken breast", "g", 165, 31.0, 0.0, 3.6, 0.0,
+                    Map.of(DEFAULT, 120.0, COUNT, 120.0, "piece", 120.0, "serving", 120.0)),
+            entry("banana", "Banana", "g", 89, 1.1, 23.0, 0.3, 2.6, Map.of(COUNT, 118.0)),
+            entry("apple", "Apple", "g", 52, 0.3, 14.0, 0.2, 2.4, Map.of(COUNT, 182.0)),
+            entry("orange", "Orange", "g", 47, 0.9, 12.0, 0.1, 2.4, Map.of(COUNT, 131.0)),
+            entry("avocado", "Avocado", "g", 160, 2.0, 8.5, 14.7, 6.7, Map.of(COUNT, 150.0)),
+            entry("almond", "Almonds", "g", 579, 21.0, 22.0, 50.0, 12.5, Map.of(COUNT, 1.2, "cup", 143.0)),
+            entry("potato", "Boiled potato", "g", 87, 1.9, 20.0, 0.1, 1.8, Map.of(COUNT, 173.0, "cup", 156.0)),
+            entry("pasta", "Cooked pasta", "g", 158, 5.8, 31.0, 0.9, 1.8,
+                    Map.of(DEFAULT, 140.0, "cup", 140.0, "bowl", 200.0, "plate", 250.0, "serving", 140.0)),
+            entry("oatmeal", "Cooked oatmeal", "g", 71, 2.5, 12.0, 1.5, 1.7,
+                    Map.of(DEFAULT, 234.0, "cup", 234.0, "bowl", 234.0)),
+            entry("roti", "Roti", "g", 297, 9.8, 46.0, 7.5, 4.9, Map.of(COUNT, 40.0, "piece", 40.0)),
+            entry("chapati", "Chapati", "g", 297, 9.8, 46.0, 7.5, 4.9, Map.of(COUNT, 40.0, "piece", 40.0)),
+            entry("dal", "Cooked lentil dal", "g", 116, 9.0, 20.0, 0.4, 8.0,
+                    Map.of(DEFAULT, 200.0, "cup", 198.0, "bowl", 200.0, "serving", 200.0)),
+            entry("yogurt", "Plain yogurt", "g", 61, 3.5, 4.7, 3.3, 0.0,
+                    Map.of(DEFAULT, 245.0, "cup", 245.0, "bowl", 200.0, "tbsp", 15.0)),
+            entry("salmon", "Cooked salmon", "g", 206, 22.0, 0.0, 12.0, 0.0,
+                    Map.of(DEFAULT, 150.0, COUNT, 150.0, "piece", 150.0, "serving", 150.0)),
+            entry("broccoli", "Cooked broccoli", "g", 35, 2.4, 7.2, 0.4, 3.3, Map.of(DEFAULT, 156.0, "cup", 156.0)),
+            entry("cheese", "Cheddar cheese", "g", 403, 25.0, 1.3, 33.0, 0.0, Map.of(COUNT, 28.0, "slice", 28.0)),
+            entry("butter", "Butter", "g", 717, 0.9, 0.1, 81.0, 0.0, Map.of("tbsp", 14.0, "tsp", 5.0)),
+            entry("peanut butter", "Peanut butter", "g", 588, 25.0, 20.0, 50.0, 6.0, Map.of("tbsp", 16.0, "tsp", 5.0)),
+            entry("sugar", "Sugar", "g", 387, 0.0, 100.0, 0.0, 0.0, Map.of("tbsp", 12.5, "tsp", 4.2)),
+            entry("milk", "Whole milk", "ml", 61, 3.2, 4.8, 3.3, 0.0,
+                    Map.of(DEFAULT, 244.0, "cup", 244.0, "glass", 244.0, "tbsp", 15.0)),
+            entry("orange juice", "Orange juice", "ml", 45, 0.7, 10.4, 0.2, 0.2,
+                    Map.of(DEFAULT, 248.0, "cup", 248.0, "glass", 248.0)),
+            entry("coffee", "Black coffee", "ml", 1, 0.1, 0.0, 0.0, 0.0, Map.of(DEFAULT, 240.0, COUNT, 240.0, "cup", 240.0)));
+
+    private LocalNutrientTable() {
+    }
+
+    /**
+     * Entry for a parsed food name, or null if the food is not in the table
+     */
+    public static Entry find(String food) {
+        return ENTRIES.get(food);
+    }
+
+    private static Map.Entry<String, Entry> entry(String food, String name, String baseUnit, double calories,
+                                                  double protein, double carbohydrates, double fat, double fiber,
+                                                  Map<String, Double> portions) {
+        return Map.entry(food, new Entry(name, baseUnit, calories, protein, carbohydrates, fat, fiber, portions));
+    }
+}
@@ -0,0 +1,124 @@
+package com.scanmyfood.backend.constants;
+
+import com.google.cloud.vertexai.api.Schema;
+import com.google.cloud.vertexai.api.Type;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Response schemas for the model's answers, mirroring the JSON formats described in the prompts.
+ * With a schema and {@code application/json} as the response type the model can only produce
+ * valid JSON of this shape, so answers are parsed as they are instead of being cut out of free text.
+ * Every property is required; keep these in sync with the prompts and the prompt versions.
+ */
+public final class ResponseSchemas {
+
+    private static final Schema NUTRIENTS = object(ordered(
+            "calories", number(),
+            "protein", amount("value"),
+            "carbohydrates", amount("value"),
+            "fat", amount("value"),
+            "fiber", amount("value")));
+
+    public static final Schema PRODUCT = object(ordered(
+            "product", object(ordered(
+                    "name", string(),
+                    "category", string())),
+            "nutrition_analysis", object(ordered(
+                    "serving_size", string(),
+                    "nutrients", array(object(ordered(
+                            "name", string(),
+                            "quantity", string(),
+                            "daily_value", string(),
+                            "dv_status", oneOf("High", "Moderate", "Low"),
+                            "goal", oneOf("At least", "Less than"),
+                            "health_impact", oneOf("Good", "Moderate", "Bad")))),
+                    "primary_concerns", array(object(ordered(
+                            "issue", string(),
+                            "explanation", string(),
+                            "recommendations", array(object(ordered(
+                                    "food", string(),
+                                    "quantity", string(),
+                                    "reasoning", string()))))))))));
+
+    public static final Schema FOOD_IMAGE = object(ordered(
+            "plate_analysis", object(ordered(
+                    "meal_name", string(),
+                    "items", array(object(ordered(
+                            "food_name", string(),
+                            "estimated_quantity", amount("amount"),
+                            "nutrients_per_100g", NUTRIENTS,
+                            "total_nutrients", NUTRIENTS,
+                            "visual_cues", array(string()),
+                            "position", string()))),
+                    "total_plate_nutrients", NUTRIENTS))));
+
+    private static final Schema MEAL_ANALYSIS = object(ordered(
+            "meal_name", string(),
+            "items", array(object(ordered(
+                    "food_name", string(),
+                    "mentioned_quantity", amount("amount"),
+                    "nutrients_per_100g", NUTRIENTS,
+                    "nutrients_in_mentioned_quantity", NUTRIENTS))),
+            "total_nutrients", NUTRIENTS));
+
+    public static final Schema DESCRIPTION = object(ordered(
+            "meal_analysis", MEAL_ANALYSIS));
+
+    /**
+     * One {@link #DESCRIPTION} answer per description, each tagged with the index the description was
+     * sent with so answers are matched to descriptions by index rather than by position
+     */
+    public static final Schema DESCRIPTION_BATCH = object(ordered(
+            "meals", array(object(ordered(
+                    "index", integer(),
+                    "meal_analysis", MEAL_ANALYSIS)))));
+
+    private ResponseSchemas() {
+    }
+
+    private static Schema object(Map<String, Schema> properties) {
+        return Schema.newBuilder()
+                .setType(Type.OBJECT)
+                .putAllProperties(properties)
+                .addAllRequired(properties.keySet())
+                .build();
+    }
+
+    private static Schema array(Schema items) {
+        return Schema.newBuilder().setType(Type.ARRAY).setItems(items).build();
+    }
+
+    private static Schema string() {
+        return Schema.newBuilder().setType(Type.STRING).build();
+    }
+
+    private static Schema integer() {
+        return Schema.newBuilder().setType(Type.INTEGER).build();
+    }
+
+    private static Schema number() {
+        return Schema.newBuilder().setType(Type.NUMBER).build();
+    }
+
+    private static Schema oneOf(String... values) {
+        return Schema.newBuilder().setType(Type.STRING).addAllEnum(List.of(values)).build();
+    }
+
+    /**
+     * {@code {"<valueField>": 0, "unit": "g"}}
+     */
+    private static Schema amount(String valueField) {
+        return object(ordered(valueField, number(), "unit", string()));
+    }
+
+    private static Map<String, Schema> ordered(Object... namesAndSchemas) {
+        Map<String, Schema> properties = new LinkedHashMap<>();
+        for (int i = 0; i < namesAndSchemas.length; i += 2) {
+            properties.put((String) namesAndSchemas[i], (Schema) namesAndSchemas[i + 1]);
+        }
+        return properties;
+    }
+}
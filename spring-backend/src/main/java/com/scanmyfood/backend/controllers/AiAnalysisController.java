@@ -1,62 +1,286 @@
 package com.scanmyfood.backend.controllers;
 
+import com.scanmyfood.backend.models.AnalysisJob;
 import com.scanmyfood.backend.models.ApiResponse;
 import com.scanmyfood.backend.models.FoodAnalysisResponse;
 import com.scanmyfood.backend.models.ProductAnalysisResponse;
-import com.scanmyfood.backend.services.AiResponseProcessingService;
 import com.scanmyfood.backend.services.AiService;
+import com.scanmyfood.backend.services.AnalysisJobService;
+import com.scanmyfood.backend.services.CallerIdentityService;
+import com.scanmyfood.backend.services.DescriptionCacheService;
+import com.scanmyfood.backend.services.FoodAnalysisStreamingService;
+import com.scanmyfood.backend.services.FoodItemCacheService;
+import com.scanmyfood.backend.services.IdempotencyService;
+import com.scanmyfood.backend.services.MealImageCacheService;
+import com.scanmyfood.backend.services.ProductAnalysisCacheService;
+import com.scanmyfood.backend.services.UploadAdmissionService;
+import com.scanmyfood.backend.utils.HashUtils;
+import jakarta.servlet.http.HttpServletRequest;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 @Slf4j
 @RestController
 @RequestMapping("/api/ai")
 public class AiAnalysisController {
-    private final AiService aiService;
-    private final AiResponseProcessingService aiResponseProcessingService;
+    private static final String IDEMPOTENCY_KEY = "Idempotency-Key";
 
+    private final AiService aiService;
+    private final ProductAnalysisCacheService productAnalysisCacheService;
+    private final MealImageCacheService mealImageCacheService;
+    private final DescriptionCacheService descriptionCacheService;
+    private final FoodItemCacheService foodItemCacheService;
+    private final FoodAnalysisStreamingService foodAnalysisStreamingService;
+    private final UploadAdmissionService uploadAdmissionService;
+    private final AnalysisJobService analysisJobService;
+    private final IdempotencyService idempotencyService;
+    private final CallerIdentityService callerIdentityService;
 
     @Autowired
-    public AiAnalysisController(AiService aiService, AiResponseProcessingService aiResponseProcessingService) {
+    public AiAnalysisController(AiService aiService,
+                                ProductAnalysisCacheService productAnalysisCacheService,
+                                MealImageCacheService mealImageCacheService,
+                                DescriptionCacheService descriptionCacheService,
+                                FoodItemCacheService foodItemCacheService,
+                                FoodAnalysisStreamingService foodAnalysisStreamingService,
+                                UploadAdmissionService uploadAdmissionService,
+                                AnalysisJobService analysisJobService,
+                                IdempotencyService idempotencyService,
+                                CallerIdentityService callerIdentityService) {
         this.aiService = aiService;
-        this.aiResponseProcessingService = aiResponseProcessingService;
+        this.productAnalysisCacheService = productAnalysisCacheService;
+        this.mealImageCacheService = mealImageCacheService;
+        this.descriptionCacheService = descriptionCacheService;
+        this.foodItemCacheService = foodItemCacheService;
+        this.foodAnalysisStreamingService = foodAnalysisStreamingService;
+        this.uploadAdmissionService = uploadAdmissionService;
+        this.analysisJobService = analysisJobService;
+        this.idempotencyService = idempotencyService;
+        this.callerIdentityService = callerIdentityService;
     }
 
     @PostMapping(value = "/analyze/product", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
-    public ResponseEntity<ApiResponse<ProductAnalysisResponse>> analyzeProductImages(
+    public CompletableFuture<ResponseEntity<ApiResponse<ProductAnalysisResponse>>> analyzeProductImages(
             @RequestParam("frontImage") MultipartFile frontImage,
-            @RequestParam("labelImage") MultipartFile labelImage) {
+            @RequestParam("labelImage") MultipartFile labelImage,
+            @RequestHeader(value = IDEMPOTENCY_KEY, required = false) String idempotencyKey,
+            HttpServletRequest httpRequest) {
         log.info("Analyzing product images");
-        Map<String, Object> analysis = aiService.analyzeProductImages(frontImage, labelImage);
-        ProductAnalysisResponse processedAnalysis = aiResponseProcessingService.processProductImagesResponse(analysis);
-        log.info("Product images analyzed successfully");
-        return ResponseEntity.ok(ApiResponse.success(processedAnalysis));
+        return idempotent(idempotencyKey, "analyze/product", httpRequest, () -> uploadsHash(frontImage, labelImage),
+                        ProductAnalysisResponse.class, () -> analyzeProduct(frontImage, labelImage))
+                .thenApply(processedAnalysis -> {
+                    log.info("Product images analyzed successfully");
+                    return ResponseEntity.ok(ApiResponse.success(processedAnalysis));
+                });
     }
 
     @PostMapping(value = "/analyze/image", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
-    public ResponseEntity<ApiResponse<FoodAnalysisResponse>> analyzeFoodImage(
-            @RequestParam("image") MultipartFile imageFile) {
+    public CompletableFuture<ResponseEntity<ApiResponse<FoodAnalysisResponse>>> analyzeFoodImage(
+            @RequestParam("image") MultipartFile imageFile,
+            @RequestHeader(value = IDEMPOTENCY_KEY, required = false) String idempotencyKey,
+            HttpServletRequest httpRequest) {
         log.info("Analyzing food image");
-        Map<String, Object> analysis = aiService.analyzeFoodImage(imageFile);
-        FoodAnalysisResponse processedAnalysis = aiResponseProcessingService.processFoodImageResponse(analysis);
-        log.info("Food image analyzed successfully");
-        return ResponseEntity.ok(ApiResponse.success(processedAnalysis));
+        return idempotent(idempotencyKey, "analyze/image", httpRequest, () -> uploadsHash(imageFile),
+                        FoodAnalysisResponse.class, () -> analyzeImage(imageFile))
+                .thenApply(processedAnalysis -> {
+                    log.info("Food image analyzed successfully");
+                    return ResponseEntity.ok(ApiResponse.success(processedAnalysis));
+                });
     }
 
     @PostMapping("/analyze/description")
-    public ResponseEntity<ApiResponse<FoodAnalysisResponse>> analyzeFoodDescription(
-            @RequestBody Map<String, String> request) {
+    public CompletableFuture<ResponseEntity<ApiResponse<FoodAnalysisResponse>>> analyzeFoodDescription(
+            @RequestBody Map<String, String> request,
+            @RequestHeader(value = IDEMPOTENCY_KEY, required = false) String idempotencyKey,
+            HttpServletRequest httpRequest) {
         log.info("Analyzing food description");
         String description = request.get("description");
-        Map<String, Object> analysis = aiService.analyzeFoodDescription(description);
-        FoodAnalysisResponse processedAnalysis = aiResponseProcessingService.processFoodDescriptionResponse(analysis);
-        log.info("Food description analyzed successfully");
-        return ResponseEntity.ok(ApiResponse.success(processedAnalysis));
+        return idempotent(idempotencyKey, "analyze/description", httpRequest, () -> descriptionHash(description),
+                        FoodAnalysisResponse.class, () -> analyzeDescription(description))
+                .thenApply(processedAnalysis -> {
+                    log.info("Food description analyzed successfully");
+                    return ResponseEntity.ok(ApiResponse.success(processedAnalysis));
+                });
+    }
+
+    @PostMapping(value = "/analyze/image/stream", consumes = MediaType.MULTIPART_FORM_DATA_VALUE,
+            produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamFoodImageAnalysis(@RequestParam("image") MultipartFile imageFile) {
+        log.info("Streaming food image analysis");
+        return foodAnalysisStreamingService.streamFoodImage(imageFile);
+    }
+
+    @PostMapping(value = "/analyze/description/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamFoodDescriptionAnalysis(@RequestBody Map<String, String> request) {
+        log.info("Streaming food description analysis");
+        return foodAnalysisStreamingService.streamFoodDescription(request.get("description"));
+    }
+
+    /**
+     * Starts a product analysis as a job and answers 202 with its ID at once; poll
+     * {@code GET /api/ai/jobs/{id}} for the result
+     */
+    @PostMapping(value = "/jobs/product", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    public CompletableFuture<ResponseEntity<ApiResponse<AnalysisJob>>> submitProductJob(
+            @RequestParam("frontImage") MultipartFile frontImage,
+            @RequestParam("labelImage") MultipartFile labelImage,
+            @RequestHeader(value = IDEMPOTENCY_KEY, required = false) String idempotencyKey,
+            HttpServletRequest httpRequest) {
+        return submitJob(idempotencyKey, "product", httpRequest, () -> uploadsHash(frontImage, labelImage),
+                List.of(frontImage, labelImage), images -> productAnalysis(images.get(0), images.get(1)));
+    }
+
+    @PostMapping(value = "/jobs/image", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    public CompletableFuture<ResponseEntity<ApiResponse<AnalysisJob>>> submitImageJob(
+            @RequestParam("image") MultipartFile imageFile,
+            @RequestHeader(value = IDEMPOTENCY_KEY, required = false) String idempotencyKey,
+            HttpServletRequest httpRequest) {
+        return submitJob(idempotencyKey, "image", httpRequest, () -> uploadsHash(imageFile),
+                List.of(imageFile), images -> imageAnalysis(images.get(0)));
+    }
+
+    @PostMapping("/jobs/description")
+    public CompletableFuture<ResponseEntity<ApiResponse<AnalysisJob>>> submitDescriptionJob(
+            @RequestBody Map<String, String> request,
+            @RequestHeader(value = IDEMPOTENCY_KEY, required = false) String idempotencyKey,
+            HttpServletRequest httpRequest) {
+        String description = request.get("description");
+        return submitJob(idempotencyKey, "description", httpRequest, () -> descriptionHash(description),
+                List.of(), ignored -> analyzeDescription(description));
+    }
+
+    /**
+     * Returns the job's current state. With {@code wait} (in seconds) the answer is held until the job
+     * completes or the wait runs out, so clients can long-poll instead of polling in a tight loop.
+     */
+    @GetMapping("/jobs/{id}")
+    public CompletableFuture<ResponseEntity<ApiResponse<AnalysisJob>>> getJob(
+            @PathVariable String id,
+            @RequestParam(value = "wait", defaultValue = "0") long waitSeconds,
+            HttpServletRequest httpRequest) {
+        return analysisJobService.poll(id, callerIdentityService.callerId(httpRequest), Duration.ofSeconds(waitSeconds))
+                .thenApply(job -> ResponseEntity.ok(ApiResponse.success(job)));
+    }
+
+    private CompletableFuture<ProductAnalysisResponse> analyzeProduct(MultipartFile frontImage, MultipartFile labelImage) {
+        return uploadAdmissionService.admit(List.of(frontImage, labelImage),
+                images -> productAnalysis(images.get(0), images.get(1)));
+    }
+
+    private CompletableFuture<FoodAnalysisResponse> analyzeImage(MultipartFile imageFile) {
+        return uploadAdmissionService.admit(List.of(imageFile), images -> imageAnalysis(images.get(0)));
     }
+
+    private CompletableFuture<ProductAnalysisResponse> productAnalysis(MultipartFile frontImage, MultipartFile labelImage) {
+        return productAnalysisCacheService.getOrAnalyze(frontImage, labelImage,
+                () -> aiService.analyzeProductImages(frontImage, labelImage));
+    }
+
+    private CompletableFuture<FoodAnalysisResponse> imageAnalysis(MultipartFile imageFile) {
+        return mealImageCacheService.getOrAnalyze(imageFile, () -> aiService.analyzeFoodImage(imageFile));
+    }
+
+    private CompletableFuture<FoodAnalysisResponse> analyzeDescription(String description) {
+        return descriptionCacheService.getOrAnalyze(description,
+                () -> foodItemCacheService.analyze(description, aiService::analyzeFoodDescription));
+    }
+
+    /**
+     * Submits a job, or with a repeated Idempotency-Key answers with the job the first request started.
+     * Only a new job reserves and reads its uploads.
+     */
+    private CompletableFuture<ResponseEntity<ApiResponse<AnalysisJob>>> submitJob(
+            String idempotencyKey, String type, HttpServletRequest httpRequest, Supplier<String> requestHash,
+            List<MultipartFile> uploads, Function<List<MultipartFile>, ? extends CompletableFuture<?>> analysis) {
+        return idempotent(idempotencyKey, "jobs/" + type, httpRequest, requestHash, AnalysisJob.class,
+                        () -> CompletableFuture.completedFuture(
+                                submitHoldingUploads(type, callerIdentityService.callerId(httpRequest), uploads, analysis)))
+                .thenApply(AiAnalysisController::accepted);
+    }
+
+    /**
+     * Queues a job whose uploads hold their share of the upload budget from submission until the
+     * analysis completes, so queued jobs count against the same heap bound as requests in progress.
+     * A full budget answers 503 at once rather than waiting, and a rejected job releases its share.
+     */
+    private AnalysisJob submitHoldingUploads(String type, String callerId, List<MultipartFile> uploads,
+                                             Function<List<MultipartFile>, ? extends CompletableFuture<?>> analysis) {
+        UploadAdmissionService.Reservation reservation = uploadAdmissionService.reserve(uploads);
+        try {
+            return analysisJobService.submit(type, callerId, () -> {
+                try {
+                    return analysis.apply(reservation.files()).whenComplete((result, error) -> reservation.release());
+                } catch (RuntimeException e) {
+                    reservation.release();
+                    throw e;
+                }
+            });
+        } catch (RuntimeException e) {
+            reservation.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Runs {@code analysis} through the idempotency store, scoped to the calling user (or IP) and bound
+     * to the request's hash. The caller is only identified for requests that carry a key.
+     */
+    private <T> CompletableFuture<T> idempotent(String idempotencyKey, String endpoint, HttpServletRequest httpRequest,
+                                                Supplier<String> requestHash, Class<T> type,
+                                                Supplier<CompletableFuture<T>> analysis) {
+        String callerId = idempotencyKey == null || idempotencyKey.isBlank()
+                ? null
+                : callerIdentityService.callerId(httpRequest);
+        return idempotencyService.execute(idempotencyKey, endpoint, callerId, requestHash, type, analysis);
+    }
+
+    /**
+     * Hashes the uploads' names and bytes, streaming them from the container's temp files
+     */
+    private static String uploadsHash(MultipartFile... uploads) {
+        MessageDigest digest = HashUtils.sha256();
+        byte[] buffer = new byte[64 * 1024];
+        for (MultipartFile upload : uploads) {
+            digest.update(upload.getName().getBytes(StandardCharsets.UTF_8));
+            try (InputStream in = upload.getInputStream()) {
+                for (int read = in.read(buffer); read >= 0; read = in.read(buffer)) {
+                    digest.update(buffer, 0, read);
+                }
+            } catch (IOException e) {
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Could not read upload " + upload.getName(), e);
+            }
+        }
+        return HashUtils.toHex(digest.digest());
+    }
+
+    private static String descriptionHash(String description) {
+        return HashUtils.sha256Hex(Objects.toString(description, ""));
+    }
+
+    private static ResponseEntity<ApiResponse<AnalysisJob>> accepted(AnalysisJob job) {
+        return ResponseEntity.accepted()
+                .location(URI.create("/api/ai/jobs/" + job.getId()))
+                .body(ApiResponse.success(job));
+    }
+
 }
@@ -1,6 +1,7 @@
 package com.scanmyfood.backend.controllers;
 
 import com.scanmyfood.backend.models.ApiResponse;
+import com.scanmyfood.backend.utils.CircuitBreaker;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
@@ -13,11 +14,18 @@ import java.util.Map;
 @RequestMapping("/api/health")
 public class HealthController {
 
+    private final CircuitBreaker aiCircuitBreaker;
+
+    public HealthController(CircuitBreaker aiCircuitBreaker) {
+        this.aiCircuitBreaker = aiCircuitBreaker;
+    }
+
     @GetMapping
     public ResponseEntity<ApiResponse<Map<String, String>>> checkHealth() {
         Map<String, String> healthData = new HashMap<>();
         healthData.put("status", "UP");
         healthData.put("service", "Food Scan AI Backend");
+        healthData.put("aiCircuitBreaker", aiCircuitBreaker.getState().name());
 
         return ResponseEntity.ok(ApiResponse.success(healthData));
     }
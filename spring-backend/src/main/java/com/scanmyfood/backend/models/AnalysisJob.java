@@ -0,0 +1,35 @@
+package com.scanmyfood.backend.models;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+
+/**
+ * State of an asynchronous analysis as returned to clients. {@code result} holds the same analysis
+ * the synchronous endpoint would return once {@code status} is {@code succeeded}; a failed job
+ * carries the error message and the HTTP status the synchronous endpoint would have answered with.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class AnalysisJob {
+
+    public enum Status {
+        QUEUED, RUNNING, SUCCEEDED, FAILED
+    }
+
+    private String id;
+    private String type;
+    private Status status;
+    private Object result;
+    private String error;
+    private Integer errorStatus;
+    private Instant createdAt;
+    private Instant completedAt;
+}
@@ -1,13 +1,43 @@
 package com.scanmyfood.backend.models;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import lombok.Data;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
 @Data
 public class FoodAnalysisResponse {
+    private static final List<String> NUTRIENTS = List.of("calories", "protein", "carbohydrates", "fat", "fiber");
+
     private String mealName;
     private List<FoodItem> analyzedFoodItems;
     private Map<String, Object> totalPlateNutrients;
+
+    // Set only when the analysis is a local estimate made while the model is unavailable
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Boolean estimated;
+
+    // Set only when the model's answer was cut off and only its complete items were kept, or when
+    // even the standard model's answer failed the plausibility checks
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Boolean partial;
+
+    /**
+     * Sums the nutrients of the given items, in the same format as the model's totals
+     */
+    public static Map<String, Object> totalNutrients(List<FoodItem> foodItems) {
+        Map<String, Double> totals = new LinkedHashMap<>();
+        for (FoodItem foodItem : foodItems) {
+            foodItem.calculateTotalNutrients().forEach((nutrient, value) -> totals.merge(nutrient, value, Double::sum));
+        }
+
+        Map<String, Object> totalNutrients = new LinkedHashMap<>();
+        for (String nutrient : NUTRIENTS) {
+            double value = Math.round(totals.getOrDefault(nutrient, 0.0) * 10.0) / 10.0;
+            totalNutrients.put(nutrient, nutrient.equals("calories") ? value : Map.of("value", value, "unit", "g"));
+        }
+        return totalNutrients;
+    }
 }
 
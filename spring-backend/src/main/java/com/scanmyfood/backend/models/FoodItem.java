@@ -16,12 +16,21 @@ public class FoodItem {
         double factor = quantity / 100.0;
         Map<String, Double> totalNutrients = new HashMap<>();
 
-        totalNutrients.put("calories", ((Number)nutrientsPer100g.get("calories")).doubleValue() * factor);
-        totalNutrients.put("protein", ((Number)nutrientsPer100g.get("protein")).doubleValue() * factor);
-        totalNutrients.put("carbohydrates", ((Number)nutrientsPer100g.get("carbohydrates")).doubleValue() * factor);
-        totalNutrients.put("fat", ((Number)nutrientsPer100g.get("fat")).doubleValue() * factor);
-        totalNutrients.put("fiber", ((Number)nutrientsPer100g.get("fiber")).doubleValue() * factor);
+        totalNutrients.put("calories", nutrientPer100g("calories") * factor);
+        totalNutrients.put("protein", nutrientPer100g("protein") * factor);
+        totalNutrients.put("carbohydrates", nutrientPer100g("carbohydrates") * factor);
+        totalNutrients.put("fat", nutrientPer100g("fat") * factor);
+        totalNutrients.put("fiber", nutrientPer100g("fiber") * factor);
 
         return totalNutrients;
     }
+
+    // Nutrients arrive either as plain numbers or as {"value": 0, "unit": "g"}
+    public double nutrientPer100g(String nutrient) {
+        Object value = nutrientsPer100g == null ? null : nutrientsPer100g.get(nutrient);
+        if (value instanceof Map<?, ?> map) {
+            value = map.get("value");
+        }
+        return value instanceof Number number ? number.doubleValue() : 0.0;
+    }
 }
@@ -0,0 +1,39 @@
+package com.scanmyfood.backend.models;
+
+import jakarta.persistence.*;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.time.LocalDateTime;
+
+/**
+ * A completed analysis stored under its Idempotency-Key after it was evicted from the in-memory
+ * store, so a late retry still gets the original result instead of a new model call
+ */
+@Getter
+@Setter
+@Entity
+@Table(name = "idempotency_records")
+public class IdempotencyRecord {
+    // SHA-256 of the endpoint, caller and client key
+    @Id
+    @Column(length = 64)
+    private String idempotencyKey;
+
+    // SHA-256 of the request the key was first used with
+    @Column(length = 64, nullable = false)
+    private String requestHash;
+
+    @Column(columnDefinition = "TEXT", nullable = false)
+    private String responseJson;
+
+    @Column(nullable = false)
+    private LocalDateTime createdAt;
+
+    @PrePersist
+    protected void onCreate() {
+        if (createdAt == null) {
+            createdAt = LocalDateTime.now();
+        }
+    }
+}
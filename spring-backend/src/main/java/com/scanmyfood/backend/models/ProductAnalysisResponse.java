@@ -2,6 +2,7 @@ package com.scanmyfood.backend.models;
 
 import java.util.List;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import lombok.Data;
 
 @Data
@@ -9,6 +10,11 @@ public class ProductAnalysisResponse {
     private ProductInfo product;
     private NutritionAnalysis nutritionAnalysis;
 
+    // Set only when the model's answer was cut off and only its complete entries were kept, or when
+    // even the standard model's answer failed the plausibility checks
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Boolean partial;
+
     @Data
     public static class ProductInfo {
         private String name;
@@ -0,0 +1,15 @@
+package com.scanmyfood.backend.repositories;
+
+import com.scanmyfood.backend.models.IdempotencyRecord;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.Optional;
+
+public interface IdempotencyRecordRepository extends JpaRepository<IdempotencyRecord, String> {
+    Optional<IdempotencyRecord> findByIdempotencyKeyAndCreatedAtAfter(String idempotencyKey, LocalDateTime createdAfter);
+
+    @Transactional
+    long deleteByCreatedAtBefore(LocalDateTime createdBefore);
+}
@@ -1,14 +1,35 @@
 package com.scanmyfood.backend.services;
 
+import com.fasterxml.jackson.core.JsonParser;
 import com.scanmyfood.backend.models.FoodAnalysisResponse;
+import com.scanmyfood.backend.models.FoodItem;
 import com.scanmyfood.backend.models.ProductAnalysisResponse;
 
+import java.io.IOException;
+import java.util.List;
 import java.util.Map;
 
+/**
+ * Binds the model's JSON answers straight into the response models. Each method reads one JSON
+ * object from a parser positioned on, or just before, its opening brace.
+ */
 public interface AiResponseProcessingService {
 
-    ProductAnalysisResponse processProductImagesResponse(Map<String, Object> aiResponse);
-    FoodAnalysisResponse processFoodImageResponse(Map<String, Object> aiResponse);
-    FoodAnalysisResponse processFoodDescriptionResponse(Map<String, Object> aiResponse);
+    ProductAnalysisResponse processProductImagesResponse(JsonParser parser) throws IOException;
+    FoodAnalysisResponse processFoodImageResponse(JsonParser parser) throws IOException;
+    FoodAnalysisResponse processFoodDescriptionResponse(JsonParser parser) throws IOException;
+    /**
+     * Batch meals keyed by the description index each one echoes; an index answered twice is rejected
+     */
+    Map<Integer, FoodAnalysisResponse> processFoodDescriptionBatchResponse(JsonParser parser) throws IOException;
+    FoodItem processFoodImageItem(JsonParser parser) throws IOException;
+    FoodItem processFoodDescriptionItem(JsonParser parser) throws IOException;
+
+    /**
+     * Confidence checks on a complete answer: false when it is partial or its values are implausible,
+     * such as a DV status that contradicts the DV% or nutrients that do not add up to the calories
+     */
+    boolean isPlausibleProduct(ProductAnalysisResponse response);
+    boolean isPlausibleMeal(FoodAnalysisResponse response);
 
 }
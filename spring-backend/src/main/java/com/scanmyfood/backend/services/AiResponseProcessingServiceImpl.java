@@ -1,145 +1,296 @@
 package com.scanmyfood.backend.services;
 
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
 import org.springframework.stereotype.Service;
 
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.PropertyNamingStrategies;
+import com.fasterxml.jackson.module.blackbird.BlackbirdModule;
 import com.scanmyfood.backend.models.FoodAnalysisResponse;
 import com.scanmyfood.backend.models.FoodItem;
 import com.scanmyfood.backend.models.ProductAnalysisResponse;
 
+/**
+ * Reads the model's answers in one pass over the parser's tokens, without building an intermediate
+ * map of the whole document. The product answer maps 1:1 onto {@link ProductAnalysisResponse} and is
+ * bound by Jackson with snake_case names; meal answers are nested differently from
+ * {@link FoodAnalysisResponse} and are read field by field. Nutrient objects stay maps, as in the models.
+ */
 @Service
-public class AiResponseProcessingServiceImpl implements AiResponseProcessingService{
+public class AiResponseProcessingServiceImpl implements AiResponseProcessingService {
+
+    // Pure fat; nothing has more calories per 100 g
+    private static final double MAX_CALORIES_PER_100G = 900;
+    // Calories from 4/4/9 kcal per gram of protein/carbohydrates/fat may differ from the stated
+    // calories by this share (or MIN_CALORIE_GAP, whichever is larger) before an item is doubted
+    private static final double CALORIE_TOLERANCE = 0.35;
+    private static final double MIN_CALORIE_GAP = 40;
+    private static final double LOW_DV_PERCENT = 5;
+    private static final double HIGH_DV_PERCENT = 20;
+
+    private final ObjectReader productReader;
+    private final ObjectReader nutrientsReader;
+
+    public AiResponseProcessingServiceImpl(ObjectMapper objectMapper) {
+        // The model answers in snake_case; the application's mapper keeps writing camelCase to clients
+        ObjectMapper modelMapper = objectMapper.copy()
+                .setPropertyNamingStrategy(PropertyNamingStrategies.SNAKE_CASE)
+                .registerModule(new BlackbirdModule());
+        this.productReader = modelMapper.readerFor(ProductAnalysisResponse.class);
+        this.nutrientsReader = modelMapper.readerFor(new TypeReference<Map<String, Object>>() {});
+    }
 
     @Override
-    public ProductAnalysisResponse processProductImagesResponse(Map<String, Object> aiResponse) {
-        ProductAnalysisResponse response = new ProductAnalysisResponse();
-
-        // Process product information
-        Map<String, Object> productInfo = (Map<String, Object>) aiResponse.get("product");
-        ProductAnalysisResponse.ProductInfo product = new ProductAnalysisResponse.ProductInfo();
-        product.setName((String) productInfo.get("name"));
-        product.setCategory((String) productInfo.get("category"));
-        response.setProduct(product);
-
-        // Process nutrition analysis
-        Map<String, Object> nutritionAnalysisMap = (Map<String, Object>) aiResponse.get("nutrition_analysis");
-        ProductAnalysisResponse.NutritionAnalysis nutritionAnalysis = new ProductAnalysisResponse.NutritionAnalysis();
-
-        // Set serving size
-        nutritionAnalysis.setServingSize((String) nutritionAnalysisMap.get("serving_size"));
-
-        // Process nutrients
-        List<Map<String, Object>> nutrientsMap = (List<Map<String, Object>>) nutritionAnalysisMap.get("nutrients");
-        List<ProductAnalysisResponse.Nutrient> nutrients = new ArrayList<>();
-
-        for (Map<String, Object> nutrientMap : nutrientsMap) {
-            ProductAnalysisResponse.Nutrient nutrient = new ProductAnalysisResponse.Nutrient();
-            nutrient.setName((String) nutrientMap.get("name"));
-            nutrient.setQuantity((String) nutrientMap.get("quantity"));
-            nutrient.setDailyValue((String) nutrientMap.get("daily_value"));
-            nutrient.setDvStatus((String) nutrientMap.get("dv_status"));
-            nutrient.setGoal((String) nutrientMap.get("goal"));
-            nutrient.setHealthImpact((String) nutrientMap.get("health_impact"));
-            nutrients.add(nutrient);
-        }
-        nutritionAnalysis.setNutrients(nutrients);
-
-        // Process primary concerns
-        List<Map<String, Object>> concernsMap = (List<Map<String, Object>>) nutritionAnalysisMap.get("primary_concerns");
-        if (concernsMap != null) {
-            List<ProductAnalysisResponse.PrimaryConcern> concerns = new ArrayList<>();
-
-            for (Map<String, Object> concernMap : concernsMap) {
-                ProductAnalysisResponse.PrimaryConcern concern = new ProductAnalysisResponse.PrimaryConcern();
-                concern.setIssue((String) concernMap.get("issue"));
-                concern.setExplanation((String) concernMap.get("explanation"));
-
-                // Process recommendations
-                List<Map<String, Object>> recommendationsMap = (List<Map<String, Object>>) concernMap.get("recommendations");
-                if (recommendationsMap != null) {
-                    List<ProductAnalysisResponse.Recommendation> recommendations = new ArrayList<>();
-
-                    for (Map<String, Object> recMap : recommendationsMap) {
-                        ProductAnalysisResponse.Recommendation recommendation = new ProductAnalysisResponse.Recommendation();
-                        recommendation.setFood((String) recMap.get("food"));
-                        recommendation.setQuantity((String) recMap.get("quantity"));
-                        recommendation.setReasoning((String) recMap.get("reasoning"));
-                        recommendations.add(recommendation);
-                    }
-                    concern.setRecommendations(recommendations);
-                }
-                concerns.add(concern);
-            }
-            nutritionAnalysis.setPrimaryConcerns(concerns);
+    public ProductAnalysisResponse processProductImagesResponse(JsonParser parser) throws IOException {
+        startObject(parser);
+        ProductAnalysisResponse response = productReader.readValue(parser);
+        if (response.getProduct() == null || response.getNutritionAnalysis() == null) {
+            throw new JsonParseException(parser, "Product analysis without product or nutrition_analysis");
         }
-
-        response.setNutritionAnalysis(nutritionAnalysis);
         return response;
     }
 
     @Override
-    public FoodAnalysisResponse processFoodImageResponse(Map<String, Object> aiResponse) {
-        FoodAnalysisResponse response = new FoodAnalysisResponse();
-        Map<String, Object> plateAnalysis = (Map<String, Object>)aiResponse.get("plate_analysis");
+    public FoodAnalysisResponse processFoodImageResponse(JsonParser parser) throws IOException {
+        return readAnalysis(parser, "plate_analysis", "total_plate_nutrients", "estimated_quantity");
+    }
 
-        response.setMealName((String)plateAnalysis.get("meal_name"));
+    @Override
+    public FoodAnalysisResponse processFoodDescriptionResponse(JsonParser parser) throws IOException {
+        return readAnalysis(parser, "meal_analysis", "total_nutrients", "mentioned_quantity");
+    }
 
-        // Process food items
-        List<FoodItem> foodItems = new ArrayList<>();
-        List<Map<String, Object>> items = (List<Map<String, Object>>)plateAnalysis.get("items");
+    @Override
+    public Map<Integer, FoodAnalysisResponse> processFoodDescriptionBatchResponse(JsonParser parser) throws IOException {
+        Map<Integer, FoodAnalysisResponse> meals = null;
+        startObject(parser);
+        for (String field = nextField(parser); field != null; field = nextField(parser)) {
+            if (field.equals("meals")) {
+                if (!parser.isExpectedStartArrayToken()) {
+                    throw new JsonParseException(parser, "Expected an array of meals");
+                }
+                meals = new LinkedHashMap<>();
+                while (parser.nextToken() != JsonToken.END_ARRAY) {
+                    readIndexedMeal(parser, meals);
+                }
+            } else {
+                parser.skipChildren();
+            }
+        }
+        if (meals == null) {
+            throw new JsonParseException(parser, "Batch analysis without meals");
+        }
+        return meals;
+    }
 
-        for (Map<String, Object> item : items) {
-            FoodItem foodItem = new FoodItem();
-            foodItem.setName((String)item.get("food_name"));
+    @Override
+    public FoodItem processFoodImageItem(JsonParser parser) throws IOException {
+        return readFoodItem(parser, "estimated_quantity");
+    }
 
-            Map<String, Object> estimatedQuantity = (Map<String, Object>)item.get("estimated_quantity");
-            foodItem.setQuantity(((Number)estimatedQuantity.get("amount")).doubleValue());
-            foodItem.setUnit((String)estimatedQuantity.get("unit"));
+    @Override
+    public FoodItem processFoodDescriptionItem(JsonParser parser) throws IOException {
+        return readFoodItem(parser, "mentioned_quantity");
+    }
 
-            foodItem.setNutrientsPer100g((Map<String, Object>)item.get("nutrients_per_100g"));
-            foodItems.add(foodItem);
+    @Override
+    public boolean isPlausibleProduct(ProductAnalysisResponse response) {
+        List<ProductAnalysisResponse.Nutrient> nutrients = response.getNutritionAnalysis() == null
+                ? null : response.getNutritionAnalysis().getNutrients();
+        if (Boolean.TRUE.equals(response.getPartial()) || nutrients == null || nutrients.isEmpty()) {
+            return false;
         }
+        for (ProductAnalysisResponse.Nutrient nutrient : nutrients) {
+            // Nutrients without a reference value (such as trans fat) have no DV% to check
+            Double dailyValue = percentage(nutrient.getDailyValue());
+            if (dailyValue == null || nutrient.getDvStatus() == null) {
+                continue;
+            }
+            String expected = dailyValue <= LOW_DV_PERCENT ? "Low" : dailyValue >= HIGH_DV_PERCENT ? "High" : "Moderate";
+            if (dailyValue < 0 || !expected.equalsIgnoreCase(nutrient.getDvStatus())) {
+                return false;
+            }
+        }
+        return true;
+    }
 
-        response.setAnalyzedFoodItems(foodItems);
+    @Override
+    public boolean isPlausibleMeal(FoodAnalysisResponse response) {
+        if (Boolean.TRUE.equals(response.getPartial()) || response.getAnalyzedFoodItems() == null
+                || response.getAnalyzedFoodItems().isEmpty()) {
+            return false;
+        }
+        for (FoodItem item : response.getAnalyzedFoodItems()) {
+            if (item.getQuantity() <= 0 || item.getNutrientsPer100g() == null) {
+                return false;
+            }
+            double calories = item.nutrientPer100g("calories");
+            double protein = item.nutrientPer100g("protein");
+            double carbohydrates = item.nutrientPer100g("carbohydrates");
+            double fat = item.nutrientPer100g("fat");
+            double fiber = item.nutrientPer100g("fiber");
+            if (calories < 0 || calories > MAX_CALORIES_PER_100G
+                    || protein < 0 || carbohydrates < 0 || fat < 0 || fiber < 0
+                    || protein + carbohydrates + fat > 100) {
+                return false;
+            }
+            double fromMacros = 4 * protein + 4 * carbohydrates + 9 * fat;
+            if (Math.abs(fromMacros - calories) > Math.max(MIN_CALORIE_GAP, CALORIE_TOLERANCE * calories)) {
+                return false;
+            }
+        }
+        return true;
+    }
 
-        // Set total nutrients
-        response.setTotalPlateNutrients((Map<String, Object>)plateAnalysis.get("total_plate_nutrients"));
+    private static Double percentage(String value) {
+        if (value == null) {
+            return null;
+        }
+        try {
+            return Double.parseDouble(value.replace("%", "").trim());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
 
-        return response;
+    private void readIndexedMeal(JsonParser parser, Map<Integer, FoodAnalysisResponse> meals) throws IOException {
+        Integer index = null;
+        FoodAnalysisResponse meal = null;
+        startObject(parser);
+        for (String field = nextField(parser); field != null; field = nextField(parser)) {
+            if (field.equals("index")) {
+                if (parser.currentToken() != JsonToken.VALUE_NUMBER_INT) {
+                    throw new JsonParseException(parser, "Meal index is not an integer");
+                }
+                index = parser.getIntValue();
+            } else if (field.equals("meal_analysis")) {
+                meal = readAnalysisFields(parser, "total_nutrients", "mentioned_quantity");
+            } else {
+                parser.skipChildren();
+            }
+        }
+        if (index == null || meal == null || meal.getAnalyzedFoodItems() == null) {
+            throw new JsonParseException(parser, "Batch meal without index or meal_analysis items");
+        }
+        if (meals.putIfAbsent(index, meal) != null) {
+            throw new JsonParseException(parser, "Meal index " + index + " answered twice");
+        }
     }
 
+    private FoodAnalysisResponse readAnalysis(JsonParser parser, String analysisField, String totalsField,
+                                              String quantityField) throws IOException {
+        FoodAnalysisResponse response = null;
+        startObject(parser);
+        for (String field = nextField(parser); field != null; field = nextField(parser)) {
+            if (field.equals(analysisField)) {
+                response = readAnalysisFields(parser, totalsField, quantityField);
+            } else {
+                parser.skipChildren();
+            }
+        }
+        if (response == null || response.getAnalyzedFoodItems() == null) {
+            throw new JsonParseException(parser, "Analysis without " + analysisField + " items");
+        }
+        return response;
+    }
 
-    @Override
-    public FoodAnalysisResponse processFoodDescriptionResponse(Map<String, Object> aiResponse) {
+    private FoodAnalysisResponse readAnalysisFields(JsonParser parser, String totalsField,
+                                                    String quantityField) throws IOException {
         FoodAnalysisResponse response = new FoodAnalysisResponse();
-        Map<String, Object> plateAnalysis = (Map<String, Object>)aiResponse.get("meal_analysis");
-
-        response.setMealName((String)plateAnalysis.get("meal_name"));
+        startObject(parser);
+        for (String field = nextField(parser); field != null; field = nextField(parser)) {
+            if (field.equals("meal_name")) {
+                response.setMealName(parser.getValueAsString());
+            } else if (field.equals("items")) {
+                response.setAnalyzedFoodItems(readFoodItems(parser, quantityField));
+            } else if (field.equals(totalsField)) {
+                response.setTotalPlateNutrients(nutrientsReader.readValue(parser));
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return response;
+    }
 
-        // Process food items
+    private List<FoodItem> readFoodItems(JsonParser parser, String quantityField) throws IOException {
+        if (!parser.isExpectedStartArrayToken()) {
+            throw new JsonParseException(parser, "Expected an array of items");
+        }
         List<FoodItem> foodItems = new ArrayList<>();
-        List<Map<String, Object>> items = (List<Map<String, Object>>)plateAnalysis.get("items");
-
-        for (Map<String, Object> item : items) {
-            FoodItem foodItem = new FoodItem();
-            foodItem.setName((String)item.get("food_name"));
-
-            Map<String, Object> estimatedQuantity = (Map<String, Object>)item.get("mentioned_quantity");
-            foodItem.setQuantity(((Number)estimatedQuantity.get("amount")).doubleValue());
-            foodItem.setUnit((String)estimatedQuantity.get("unit"));
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            foodItems.add(readFoodItem(parser, quantityField));
+        }
+        return foodItems;
+    }
 
-            foodItem.setNutrientsPer100g((Map<String, Object>)item.get("nutrients_per_100g"));
-            foodItems.add(foodItem);
+    private FoodItem readFoodItem(JsonParser parser, String quantityField) throws IOException {
+        FoodItem foodItem = new FoodItem();
+        boolean hasQuantity = false;
+        startObject(parser);
+        for (String field = nextField(parser); field != null; field = nextField(parser)) {
+            if (field.equals("food_name")) {
+                foodItem.setName(parser.getValueAsString());
+            } else if (field.equals(quantityField)) {
+                readQuantity(parser, foodItem);
+                hasQuantity = true;
+            } else if (field.equals("nutrients_per_100g")) {
+                foodItem.setNutrientsPer100g(nutrientsReader.readValue(parser));
+            } else {
+                parser.skipChildren();
+            }
+        }
+        if (foodItem.getName() == null || !hasQuantity) {
+            throw new JsonParseException(parser, "Food item without food_name or " + quantityField);
         }
+        return foodItem;
+    }
 
-        response.setAnalyzedFoodItems(foodItems);
+    private static void readQuantity(JsonParser parser, FoodItem foodItem) throws IOException {
+        startObject(parser);
+        for (String field = nextField(parser); field != null; field = nextField(parser)) {
+            if (field.equals("amount")) {
+                if (!parser.currentToken().isNumeric()) {
+                    throw new JsonParseException(parser, "Quantity amount is not a number");
+                }
+                foodItem.setQuantity(parser.getDoubleValue());
+            } else if (field.equals("unit")) {
+                foodItem.setUnit(parser.getValueAsString());
+            } else {
+                parser.skipChildren();
+            }
+        }
+    }
 
-        // Set total nutrients
-        response.setTotalPlateNutrients((Map<String, Object>)plateAnalysis.get("total_nutrients"));
+    /**
+     * Moves a fresh parser onto its first token and checks that it opens an object
+     */
+    private static void startObject(JsonParser parser) throws IOException {
+        if (!parser.hasCurrentToken()) {
+            parser.nextToken();
+        }
+        if (!parser.isExpectedStartObjectToken()) {
+            throw new JsonParseException(parser, "Expected a JSON object");
+        }
+    }
 
-        return response;
+    /**
+     * Advances to the next field's value and returns the field name, or null at the end of the object
+     */
+    private static String nextField(JsonParser parser) throws IOException {
+        String field = parser.nextFieldName();
+        if (field != null) {
+            parser.nextToken();
+        }
+        return field;
     }
 }
@@ -1,11 +1,22 @@
 package com.scanmyfood.backend.services;
 
+import com.scanmyfood.backend.models.FoodAnalysisResponse;
+import com.scanmyfood.backend.models.ProductAnalysisResponse;
 import org.springframework.web.multipart.MultipartFile;
 
-import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 
 public interface AiService {
-    Map<String, Object> analyzeProductImages(MultipartFile frontImage, MultipartFile labelImage);
-    Map<String, Object> analyzeFoodImage(MultipartFile imageFile);
-    Map<String, Object> analyzeFoodDescription(String description);
+    CompletableFuture<ProductAnalysisResponse> analyzeProductImages(MultipartFile frontImage, MultipartFile labelImage);
+    CompletableFuture<FoodAnalysisResponse> analyzeFoodImage(MultipartFile imageFile);
+    CompletableFuture<FoodAnalysisResponse> analyzeFoodDescription(String description);
+
+    /**
+     * Streaming variants: each chunk of model text is passed to {@code onTextChunk} as it arrives and
+     * the future completes with the complete analysis. {@code onTextChunk} may throw
+     * {@link java.util.concurrent.CancellationException} to stop the stream.
+     */
+    CompletableFuture<FoodAnalysisResponse> streamFoodImageAnalysis(MultipartFile imageFile, Consumer<String> onTextChunk);
+    CompletableFuture<FoodAnalysisResponse> streamFoodDescriptionAnalysis(String description, Consumer<String> onTextChunk);
 }
\ No newline at end of file
@@ -0,0 +1,203 @@
+package com.scanmyfood.backend.services;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.scanmyfood.backend.models.AnalysisJob;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Runs analyses as jobs that outlive the request that started them, so a client on a flaky mobile
+ * connection can poll for, or reconnect to, a result instead of paying for a new model call.
+ *
+ * <p>Jobs run on a fixed pool of workers, each holding one analysis until it completes, so at most
+ * {@code ai.jobs.workers} job analyses are in progress and at most {@code ai.jobs.queue-size} wait;
+ * beyond that submissions are rejected with 503. Jobs are kept for {@code ai.jobs.ttl} after they
+ * were submitted and again after they completed, then forgotten. A job is only shown to the caller
+ * that submitted it, as identified by {@link CallerIdentityService#callerId}.
+ */
+@Slf4j
+@Service
+public class AnalysisJobService {
+
+    private final Cache<String, Job> jobs;
+    private final ThreadPoolExecutor executor;
+    private final Duration maxPollWait;
+    private final Counter rejected;
+    private final Counter succeeded;
+    private final Counter failed;
+
+    public AnalysisJobService(MeterRegistry meterRegistry,
+                              @Value("${ai.jobs.workers:32}") int workers,
+                              @Value("${ai.jobs.queue-size:200}") int queueSize,
+                              @Value("${ai.jobs.max-size:10000}") long maxSize,
+                              @Value("${ai.jobs.ttl:10m}") Duration ttl,
+                              @Value("${ai.jobs.max-poll-wait:25s}") Duration maxPollWait) {
+        this.maxPollWait = maxPollWait;
+        this.jobs = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(ttl)
+                .build();
+
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueSize),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "analysis-job-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+
+        meterRegistry.gaugeCollectionSize("ai.jobs.queued", Tags.empty(), executor.getQueue());
+        Gauge.builder("ai.jobs.running", executor, ThreadPoolExecutor::getActiveCount)
+                .register(meterRegistry);
+        this.rejected = Counter.builder("ai.jobs.rejected")
+                .description("Jobs rejected because every worker was busy and the queue was full")
+                .register(meterRegistry);
+        this.succeeded = Counter.builder("ai.jobs.completed").tag("result", "succeeded").register(meterRegistry);
+        this.failed = Counter.builder("ai.jobs.completed").tag("result", "failed").register(meterRegistry);
+    }
+
+    /**
+     * Queues {@code analysis} and returns the new job at once. Anything the analysis needs from the
+     * request, such as uploaded files, must already be read by the caller, and counted against the
+     * upload budget via {@link UploadAdmissionService#reserve}. The job is only registered once a
+     * worker has accepted it, so a rejected submission never shows up as a queued job.
+     */
+    public AnalysisJob submit(String type, String callerId, Supplier<? extends CompletableFuture<?>> analysis) {
+        Job job = new Job(UUID.randomUUID().toString(), type, callerId, Instant.now());
+        try {
+            executor.execute(() -> run(job, analysis));
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Too many analyses queued, please retry shortly");
+        }
+        jobs.put(job.id, job);
+        log.info("Queued {} analysis job {}", type, job.id);
+        return job.view();
+    }
+
+    /**
+     * Returns the job once it has completed or {@code wait} has passed, whichever is first; the wait
+     * is capped at {@code ai.jobs.max-poll-wait}. Unknown or expired jobs, and jobs submitted by
+     * another caller, are answered with 404.
+     */
+    public CompletableFuture<AnalysisJob> poll(String id, String callerId, Duration wait) {
+        Job job = jobs.getIfPresent(id);
+        if (job == null || !job.callerId.equals(callerId)) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Unknown or expired analysis job " + id);
+        }
+        Duration capped = wait.compareTo(maxPollWait) > 0 ? maxPollWait : wait;
+        if (job.done.isDone() || capped.isZero() || capped.isNegative()) {
+            return CompletableFuture.completedFuture(job.view());
+        }
+        return job.done.copy()
+                .completeOnTimeout(null, capped.toMillis(), TimeUnit.MILLISECONDS)
+                .thenApply(ignored -> job.view());
+    }
+
+    private void run(Job job, Supplier<? extends CompletableFuture<?>> analysis) {
+        job.status = AnalysisJob.Status.RUNNING;
+        try {
+            // Holding the worker until the analysis completes is what bounds the jobs in progress
+            job.succeed(analysis.get().join());
+            succeeded.increment();
+        } catch (RuntimeException e) {
+            Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+            if (cause instanceof ResponseStatusException) {
+                log.warn("Analysis job {} failed: {}", job.id, cause.getMessage());
+            } else {
+                log.error("Analysis job {} failed", job.id, cause);
+            }
+            job.fail(cause);
+            failed.increment();
+        }
+        // Restart the TTL so the result is kept for a full period after it is ready
+        jobs.put(job.id, job);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    private static final class Job {
+        private final String id;
+        private final String type;
+        private final String callerId;
+        private final Instant createdAt;
+        private final CompletableFuture<Void> done = new CompletableFuture<>();
+        private volatile AnalysisJob.Status status = AnalysisJob.Status.QUEUED;
+        private volatile Object result;
+        private volatile String error;
+        private volatile Integer errorStatus;
+        private volatile Instant completedAt;
+
+        private Job(String id, String type, String callerId, Instant createdAt) {
+            this.id = id;
+            this.type = type;
+            this.callerId = callerId;
+            this.createdAt = createdAt;
+        }
+
+        private void succeed(Object result) {
+            this.result = result;
+            complete(AnalysisJob.Status.SUCCEEDED);
+        }
+
+        /**
+         * Keeps the reason of our own rejections; other errors may carry internal details and are only
+         * logged, the client gets a generic message
+         */
+        private void fail(Throwable cause) {
+            if (cause instanceof ResponseStatusException rejection) {
+                this.error = rejection.getReason();
+                this.errorStatus = rejection.getStatusCode().value();
+            } else {
+                this.error = "Analysis failed, please retry";
+                this.errorStatus = HttpStatus.INTERNAL_SERVER_ERROR.value();
+            }
+            complete(AnalysisJob.Status.FAILED);
+        }
+
+        private void complete(AnalysisJob.Status status) {
+            this.completedAt = Instant.now();
+            this.status = status;
+            done.complete(null);
+        }
+
+        private AnalysisJob view() {
+            return AnalysisJob.builder()
+                    .id(id)
+                    .type(type)
+                    .status(status)
+                    .result(result)
+                    .error(error)
+                    .errorStatus(errorStatus)
+                    .createdAt(createdAt)
+                    .completedAt(completedAt)
+                    .build();
+        }
+    }
+}
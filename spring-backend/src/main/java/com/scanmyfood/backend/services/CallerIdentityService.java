@@ -0,0 +1,76 @@
+package com.scanmyfood.backend.services;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.google.firebase.FirebaseApp;
+import com.google.firebase.auth.FirebaseAuth;
+import com.google.firebase.auth.FirebaseAuthException;
+import com.google.firebase.auth.FirebaseToken;
+import jakarta.servlet.http.HttpServletRequest;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.Instant;
+
+/**
+ * Identifies who sent a request: the verified Firebase user when the request carries a valid ID
+ * token, otherwise the client IP
+ */
+@Slf4j
+@Service
+public class CallerIdentityService {
+
+    private static final String BEARER_PREFIX = "Bearer ";
+
+    private static final Duration MAX_CACHED = Duration.ofMinutes(5);
+
+    // Verifying a Firebase ID token costs an RSA signature check; clients resend the same token
+    // for up to an hour. Each token is kept for at most five minutes and never past its own expiry.
+    private final Cache<String, FirebaseToken> verifiedTokens = Caffeine.newBuilder()
+            .maximumSize(10_000)
+            .expireAfter(Expiry.creating((String idToken, FirebaseToken token) -> cacheFor(token)))
+            .build();
+
+    /**
+     * {@code uid:<firebase uid>} for a verified user, else {@code ip:<remote address>}
+     */
+    public String callerId(HttpServletRequest request) {
+        FirebaseToken token = verifiedToken(request);
+        return token != null ? "uid:" + token.getUid() : "ip:" + request.getRemoteAddr();
+    }
+
+    /**
+     * The caller's verified Firebase ID token, or null when the request carries none (or an invalid
+     * one) or Firebase is not configured
+     */
+    public FirebaseToken verifiedToken(HttpServletRequest request) {
+        String authorization = request.getHeader(HttpHeaders.AUTHORIZATION);
+        if (authorization == null || !authorization.startsWith(BEARER_PREFIX) || FirebaseApp.getApps().isEmpty()) {
+            return null;
+        }
+        String idToken = authorization.substring(BEARER_PREFIX.length());
+        FirebaseToken token = verifiedTokens.getIfPresent(idToken);
+        if (token == null) {
+            try {
+                token = FirebaseAuth.getInstance().verifyIdToken(idToken);
+                verifiedTokens.put(idToken, token);
+            } catch (FirebaseAuthException | IllegalArgumentException e) {
+                log.debug("Ignoring invalid Firebase ID token", e);
+                return null;
+            }
+        }
+        return token;
+    }
+
+    private static Duration cacheFor(FirebaseToken token) {
+        if (!(token.getClaims().get("exp") instanceof Number expiresAt)) {
+            return MAX_CACHED;
+        }
+        Duration untilExpiry = Duration.between(Instant.now(), Instant.ofEpochSecond(expiresAt.longValue()));
+        return untilExpiry.isNegative() ? Duration.ZERO
+                : untilExpiry.compareTo(MAX_CACHED) < 0 ? untilExpiry : MAX_CACHED;
+    }
+}
@@ -0,0 +1,107 @@
+package com.scanmyfood.backend.services;
+
+import com.scanmyfood.backend.constants.LocalNutrientTable;
+import com.scanmyfood.backend.models.FoodAnalysisResponse;
+import com.scanmyfood.backend.models.FoodItem;
+import com.scanmyfood.backend.models.ProductAnalysisResponse;
+import com.scanmyfood.backend.utils.CircuitBreaker;
+import com.scanmyfood.backend.utils.MealDescriptionParser;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.context.annotation.Primary;
+import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+/**
+ * {@link AiService} guarded by the AI circuit breaker. While the breaker is open, image analyses fail
+ * fast with 503 and description analyses are estimated from {@link LocalNutrientTable} when every
+ * item is in it. Estimated responses are marked {@code estimated} so they are never cached.
+ * Cached analyses are looked up before this service is called and keep being served regardless.
+ */
+@Slf4j
+@Primary
+@Service
+public class CircuitBreakingAiService implements AiService {
+
+    private final AiService delegate;
+    private final CircuitBreaker aiCircuitBreaker;
+
+    public CircuitBreakingAiService(@Qualifier("vertexAiServiceImpl") AiService delegate, CircuitBreaker aiCircuitBreaker) {
+        this.delegate = delegate;
+        this.aiCircuitBreaker = aiCircuitBreaker;
+    }
+
+    @Override
+    public CompletableFuture<ProductAnalysisResponse> analyzeProductImages(MultipartFile frontImage, MultipartFile labelImage) {
+        return aiCircuitBreaker.execute(() -> delegate.analyzeProductImages(frontImage, labelImage));
+    }
+
+    @Override
+    public CompletableFuture<FoodAnalysisResponse> analyzeFoodImage(MultipartFile imageFile) {
+        return aiCircuitBreaker.execute(() -> delegate.analyzeFoodImage(imageFile));
+    }
+
+    @Override
+    public CompletableFuture<FoodAnalysisResponse> analyzeFoodDescription(String description) {
+        FoodAnalysisResponse estimate = aiCircuitBreaker.isCallPermitted() ? null : estimateFromLocalTable(description);
+        if (estimate != null) {
+            return CompletableFuture.completedFuture(estimate);
+        }
+        return aiCircuitBreaker.execute(() -> delegate.analyzeFoodDescription(description));
+    }
+
+    @Override
+    public CompletableFuture<FoodAnalysisResponse> streamFoodImageAnalysis(MultipartFile imageFile, Consumer<String> onTextChunk) {
+        return aiCircuitBreaker.execute(() -> delegate.streamFoodImageAnalysis(imageFile, onTextChunk));
+    }
+
+    @Override
+    public CompletableFuture<FoodAnalysisResponse> streamFoodDescriptionAnalysis(String description, Consumer<String> onTextChunk) {
+        FoodAnalysisResponse estimate = aiCircuitBreaker.isCallPermitted() ? null : estimateFromLocalTable(description);
+        if (estimate != null) {
+            return CompletableFuture.completedFuture(estimate);
+        }
+        return aiCircuitBreaker.execute(() -> delegate.streamFoodDescriptionAnalysis(description, onTextChunk));
+    }
+
+    /**
+     * Builds a description analysis from the local table, or returns null if any item is unknown or
+     * has a unit the table cannot convert
+     */
+    private FoodAnalysisResponse estimateFromLocalTable(String description) {
+        List<MealDescriptionParser.Item> parsed = MealDescriptionParser.parse(description);
+        if (parsed.isEmpty()) {
+            return null;
+        }
+
+        List<FoodItem> items = new ArrayList<>();
+        for (MealDescriptionParser.Item item : parsed) {
+            LocalNutrientTable.Entry entry = LocalNutrientTable.find(item.food());
+            Double amount = entry == null ? null : entry.amountFor(item);
+            if (amount == null) {
+                return null;
+            }
+
+            FoodItem foodItem = new FoodItem();
+            foodItem.setName(entry.name());
+            foodItem.setQuantity(Math.round(amount * 10.0) / 10.0);
+            foodItem.setUnit(entry.baseUnit());
+            foodItem.setNutrientsPer100g(entry.nutrientsPer100g());
+            items.add(foodItem);
+        }
+
+        log.info("AI circuit open, estimated {} description items from the local nutrient table", items.size());
+        FoodAnalysisResponse response = new FoodAnalysisResponse();
+        response.setMealName(items.stream().map(FoodItem::getName).collect(Collectors.joining(", ")));
+        response.setAnalyzedFoodItems(items);
+        response.setTotalPlateNutrients(FoodAnalysisResponse.totalNutrients(items));
+        response.setEstimated(true);
+        return response;
+    }
+}
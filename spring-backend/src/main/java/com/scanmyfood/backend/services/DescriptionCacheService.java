@@ -0,0 +1,69 @@
+package com.scanmyfood.backend.services;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.scanmyfood.backend.models.FoodAnalysisResponse;
+import com.scanmyfood.backend.utils.MealDescriptionParser;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+/**
+ * Cache of description analyses keyed by the canonical form of the description, so "2 eggs, 1 toast"
+ * and "1 toast and 2 Eggs" share one entry. Keys also name the models that answer descriptions
+ * (the light tier by default) and the prompt version.
+ */
+@Slf4j
+@Service
+public class DescriptionCacheService {
+
+    private final Cache<String, FoodAnalysisResponse> cache;
+    private final String models;
+
+    public DescriptionCacheService(MeterRegistry meterRegistry, ModelTieringService modelTieringService,
+                                   @Value("${ai.cache.description.max-size:50000}") long maxSize,
+                                   @Value("${ai.cache.description.ttl:24h}") Duration ttl) {
+        // Descriptions are answered one at a time or in batches, whose tiers are configured separately
+        this.models = modelTieringService.answeringModels("description", "description-batch");
+        this.cache = CaffeineCacheMetrics.monitor(meterRegistry,
+                Caffeine.newBuilder()
+                        .maximumSize(maxSize)
+                        .expireAfterWrite(ttl)
+                        .recordStats()
+                        .<String, FoodAnalysisResponse>build(),
+                "ai.description-analysis");
+    }
+
+    /**
+     * Returns the cached analysis for an equivalent description, or runs the loader and caches its
+     * result. Descriptions with no recognisable food items bypass the cache; estimated and partial
+     * analyses are not cached.
+     */
+    public CompletableFuture<FoodAnalysisResponse> getOrAnalyze(String description,
+                                                                Supplier<CompletableFuture<FoodAnalysisResponse>> loader) {
+        String canonical = MealDescriptionParser.canonicalize(description);
+        if (canonical.isEmpty()) {
+            return loader.get();
+        }
+
+        String key = models + ":" + VertexAiServiceImpl.DESCRIPTION_PROMPT_VERSION + ":" + canonical;
+        FoodAnalysisResponse cached = cache.getIfPresent(key);
+        if (cached != null) {
+            log.info("Description cache hit for '{}'", canonical);
+            return CompletableFuture.completedFuture(cached);
+        }
+
+        return loader.get().thenApply(analysis -> {
+            if (!Boolean.TRUE.equals(analysis.getEstimated()) && !Boolean.TRUE.equals(analysis.getPartial())) {
+                cache.put(key, analysis);
+            }
+            return analysis;
+        });
+    }
+}
@@ -0,0 +1,129 @@
+package com.scanmyfood.backend.services;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.scanmyfood.backend.models.ApiResponse;
+import com.scanmyfood.backend.models.FoodAnalysisResponse;
+import com.scanmyfood.backend.models.FoodItem;
+import com.scanmyfood.backend.utils.StreamingJsonItemParser;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Server-Sent Events for meal analysis. Each food item is sent as an {@code item} event as soon as
+ * its JSON object has streamed in from the model, followed by a {@code totals} event carrying the
+ * complete {@link FoodAnalysisResponse}. Failures are reported as an {@code error} event.
+ *
+ * <p>When the client disconnects or the emitter times out the analysis is cancelled. The cancellation
+ * reaches the source through every stage the analysis returns: a call still queued for upload
+ * admission or the model limiter is dropped, and a model stream being drained is interrupted. As a
+ * fallback the drain also stops at its next chunk.
+ */
+@Slf4j
+@Service
+public class FoodAnalysisStreamingService {
+
+    private final AiService aiService;
+    private final AiResponseProcessingService aiResponseProcessingService;
+    private final ObjectMapper objectMapper;
+    private final UploadAdmissionService uploadAdmissionService;
+    private final Duration timeout;
+
+    public FoodAnalysisStreamingService(AiService aiService,
+                                        AiResponseProcessingService aiResponseProcessingService,
+                                        ObjectMapper objectMapper,
+                                        UploadAdmissionService uploadAdmissionService,
+                                        @Value("${spring.mvc.async.request-timeout:120s}") Duration timeout) {
+        this.aiService = aiService;
+        this.aiResponseProcessingService = aiResponseProcessingService;
+        this.objectMapper = objectMapper;
+        this.uploadAdmissionService = uploadAdmissionService;
+        this.timeout = timeout;
+    }
+
+    public SseEmitter streamFoodImage(MultipartFile imageFile) {
+        return stream(onTextChunk -> uploadAdmissionService.admit(List.of(imageFile),
+                        images -> aiService.streamFoodImageAnalysis(images.get(0), onTextChunk)),
+                aiResponseProcessingService::processFoodImageItem);
+    }
+
+    public SseEmitter streamFoodDescription(String description) {
+        return stream(onTextChunk -> aiService.streamFoodDescriptionAnalysis(description, onTextChunk),
+                aiResponseProcessingService::processFoodDescriptionItem);
+    }
+
+    private SseEmitter stream(Function<Consumer<String>, CompletableFuture<FoodAnalysisResponse>> analysis,
+                              ItemBinder toFoodItem) {
+        SseEmitter emitter = new SseEmitter(timeout.toMillis());
+        StreamingJsonItemParser parser = new StreamingJsonItemParser(objectMapper, "items", item -> {
+            try {
+                send(emitter, "item", toFoodItem.bind(item));
+            } catch (IOException | RuntimeException e) {
+                // A malformed item still shows up in the totals event if the full response parses
+                log.debug("Skipping malformed streamed item", e);
+            }
+        });
+
+        AtomicBoolean closed = new AtomicBoolean();
+        CompletableFuture<FoodAnalysisResponse> upstream = analysis.apply(chunk -> {
+            if (closed.get()) {
+                throw new CancellationException("client disconnected");
+            }
+            parser.feed(chunk);
+        });
+        Runnable cancel = () -> {
+            if (closed.compareAndSet(false, true)) {
+                upstream.cancel(true);
+            }
+        };
+        emitter.onCompletion(cancel);
+        emitter.onError(error -> cancel.run());
+        emitter.onTimeout(() -> {
+            cancel.run();
+            emitter.complete();
+        });
+
+        upstream.whenComplete((response, error) -> {
+            if (closed.get()) {
+                // Nobody left to tell
+                return;
+            }
+            if (error != null) {
+                Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+                send(emitter, "error", ApiResponse.error(cause.getMessage()));
+            } else {
+                send(emitter, "totals", response);
+            }
+            emitter.complete();
+        });
+        return emitter;
+    }
+
+    private void send(SseEmitter emitter, String event, Object data) {
+        try {
+            emitter.send(SseEmitter.event().name(event).data(data, MediaType.APPLICATION_JSON));
+        } catch (IOException | IllegalStateException e) {
+            // The client disconnected or the emitter timed out; nothing left to deliver to
+            log.debug("Could not send {} event", event, e);
+        }
+    }
+
+    @FunctionalInterface
+    private interface ItemBinder {
+        FoodItem bind(JsonParser item) throws IOException;
+    }
+}
@@ -0,0 +1,269 @@
+package com.scanmyfood.backend.services;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.scanmyfood.backend.models.FoodAnalysisResponse;
+import com.scanmyfood.backend.models.FoodItem;
+import com.scanmyfood.backend.utils.MealDescriptionParser;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Per-item nutrient cache for meal descriptions. A description is split into
+ * (food, preparation, quantity) items; items whose per-100g nutrients and portion weight are already
+ * known are resolved locally and only the remaining items are sent to the model. Totals for mixed
+ * results are rebuilt with {@link FoodItem#calculateTotalNutrients()}. Items are keyed by the
+ * models answering descriptions and the prompt version as well as the food, and each entry holds its
+ * own copy of the nutrients, handing out a fresh copy on every hit so no response shares it.
+ */
+@Slf4j
+@Service
+public class FoodItemCacheService {
+
+
+    // Portion key for items with neither quantity nor unit, e.g. "rice"
+    private static final String DEFAULT_PORTION = "default";
+    // Portion key for counted items without a unit, e.g. "2 eggs"
+    private static final String COUNT_PORTION = "count";
+
+    private final Cache<String, CachedFoodItem> cache;
+    private final String version;
+    private final Counter hits;
+    private final Counter misses;
+
+    public FoodItemCacheService(MeterRegistry meterRegistry, ModelTieringService modelTieringService,
+                                @Value("${ai.cache.food-item.max-size:5000}") long maxSize,
+                                @Value("${ai.cache.food-item.ttl:7d}") Duration ttl) {
+        this.version = modelTieringService.answeringModels("description", "description-batch")
+                + ":" + VertexAiServiceImpl.DESCRIPTION_PROMPT_VERSION;
+        this.cache = CaffeineCacheMetrics.monitor(meterRegistry,
+                Caffeine.newBuilder()
+                        .maximumSize(maxSize)
+                        .expireAfterWrite(ttl)
+                        .recordStats()
+                        .<String, CachedFoodItem>build(),
+                "ai.food-item");
+        this.hits = Counter.builder("ai.food-item-cache.lookups").tag("result", "hit").register(meterRegistry);
+        this.misses = Counter.builder("ai.food-item-cache.lookups").tag("result", "miss").register(meterRegistry);
+    }
+
+    /**
+     * Analyzes a description, resolving known items from the cache and passing only the unknown
+     * ones to {@code analyzer} as a reduced description.
+     */
+    public CompletableFuture<FoodAnalysisResponse> analyze(String description,
+                                                           Function<String, CompletableFuture<FoodAnalysisResponse>> analyzer) {
+        List<MealDescriptionParser.Item> items = MealDescriptionParser.parse(description);
+        if (items.isEmpty()) {
+            return analyzer.apply(description);
+        }
+
+        List<FoodItem> resolved = new ArrayList<>();
+        List<MealDescriptionParser.Item> missing = new ArrayList<>();
+        for (MealDescriptionParser.Item item : items) {
+            CachedFoodItem cached = cache.getIfPresent(cacheKey(item));
+            Double amount = cached == null ? null : cached.amountFor(item);
+            if (amount != null) {
+                resolved.add(cached.toFoodItem(amount));
+                hits.increment();
+            } else {
+                missing.add(item);
+                misses.increment();
+            }
+        }
+
+        if (missing.isEmpty()) {
+            log.info("Resolved all {} description items from the item cache", items.size());
+            return CompletableFuture.completedFuture(assemble(resolved));
+        }
+
+        // Send the user's own wording when nothing was resolved, otherwise only the missing items
+        String reducedDescription = resolved.isEmpty()
+                ? description
+                : missing.stream().map(MealDescriptionParser.Item::canonical).collect(Collectors.joining(", "));
+        return analyzer.apply(reducedDescription)
+                .thenApply(partial -> merge(items.size(), resolved, missing, partial));
+    }
+
+    private FoodAnalysisResponse merge(int itemCount, List<FoodItem> resolved, List<MealDescriptionParser.Item> missing,
+                                       FoodAnalysisResponse partial) {
+        List<FoodItem> analyzed = partial.getAnalyzedFoodItems() == null ? List.of() : partial.getAnalyzedFoodItems();
+        boolean estimated = Boolean.TRUE.equals(partial.getEstimated());
+
+        if (estimated || Boolean.TRUE.equals(partial.getPartial())) {
+            log.debug("Not caching items of a local estimate or a partial answer");
+        } else {
+            List<FoodItem> matched = matchByName(missing, analyzed);
+            if (matched != null) {
+                for (int i = 0; i < missing.size(); i++) {
+                    remember(missing.get(i), matched.get(i));
+                }
+            } else {
+                log.debug("Model's {} items do not match the {} requested one-to-one by name, not caching items",
+                        analyzed.size(), missing.size());
+            }
+        }
+
+        if (resolved.isEmpty()) {
+            return partial;
+        }
+        log.info("Resolved {} of {} description items from the item cache", resolved.size(), itemCount);
+        resolved.addAll(analyzed);
+        FoodAnalysisResponse response = assemble(resolved);
+        if (estimated) {
+            response.setEstimated(true);
+        }
+        response.setPartial(partial.getPartial());
+        return response;
+    }
+
+    /**
+     * The model's item for each requested item, in the order of {@code missing}, or null unless every
+     * requested item matches exactly one returned item by name. The model answers in the order of the
+     * user's wording and may rename items ("2 eggs" as "Boiled Eggs"), so position says nothing.
+     */
+    private static List<FoodItem> matchByName(List<MealDescriptionParser.Item> missing, List<FoodItem> analyzed) {
+        if (analyzed.size() != missing.size()) {
+            return null;
+        }
+        List<FoodItem> matched = new ArrayList<>(missing.size());
+        Set<FoodItem> used = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (MealDescriptionParser.Item item : missing) {
+            FoodItem match = null;
+            for (FoodItem foodItem : analyzed) {
+                if (sameFood(item.food(), foodItem.getName())) {
+                    if (match != null) {
+                        return null;
+                    }
+                    match = foodItem;
+                }
+            }
+            if (match == null || !used.add(match)) {
+                return null;
+            }
+            matched.add(match);
+        }
+        return matched;
+    }
+
+    /**
+     * Whether the model's name for an item refers to the parsed food: the same words once parsed, or
+     * one ending in the other ("toast" and "whole wheat toast")
+     */
+    private static boolean sameFood(String food, String modelName) {
+        List<MealDescriptionParser.Item> parsed = MealDescriptionParser.parse(modelName);
+        if (parsed.size() != 1) {
+            return false;
+        }
+        String modelFood = parsed.get(0).food();
+        return modelFood.equals(food) || modelFood.endsWith(" " + food) || food.endsWith(" " + modelFood);
+    }
+
+    private void remember(MealDescriptionParser.Item item, FoodItem foodItem) {
+        String baseUnit = foodItem.getUnit() == null ? null : foodItem.getUnit().toLowerCase(Locale.ROOT);
+        if (foodItem.getNutrientsPer100g() == null || !("g".equals(baseUnit) || "ml".equals(baseUnit))) {
+            return;
+        }
+
+        CachedFoodItem cached = cache.get(cacheKey(item),
+                key -> new CachedFoodItem(foodItem.getName(), foodItem.getNutrientsPer100g(), baseUnit));
+        if (!cached.baseUnit.equals(baseUnit) || cached.directFactor(item) != null) {
+            return;
+        }
+        double count = item.quantity() == null ? 1.0 : item.quantity();
+        if (count > 0 && foodItem.getQuantity() > 0) {
+            cached.amountPerPortion.put(portionKey(item), foodItem.getQuantity() / count);
+        }
+    }
+
+    private FoodAnalysisResponse assemble(List<FoodItem> foodItems) {
+        FoodAnalysisResponse response = new FoodAnalysisResponse();
+        response.setMealName(foodItems.stream().map(FoodItem::getName).collect(Collectors.joining(", ")));
+        response.setAnalyzedFoodItems(foodItems);
+        response.setTotalPlateNutrients(FoodAnalysisResponse.totalNutrients(foodItems));
+        return response;
+    }
+
+    private String cacheKey(MealDescriptionParser.Item item) {
+        String food = item.preparation() == null ? item.food() : item.food() + "|" + item.preparation();
+        return version + ":" + food;
+    }
+
+    private static String portionKey(MealDescriptionParser.Item item) {
+        if (item.unit() != null) {
+            return item.unit();
+        }
+        return item.quantity() == null ? DEFAULT_PORTION : COUNT_PORTION;
+    }
+
+    private static double round(double value) {
+        return Math.round(value * 10.0) / 10.0;
+    }
+
+    /**
+     * Copies nutrient maps including their nested amounts, e.g. {"value": 12, "unit": "g"}
+     */
+    private static Map<String, Object> deepCopy(Map<?, ?> nutrients) {
+        Map<String, Object> copy = new LinkedHashMap<>();
+        nutrients.forEach((name, value) ->
+                copy.put(String.valueOf(name), value instanceof Map<?, ?> nested ? deepCopy(nested) : value));
+        return copy;
+    }
+
+    private static final class CachedFoodItem {
+        private final String name;
+        private final Map<String, Object> nutrientsPer100g;
+        private final String baseUnit;
+        // Grams (or millilitres) per unit of each portion style seen for this food, e.g. "count" -> 50 for eggs
+        private final Map<String, Double> amountPerPortion = new ConcurrentHashMap<>();
+
+        private CachedFoodItem(String name, Map<String, Object> nutrientsPer100g, String baseUnit) {
+            this.name = name;
+            this.nutrientsPer100g = Collections.unmodifiableMap(deepCopy(nutrientsPer100g));
+            this.baseUnit = baseUnit;
+        }
+
+        private Double directFactor(MealDescriptionParser.Item item) {
+            return MealDescriptionParser.baseUnitFactor(item.unit(), baseUnit);
+        }
+
+        /**
+         * Amount of the item in this entry's base unit, or null if the portion cannot be converted yet
+         */
+        private Double amountFor(MealDescriptionParser.Item item) {
+            double quantity = item.quantity() == null ? 1.0 : item.quantity();
+            Double factor = directFactor(item);
+            if (factor == null) {
+                factor = amountPerPortion.get(portionKey(item));
+            }
+            return factor == null ? null : round(quantity * factor);
+        }
+
+        private FoodItem toFoodItem(double amount) {
+            FoodItem foodItem = new FoodItem();
+            foodItem.setName(name);
+            foodItem.setQuantity(amount);
+            foodItem.setUnit(baseUnit);
+            foodItem.setNutrientsPer100g(deepCopy(nutrientsPer100g));
+            return foodItem;
+        }
+    }
+}
@@ -0,0 +1,220 @@
+package com.scanmyfood.backend.services;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import com.scanmyfood.backend.models.IdempotencyRecord;
+import com.scanmyfood.backend.repositories.IdempotencyRecordRepository;
+import com.scanmyfood.backend.utils.HashUtils;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Honours the {@code Idempotency-Key} header: requests with a key the same caller already used on
+ * the same endpoint attach to the in-flight analysis or receive its stored result, so a client
+ * retrying a timed-out upload costs one model call however often it retries. Keys are scoped to the
+ * caller, so one caller can never receive another's result, and are bound to a hash of the request
+ * they were first used with; reusing a key for a different request is rejected with 422.
+ *
+ * <p>Keys live in a bounded in-memory store for {@code ai.idempotency.ttl}. Failed analyses are
+ * forgotten at once, so a retry after a failure runs again. With {@code ai.idempotency.spill.enabled}
+ * completed results evicted from memory for lack of space are written to the database and still
+ * answered from there until the TTL runs out.
+ */
+@Slf4j
+@Service
+public class IdempotencyService {
+
+    private static final int MAX_KEY_LENGTH = 255;
+    private static final Duration SPILL_PURGE_INTERVAL = Duration.ofMinutes(10);
+
+    private final Cache<String, Entry> entries;
+    private final IdempotencyRecordRepository repository;
+    private final ObjectMapper objectMapper;
+    private final boolean spillEnabled;
+    private final Duration ttl;
+    private final AtomicLong nextPurgeNanos = new AtomicLong(System.nanoTime());
+    private final Counter executed;
+    private final Counter attached;
+    private final Counter stored;
+    private final Counter spilledHits;
+    private final Counter spilled;
+
+    public IdempotencyService(MeterRegistry meterRegistry,
+                              IdempotencyRecordRepository repository,
+                              ObjectMapper objectMapper,
+                              @Value("${ai.idempotency.max-size:10000}") long maxSize,
+                              @Value("${ai.idempotency.ttl:24h}") Duration ttl,
+                              @Value("${ai.idempotency.spill.enabled:false}") boolean spillEnabled) {
+        this.repository = repository;
+        this.objectMapper = objectMapper;
+        this.spillEnabled = spillEnabled;
+        this.ttl = ttl;
+        this.entries = CaffeineCacheMetrics.monitor(meterRegistry,
+                Caffeine.newBuilder()
+                        .maximumSize(maxSize)
+                        .expireAfterWrite(ttl)
+                        .recordStats()
+                        .<String, Entry>removalListener((key, entry, cause) -> {
+                            if (cause == RemovalCause.SIZE && key != null && entry != null) {
+                                spill(key, entry);
+                            }
+                        })
+                        .build(),
+                "ai.idempotency");
+
+        this.executed = Counter.builder("ai.idempotency.requests").tag("result", "executed").register(meterRegistry);
+        this.attached = Counter.builder("ai.idempotency.requests").tag("result", "in-flight")
+                .description("Requests that attached to an in-flight analysis with the same key")
+                .register(meterRegistry);
+        this.stored = Counter.builder("ai.idempotency.requests").tag("result", "stored").register(meterRegistry);
+        this.spilledHits = Counter.builder("ai.idempotency.requests").tag("result", "spilled").register(meterRegistry);
+        this.spilled = Counter.builder("ai.idempotency.spilled")
+                .description("Completed results written to the database on eviction from memory")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Runs {@code analysis} unless the caller sent a request with the same key to {@code endpoint}
+     * within the TTL, in which case its result is returned instead. {@code requestHash} fingerprints
+     * the request body and is only computed for requests with a key; requests without one always run.
+     */
+    public <T> CompletableFuture<T> execute(String idempotencyKey, String endpoint, String callerId,
+                                            Supplier<String> requestHash, Class<T> type,
+                                            Supplier<CompletableFuture<T>> analysis) {
+        if (idempotencyKey == null || idempotencyKey.isBlank()) {
+            return analysis.get();
+        }
+        if (idempotencyKey.length() > MAX_KEY_LENGTH) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    "Idempotency-Key must be at most " + MAX_KEY_LENGTH + " characters");
+        }
+
+        // Hashed so the stored key has a fixed length and the database never holds caller IDs
+        String key = HashUtils.sha256Hex(endpoint + "\n" + callerId + "\n" + idempotencyKey);
+        String hash = requestHash.get();
+        Entry created = new Entry(new CompletableFuture<>(), hash, LocalDateTime.now());
+        Entry existing = entries.asMap().putIfAbsent(key, created);
+        if (existing != null) {
+            if (!existing.requestHash.equals(hash)) {
+                throw mismatch(endpoint);
+            }
+            (existing.result.isDone() ? stored : attached).increment();
+            log.info("Idempotency-Key reused on {}, {} the earlier analysis", endpoint,
+                    existing.result.isDone() ? "returning" : "attaching to");
+            return existing.result.copy().thenApply(type::cast);
+        }
+
+        T spilledResult;
+        try {
+            spilledResult = findSpilled(key, endpoint, hash, type);
+        } catch (ResponseStatusException e) {
+            entries.asMap().remove(key, created);
+            created.result.completeExceptionally(e);
+            throw e;
+        }
+        if (spilledResult != null) {
+            spilledHits.increment();
+            created.result.complete(spilledResult);
+            return CompletableFuture.completedFuture(spilledResult);
+        }
+
+        executed.increment();
+        CompletableFuture<T> pending;
+        try {
+            pending = analysis.get();
+        } catch (RuntimeException e) {
+            pending = CompletableFuture.failedFuture(e);
+        }
+        pending.whenComplete((result, error) -> {
+            if (error != null) {
+                // Forget failures so the client's retry gets a fresh attempt
+                entries.asMap().remove(key, created);
+                created.result.completeExceptionally(error);
+            } else {
+                created.result.complete(result);
+            }
+        });
+        return created.result.copy().thenApply(type::cast);
+    }
+
+    private static ResponseStatusException mismatch(String endpoint) {
+        return new ResponseStatusException(HttpStatus.UNPROCESSABLE_ENTITY,
+                "Idempotency-Key was already used for a different request to " + endpoint);
+    }
+
+    private <T> T findSpilled(String key, String endpoint, String requestHash, Class<T> type) {
+        if (!spillEnabled) {
+            return null;
+        }
+        Optional<IdempotencyRecord> record;
+        try {
+            record = repository.findByIdempotencyKeyAndCreatedAtAfter(key, LocalDateTime.now().minus(ttl));
+        } catch (RuntimeException e) {
+            log.warn("Could not look up spilled result: {}", e.getMessage());
+            return null;
+        }
+        if (record.isEmpty()) {
+            return null;
+        }
+        if (!record.get().getRequestHash().equals(requestHash)) {
+            throw mismatch(endpoint);
+        }
+        try {
+            return objectMapper.readValue(record.get().getResponseJson(), type);
+        } catch (JsonProcessingException e) {
+            log.warn("Could not read spilled result for {}: {}", key, e.getMessage());
+            return null;
+        }
+    }
+
+    private void spill(String key, Entry entry) {
+        if (!spillEnabled || !entry.result.isDone() || entry.result.isCompletedExceptionally()) {
+            return;
+        }
+        try {
+            IdempotencyRecord record = new IdempotencyRecord();
+            record.setIdempotencyKey(key);
+            record.setRequestHash(entry.requestHash);
+            record.setResponseJson(objectMapper.writeValueAsString(entry.result.join()));
+            record.setCreatedAt(entry.createdAt);
+            repository.save(record);
+            spilled.increment();
+            purgeExpired();
+        } catch (RuntimeException | JsonProcessingException e) {
+            log.warn("Could not spill result for {}: {}", key, e.getMessage());
+        }
+    }
+
+    /**
+     * Deletes spilled results past the TTL, at most once per purge interval
+     */
+    private void purgeExpired() {
+        long next = nextPurgeNanos.get();
+        if (System.nanoTime() - next < 0 || !nextPurgeNanos.compareAndSet(next, System.nanoTime() + SPILL_PURGE_INTERVAL.toNanos())) {
+            return;
+        }
+        long purged = repository.deleteByCreatedAtBefore(LocalDateTime.now().minus(ttl));
+        if (purged > 0) {
+            log.info("Purged {} expired idempotency records", purged);
+        }
+    }
+
+    private record Entry(CompletableFuture<Object> result, String requestHash, LocalDateTime createdAt) {
+    }
+}
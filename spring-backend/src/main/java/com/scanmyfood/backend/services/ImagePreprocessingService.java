@@ -0,0 +1,140 @@
+package com.scanmyfood.backend.services;
+
+import com.scanmyfood.backend.utils.ImagePreprocessor;
+import com.scanmyfood.backend.utils.NutritionPanelDetector;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs {@link ImagePreprocessor} on a dedicated pool sized to the CPU count, so decoding and
+ * re-encoding large photos neither starves request threads nor runs unbounded. When the pool and
+ * its queue are full the submitting thread does the work itself, which slows intake instead of
+ * queueing without limit.
+ */
+@Slf4j
+@Service
+public class ImagePreprocessingService {
+
+    private final boolean enabled;
+    private final boolean labelCropEnabled;
+    private final ImagePreprocessor preprocessor;
+    private final ThreadPoolExecutor executor;
+    private final Timer timer;
+    private final DistributionSummary bytesSaved;
+    private final Counter failures;
+    private final Counter labelsCropped;
+    private final Counter labelsUncropped;
+    private final DistributionSummary labelCropArea;
+
+    public ImagePreprocessingService(MeterRegistry meterRegistry,
+                                     @Value("${ai.image.preprocessing.enabled:true}") boolean enabled,
+                                     @Value("${ai.image.max-edge:1536}") int maxEdge,
+                                     @Value("${ai.image.jpeg-quality:0.85}") float jpegQuality,
+                                     @Value("${ai.image.threads:0}") int threads,
+                                     @Value("${ai.image.queue-size:64}") int queueSize,
+                                     @Value("${ai.image.label-crop.enabled:true}") boolean labelCropEnabled) {
+        this.enabled = enabled;
+        this.labelCropEnabled = labelCropEnabled;
+        this.preprocessor = new ImagePreprocessor(maxEdge, jpegQuality);
+
+        int poolSize = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(poolSize, poolSize, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueSize),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "image-preprocess-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.CallerRunsPolicy());
+
+        this.timer = Timer.builder("ai.image.preprocess.time")
+                .description("Time spent decoding, resizing and re-encoding an uploaded image")
+                .register(meterRegistry);
+        this.bytesSaved = DistributionSummary.builder("ai.image.preprocess.bytes.saved")
+                .baseUnit("bytes")
+                .description("Bytes removed from an image before it is sent to the model")
+                .register(meterRegistry);
+        this.failures = Counter.builder("ai.image.preprocess.failures").register(meterRegistry);
+        this.labelsCropped = Counter.builder("ai.image.label-crop").tag("result", "cropped").register(meterRegistry);
+        this.labelsUncropped = Counter.builder("ai.image.label-crop").tag("result", "uncropped").register(meterRegistry);
+        this.labelCropArea = DistributionSummary.builder("ai.image.label-crop.area-ratio")
+                .description("Share of the label photo kept after cropping to the nutrition panel")
+                .register(meterRegistry);
+        meterRegistry.gaugeCollectionSize("ai.image.preprocess.queued", Tags.empty(), executor.getQueue());
+    }
+
+    /**
+     * Downsizes and re-encodes an uploaded image for the model. If the image cannot be processed the
+     * original bytes are sent instead.
+     */
+    public CompletableFuture<ImagePreprocessor.PreparedImage> prepare(byte[] original, String mimeType) {
+        if (!enabled) {
+            return CompletableFuture.completedFuture(new ImagePreprocessor.PreparedImage(original, mimeType, original.length));
+        }
+        return CompletableFuture.supplyAsync(() -> timed(() -> preprocessor.prepare(original, mimeType), original, mimeType),
+                executor);
+    }
+
+    /**
+     * Like {@link #prepare(byte[], String)} for a nutrition label photo, additionally cropping it to
+     * the nutrition facts panel when one is detected
+     */
+    public CompletableFuture<ImagePreprocessor.PreparedImage> prepareLabel(byte[] original, String mimeType) {
+        if (!enabled || !labelCropEnabled) {
+            return prepare(original, mimeType);
+        }
+        return CompletableFuture.supplyAsync(
+                () -> timed(() -> preprocessor.prepare(original, mimeType, this::nutritionPanel), original, mimeType),
+                executor);
+    }
+
+    private Rectangle nutritionPanel(BufferedImage label) {
+        Rectangle panel = NutritionPanelDetector.detect(label);
+        if (panel == null) {
+            labelsUncropped.increment();
+            return null;
+        }
+        labelsCropped.increment();
+        labelCropArea.record((double) panel.width * panel.height / ((double) label.getWidth() * label.getHeight()));
+        return panel;
+    }
+
+    private ImagePreprocessor.PreparedImage timed(Callable<ImagePreprocessor.PreparedImage> step, byte[] original, String mimeType) {
+        long start = System.nanoTime();
+        try {
+            ImagePreprocessor.PreparedImage prepared = step.call();
+            long elapsed = System.nanoTime() - start;
+            timer.record(elapsed, TimeUnit.NANOSECONDS);
+            bytesSaved.record(Math.max(0, prepared.bytesSaved()));
+            log.info("Preprocessed image: {} -> {} bytes in {} ms", original.length, prepared.data().length,
+                    TimeUnit.NANOSECONDS.toMillis(elapsed));
+            return prepared;
+        } catch (Exception e) {
+            failures.increment();
+            log.warn("Could not preprocess image, sending the original", e);
+            return new ImagePreprocessor.PreparedImage(original, mimeType, original.length);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+    }
+}
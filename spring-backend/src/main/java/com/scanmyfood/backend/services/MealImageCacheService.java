@@ -0,0 +1,118 @@
+package com.scanmyfood.backend.services;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.scanmyfood.backend.models.FoodAnalysisResponse;
+import com.scanmyfood.backend.utils.HammingIndex;
+import com.scanmyfood.backend.utils.ImageHashUtils;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+/**
+ * Near-duplicate cache for meal photos. Each upload is reduced to a 64-bit difference hash and a
+ * retake within {@code ai.cache.meal-image.max-distance} bits of a cached photo reuses its analysis.
+ * Entries are keyed by the models answering food images and the prompt version as well as the hash,
+ * so a photo analyzed under another configuration is never served.
+ */
+@Slf4j
+@Service
+public class MealImageCacheService {
+
+    private final Cache<MealImageKey, FoodAnalysisResponse> cache;
+    private final HammingIndex index;
+    private final String version;
+    private final Counter hits;
+    private final Counter misses;
+    private final DistributionSummary hitDistance;
+
+    public MealImageCacheService(MeterRegistry meterRegistry, ModelTieringService modelTieringService,
+                                 @Value("${ai.cache.meal-image.max-size:10000}") long maxSize,
+                                 @Value("${ai.cache.meal-image.ttl:1h}") Duration ttl,
+                                 @Value("${ai.cache.meal-image.max-distance:6}") int maxDistance) {
+        this.index = new HammingIndex(maxDistance);
+        // Fixed for the life of the process, so the index only has to hold the hashes
+        this.version = modelTieringService.answeringModels("food-image") + ":" + VertexAiServiceImpl.FOOD_IMAGE_PROMPT_VERSION;
+        // The eviction listener runs atomically with the eviction, and hashes are indexed atomically
+        // with the insert, so the index never loses a cached hash nor keeps one that was evicted
+        this.cache = CaffeineCacheMetrics.monitor(meterRegistry,
+                Caffeine.newBuilder()
+                        .maximumSize(maxSize)
+                        .expireAfterWrite(ttl)
+                        .recordStats()
+                        .<MealImageKey, FoodAnalysisResponse>evictionListener((key, analysis, cause) -> {
+                            if (key != null) {
+                                index.remove(key.hash());
+                            }
+                        })
+                        .build(),
+                "ai.meal-image-analysis");
+        this.hits = Counter.builder("ai.meal-image-cache.lookups").tag("result", "hit").register(meterRegistry);
+        this.misses = Counter.builder("ai.meal-image-cache.lookups").tag("result", "miss").register(meterRegistry);
+        this.hitDistance = DistributionSummary.builder("ai.meal-image-cache.hit.distance")
+                .description("Hamming distance between a photo and the cached near-duplicate it matched")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Returns the analysis of a cached near-duplicate of this photo, or runs the loader and caches
+     * its result. Photos ImageIO cannot decode bypass the cache, and partial analyses are not cached.
+     */
+    public CompletableFuture<FoodAnalysisResponse> getOrAnalyze(MultipartFile imageFile,
+                                                                Supplier<CompletableFuture<FoodAnalysisResponse>> loader) {
+        Long hash = perceptualHash(imageFile);
+        if (hash == null) {
+            return loader.get();
+        }
+
+        // Expired entries stay indexed until Caffeine evicts them; look past them to a live one
+        Long nearest = index.findNearest(hash, candidate -> cache.asMap().containsKey(key(candidate)));
+        if (nearest != null) {
+            FoodAnalysisResponse cached = cache.getIfPresent(key(nearest));
+            if (cached != null) {
+                int distance = Long.bitCount(nearest ^ hash);
+                log.info("Meal image cache hit at distance {}", distance);
+                hits.increment();
+                hitDistance.record(distance);
+                return CompletableFuture.completedFuture(cached);
+            }
+        }
+        misses.increment();
+
+        return loader.get().thenApply(analysis -> {
+            if (!Boolean.TRUE.equals(analysis.getPartial())) {
+                cache.asMap().compute(key(hash), (key, previous) -> {
+                    index.add(hash);
+                    return analysis;
+                });
+            }
+            return analysis;
+        });
+    }
+
+    private MealImageKey key(long hash) {
+        return new MealImageKey(version, hash);
+    }
+
+    private record MealImageKey(String version, long hash) {
+    }
+
+    private Long perceptualHash(MultipartFile imageFile) {
+        try {
+            return ImageHashUtils.differenceHash(imageFile.getBytes());
+        } catch (IOException e) {
+            log.warn("Could not read meal image for hashing, skipping cache", e);
+            return null;
+        }
+    }
+}
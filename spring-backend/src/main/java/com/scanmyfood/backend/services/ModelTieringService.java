@@ -0,0 +1,139 @@
+package com.scanmyfood.backend.services;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
+import java.util.stream.Collectors;
+
+/**
+ * Chooses the model tier for each kind of analysis. Endpoints listed in
+ * {@code ai.tiering.light-endpoints} run on the light model first; an answer that fails or does not
+ * pass the caller's confidence check is escalated to the standard model, whose answer is checked
+ * again and handed to the caller's fallback when it does not pass either. Latency is recorded per
+ * tier and endpoint, and escalations per endpoint and reason, so the light tier's latency gain can
+ * be weighed against how often it has to be escalated.
+ */
+@Slf4j
+@Service
+public class ModelTieringService {
+
+    public enum Tier {
+        LIGHT, STANDARD;
+
+        String tag() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    private final Set<String> lightEndpoints;
+    private final boolean escalationEnabled;
+    private final String modelName;
+    private final String lightModelName;
+    private final MeterRegistry meterRegistry;
+
+    public ModelTieringService(MeterRegistry meterRegistry,
+                               @Value("${ai.tiering.light-endpoints:description,description-batch}") Set<String> lightEndpoints,
+                               @Value("${ai.tiering.escalation.enabled:true}") boolean escalationEnabled,
+                               @Value("${vertex.ai.model.name:gemini-2.0-flash}") String modelName,
+                               @Value("${vertex.ai.model.light-name:gemini-2.0-flash-lite}") String lightModelName) {
+        this.meterRegistry = meterRegistry;
+        this.lightEndpoints = lightEndpoints;
+        this.escalationEnabled = escalationEnabled;
+        this.modelName = modelName;
+        this.lightModelName = lightModelName;
+        log.info("Analyses on the light model tier: {}", lightEndpoints.isEmpty() ? "none" : lightEndpoints);
+    }
+
+    public Tier firstTier(String endpoint) {
+        return lightEndpoints.contains(endpoint) ? Tier.LIGHT : Tier.STANDARD;
+    }
+
+    /**
+     * The models that may answer {@code endpoints}, for cache keys: for each, the light model and the
+     * standard model it escalates to, or just the standard model. Answers cached under one
+     * configuration are not served once an endpoint changes tier or either model is replaced.
+     */
+    public String answeringModels(String... endpoints) {
+        return Arrays.stream(endpoints)
+                .map(endpoint -> firstTier(endpoint) == Tier.STANDARD ? modelName
+                        : escalationEnabled ? lightModelName + ">" + modelName : lightModelName)
+                .distinct()
+                .collect(Collectors.joining("|"));
+    }
+
+    /**
+     * Runs {@code call} on the endpoint's first tier and, if that was the light tier, once more on the
+     * standard tier when it fails or its answer is not {@code confident}. An escalated answer that is
+     * still not {@code confident} is passed through {@code unconfident}, which marks it partial or
+     * throws to fail it. Our own rejections (such as the concurrency limiter's 503) are passed on
+     * rather than escalated.
+     */
+    public <T> CompletableFuture<T> execute(String endpoint, Function<Tier, CompletableFuture<T>> call,
+                                            Predicate<T> confident, UnaryOperator<T> unconfident) {
+        Tier first = firstTier(endpoint);
+        CompletableFuture<T> answer = timed(endpoint, first, call);
+        if (first == Tier.STANDARD || !escalationEnabled) {
+            return answer;
+        }
+        return answer.handle((result, error) -> {
+            Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+            if (cause == null && confident.test(result)) {
+                return CompletableFuture.completedFuture(result);
+            }
+            if (cause instanceof ResponseStatusException) {
+                return CompletableFuture.<T>failedFuture(cause);
+            }
+            String reason = cause == null ? "low-confidence" : "failed";
+            log.info("Escalating {} analysis to the standard model, light answer {}", endpoint,
+                    cause == null ? reason : reason + ": " + cause.getMessage());
+            Counter.builder("ai.tiering.escalations")
+                    .description("Light-tier analyses re-run on the standard model")
+                    .tag("endpoint", endpoint)
+                    .tag("reason", reason)
+                    .register(meterRegistry)
+                    .increment();
+            return timed(endpoint, Tier.STANDARD, call).thenApply(escalated -> {
+                if (confident.test(escalated)) {
+                    return escalated;
+                }
+                log.warn("Standard model's {} answer is not confident either", endpoint);
+                Counter.builder("ai.tiering.unconfident")
+                        .description("Escalated analyses whose standard-tier answer also failed the confidence check")
+                        .tag("endpoint", endpoint)
+                        .register(meterRegistry)
+                        .increment();
+                return unconfident.apply(escalated);
+            });
+        }).thenCompose(Function.identity());
+    }
+
+    private <T> CompletableFuture<T> timed(String endpoint, Tier tier, Function<Tier, CompletableFuture<T>> call) {
+        Timer timer = Timer.builder("ai.tiering.latency")
+                .description("Model call and answer binding time per tier")
+                .tag("endpoint", endpoint)
+                .tag("tier", tier.tag())
+                .publishPercentiles(0.5, 0.95)
+                .register(meterRegistry);
+        Timer.Sample sample = Timer.start(meterRegistry);
+        CompletableFuture<T> result;
+        try {
+            result = call.apply(tier);
+        } catch (RuntimeException e) {
+            result = CompletableFuture.failedFuture(e);
+        }
+        return result.whenComplete((value, error) -> sample.stop(timer));
+    }
+}
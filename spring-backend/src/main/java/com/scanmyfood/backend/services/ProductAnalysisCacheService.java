@@ -0,0 +1,80 @@
+package com.scanmyfood.backend.services;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.scanmyfood.backend.models.ProductAnalysisResponse;
+import com.scanmyfood.backend.utils.HashUtils;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+/**
+ * Content-addressed cache of product analyses. Entries are keyed by the SHA-256 of the front and
+ * label image bytes together with the model name and prompt version, so a rescan of the same box
+ * is answered without another Gemini call.
+ */
+@Slf4j
+@Service
+public class ProductAnalysisCacheService {
+
+    private final Cache<String, ProductAnalysisResponse> cache;
+    private final String modelName;
+
+    public ProductAnalysisCacheService(MeterRegistry meterRegistry,
+                                       @Value("${vertex.ai.model.name:gemini-2.0-flash}") String modelName,
+                                       @Value("${ai.cache.product.max-size:10000}") long maxSize,
+                                       @Value("${ai.cache.product.ttl:24h}") Duration ttl) {
+        this.modelName = modelName;
+        this.cache = CaffeineCacheMetrics.monitor(meterRegistry,
+                Caffeine.newBuilder()
+                        .maximumSize(maxSize)
+                        .expireAfterWrite(ttl)
+                        .recordStats()
+                        .<String, ProductAnalysisResponse>build(),
+                "ai.product-analysis");
+    }
+
+    /**
+     * Returns the cached analysis for these images, or runs the loader and caches its result.
+     * Failed and partial analyses are never cached.
+     */
+    public CompletableFuture<ProductAnalysisResponse> getOrAnalyze(MultipartFile frontImage, MultipartFile labelImage,
+                                                                   Supplier<CompletableFuture<ProductAnalysisResponse>> loader) {
+        String key = cacheKey(frontImage, labelImage);
+        if (key == null) {
+            return loader.get();
+        }
+
+        ProductAnalysisResponse cached = cache.getIfPresent(key);
+        if (cached != null) {
+            log.info("Product analysis cache hit");
+            return CompletableFuture.completedFuture(cached);
+        }
+
+        return loader.get().thenApply(analysis -> {
+            if (!Boolean.TRUE.equals(analysis.getPartial())) {
+                cache.put(key, analysis);
+            }
+            return analysis;
+        });
+    }
+
+    private String cacheKey(MultipartFile frontImage, MultipartFile labelImage) {
+        try {
+            return modelName + ":" + VertexAiServiceImpl.PRODUCT_PROMPT_VERSION + ":"
+                    + HashUtils.sha256Hex(frontImage.getBytes()) + ":"
+                    + HashUtils.sha256Hex(labelImage.getBytes());
+        } catch (IOException e) {
+            log.warn("Could not hash product images, skipping cache", e);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package com.scanmyfood.backend.services;
+
+import com.scanmyfood.backend.utils.ByteBudget;
+import com.scanmyfood.backend.utils.InMemoryMultipartFile;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+/**
+ * Bounds the heap held by image analyses with a global {@link ByteBudget}. Uploads stay spooled in
+ * the container's temp files until a request is admitted; only then are they read into memory.
+ * Each request reserves twice its upload size, for the in-memory copy and the model payload, which
+ * is never larger than the original. Decoded pixels are not counted: they only exist inside the
+ * fixed-size preprocessing pool.
+ */
+@Slf4j
+@Service
+public class UploadAdmissionService {
+
+    private final ByteBudget budget;
+
+    public UploadAdmissionService(MeterRegistry meterRegistry,
+                                  @Value("${ai.upload-budget.max-bytes:0B}") DataSize maxBytes,
+                                  @Value("${ai.upload-budget.max-queue:100}") int maxQueue,
+                                  @Value("${ai.upload-budget.max-wait:10s}") Duration maxWait,
+                                  @Qualifier("applicationTaskExecutor") Executor taskExecutor) {
+        long capacity = maxBytes.toBytes() > 0 ? maxBytes.toBytes() : Runtime.getRuntime().maxMemory() / 4;
+        this.budget = new ByteBudget(capacity, maxQueue, maxWait,
+                () -> new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Too many uploads in progress, please retry shortly"),
+                taskExecutor);
+        log.info("Upload byte budget: {} MB", capacity / (1024 * 1024));
+
+        Gauge.builder("ai.upload-budget.capacity", budget, ByteBudget::getCapacity)
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        Gauge.builder("ai.upload-budget.in-use", budget, ByteBudget::getInUse)
+                .baseUnit("bytes")
+                .description("Bytes reserved by image analyses in progress")
+                .register(meterRegistry);
+        Gauge.builder("ai.upload-budget.queued", budget, ByteBudget::getQueued)
+                .register(meterRegistry);
+        FunctionCounter.builder("ai.upload-budget.rejected", budget, ByteBudget::getRejected)
+                .description("Image analyses rejected because the queue was full or the wait timed out")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Runs {@code analysis} on in-memory copies of {@code uploads} once their bytes fit in the
+     * budget, and releases them when it completes
+     */
+    public <T> CompletableFuture<T> admit(List<MultipartFile> uploads,
+                                          Function<List<MultipartFile>, CompletableFuture<T>> analysis) {
+        long bytes = 2 * uploads.stream().mapToLong(MultipartFile::getSize).sum();
+        return budget.execute(bytes, () -> analysis.apply(inMemory(uploads)));
+    }
+
+    /**
+     * For analyses that run after the request ends, such as queued jobs: reserves the uploads' bytes
+     * without waiting and reads them into memory while the container still has them. Rejected with
+     * 503 when the budget cannot take them now; the caller must release the reservation once the
+     * analysis completes.
+     */
+    public Reservation reserve(List<MultipartFile> uploads) {
+        if (uploads.isEmpty()) {
+            return new Reservation(List.of(), () -> { });
+        }
+        long reserved = budget.tryReserve(2 * uploads.stream().mapToLong(MultipartFile::getSize).sum());
+        if (reserved < 0) {
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Too many uploads in progress, please retry shortly");
+        }
+        try {
+            return new Reservation(inMemory(uploads), () -> budget.release(reserved));
+        } catch (RuntimeException e) {
+            budget.release(reserved);
+            throw e;
+        }
+    }
+
+    /**
+     * In-memory uploads holding their share of the budget until {@link #release()}
+     */
+    public static final class Reservation {
+        private final List<MultipartFile> files;
+        private final Runnable release;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Reservation(List<MultipartFile> files, Runnable release) {
+            this.files = files;
+            this.release = release;
+        }
+
+        public List<MultipartFile> files() {
+            return files;
+        }
+
+        public void release() {
+            if (released.compareAndSet(false, true)) {
+                release.run();
+            }
+        }
+    }
+
+    /**
+     * Reads each upload into memory once, so the cache lookups and the model request share one copy
+     * instead of each reading the part again
+     */
+    private static List<MultipartFile> inMemory(List<MultipartFile> uploads) {
+        List<MultipartFile> files = new ArrayList<>(uploads.size());
+        for (MultipartFile upload : uploads) {
+            try {
+                files.add(InMemoryMultipartFile.of(upload));
+            } catch (IOException e) {
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Could not read upload " + upload.getName(), e);
+            }
+        }
+        return files;
+    }
+}
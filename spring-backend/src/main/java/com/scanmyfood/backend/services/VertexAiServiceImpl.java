@@ -1,51 +1,98 @@
 package com.scanmyfood.backend.services;
 
 import java.io.IOException;
-import java.util.HashMap;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
 
 import com.scanmyfood.backend.constants.NutrientConstants;
+import com.scanmyfood.backend.constants.ResponseSchemas;
+import com.scanmyfood.backend.models.FoodAnalysisResponse;
+import com.scanmyfood.backend.models.ProductAnalysisResponse;
+import com.scanmyfood.backend.utils.AdaptiveConcurrencyLimiter;
+import com.scanmyfood.backend.utils.HashUtils;
+import com.scanmyfood.backend.utils.ImagePreprocessor;
+import com.scanmyfood.backend.utils.JsonRepair;
+import com.scanmyfood.backend.utils.LatencyAwareRouter;
+import com.scanmyfood.backend.utils.MicroBatcher;
+import com.scanmyfood.backend.utils.RetryPolicy;
+import com.scanmyfood.backend.utils.SingleFlight;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.server.ResponseStatusException;
 
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.api.core.ApiFuture;
+import com.google.api.core.ApiFutureCallback;
+import com.google.api.core.ApiFutures;
 import com.google.cloud.vertexai.VertexAI;
+import com.google.cloud.vertexai.api.Blob;
 import com.google.cloud.vertexai.api.Content;
 import com.google.cloud.vertexai.api.GenerateContentResponse;
+import com.google.cloud.vertexai.api.GenerationConfig;
+import com.google.cloud.vertexai.api.Part;
+import com.google.cloud.vertexai.api.Schema;
 import com.google.cloud.vertexai.generativeai.ContentMaker;
 import com.google.cloud.vertexai.generativeai.GenerativeModel;
-import com.google.cloud.vertexai.generativeai.PartMaker;
+import com.google.cloud.vertexai.generativeai.ResponseStream;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.protobuf.UnsafeByteOperations;
 
 @Service
 public class VertexAiServiceImpl implements AiService {
 
   private static final Logger logger = LoggerFactory.getLogger(VertexAiServiceImpl.class);
 
-  @Autowired
-  private ObjectMapper objectMapper;
-
-  @Autowired
-  private VertexAI vertexAI;
-
-  @Autowired
-  private GenerativeModel generativeModel;
-
-  @Override
-  public Map<String, Object> analyzeProductImages(MultipartFile frontImage, MultipartFile labelImage) {
-
-    try {
-      String frontMimeType = determineMimeType(frontImage);
-      String labelMimeType = determineMimeType(labelImage);
+  /**
+   * Bump whenever the corresponding prompt changes so cached analyses from the old prompt are not reused
+   */
+  static final String PRODUCT_PROMPT_VERSION = "product-v3";
+  static final String FOOD_IMAGE_PROMPT_VERSION = "food-image-v1";
+  static final String DESCRIPTION_PROMPT_VERSION = "description-v4";
 
-      // Create prompt
-      String prompt = """
+  /**
+   * Fixed instructions for each analysis. They are configured as the system instruction of the
+   * model used for that analysis, so each request only carries the images or the description.
+   */
+  private static final Content PRODUCT_INSTRUCTION = ContentMaker.fromString("""
         %s
         
+        The first image shows the front of a food product and the second its nutrition label.
         Analyze the food product, product name and its nutrition label. Provide response in this strict JSON format:
         {
           "product": {
@@ -105,179 +152,654 @@ public class VertexAiServiceImpl implements AiService {
              Low dv_status → Good health_impact
              Moderate dv_status → Moderate health_impact
              High dv_status → Bad health_impact
-        """.formatted(NutrientConstants.DAILY_VALUES_REFERENCE);
-
-      // Use ContentMaker and PartMaker
-      Content content = ContentMaker.fromMultiModalData(
-        prompt,
-        PartMaker.fromMimeTypeAndData(frontMimeType, frontImage.getBytes()),
-        PartMaker.fromMimeTypeAndData(labelMimeType, labelImage.getBytes())
-);
-      // Generate content
-      GenerateContentResponse response = generativeModel.generateContent(content);
+        """.formatted(NutrientConstants.DAILY_VALUES_REFERENCE));
+
+  private static final Content FOOD_IMAGE_INSTRUCTION = ContentMaker.fromString("""
+            Analyze this food image and break down each visible food item.
+            Provide response in this strict JSON format:
+            {
+              "plate_analysis": {
+              "meal_name": "Name of the meal",
+                "items": [
+                  {
+                    "food_name": "Name of the food item",
+                    "estimated_quantity": {
+                      "amount": 0,
+                      "unit": "g"
+                    },
+                    "nutrients_per_100g": {
+                      "calories": 0,
+                      "protein": {"value": 0, "unit": "g"},
+                      "carbohydrates": {"value": 0, "unit": "g"},
+                      "fat": {"value": 0, "unit": "g"},
+                      "fiber": {"value": 0, "unit": "g"}
+                    },
+                    "total_nutrients": {
+                      "calories": 0,
+                      "protein": {"value": 0, "unit": "g"},
+                      "carbohydrates": {"value": 0, "unit": "g"},
+                      "fat": {"value": 0, "unit": "g"},
+                      "fiber": {"value": 0, "unit": "g"}
+                    },
+                    "visual_cues": ["List of visual indicators used for estimation"],
+                    "position": "Description of item location in the image"
+                  }
+                ],
+                "total_plate_nutrients": {
+                  "calories": 0,
+                  "protein": {"value": 0, "unit": "g"},
+                  "carbohydrates": {"value": 0, "unit": "g"},
+                  "fat": {"value": 0, "unit": "g"},
+                  "fiber": {"value": 0, "unit": "g"}
+                }
+              }
+            }
+            
+            Consider:
+            1. Use visual cues to estimate portions (size relative to plate, height of food, etc.)
+            2. Take a deeper look into the container size of food, don't consider a zoomed in container to be a big container
+            3. Provide nutrients both per 100g and for estimated total quantity
+            4. Prioritize using values from the USDA FoodData Central database
+            5. Consider common serving sizes and preparation methods
+            6. Account for density and volume-to-weight conversions
+            
+            """);
+
+  private static final String DESCRIPTION_PROMPT = """
+        You are a highly qualified and experienced nutritionist specializing in providing accurate nutritional information.
+        Analyze the food items (always consider items in cooked form whenever applicable) and their quantities given in the user's message.
+
+        Generate nutritional info for each of the mentioned food items and their respective quantities and respond using this JSON schema:
+        {
+          "meal_analysis": {
+          "meal_name": "Name of the meal",
+            "items": [
+              {
+                "food_name": "Name of the food item",
+                "mentioned_quantity": {
+                  "amount": 0,
+                  "unit": "g"
+                },
+                "nutrients_per_100g": {
+                  "calories": 0,
+                  "protein": {"value": 0, "unit": "g"},
+                  "carbohydrates": {"value": 0, "unit": "g"},
+                  "fat": {"value": 0, "unit": "g"},
+                  "fiber": {"value": 0, "unit": "g"}
+                },
+                "nutrients_in_mentioned_quantity": {
+                  "calories": 0,
+                  "protein": {"value": 0, "unit": "g"},
+                  "carbohydrates": {"value": 0, "unit": "g"},
+                  "fat": {"value": 0, "unit": "g"},
+                  "fiber": {"value": 0, "unit": "g"}
+                }
+              }
+            ],
+            "total_nutrients": {
+              "calories": 0,
+              "protein": {"value": 0, "unit": "g"},
+              "carbohydrates": {"value": 0, "unit": "g"},
+              "fat": {"value": 0, "unit": "g"},
+              "fiber": {"value": 0, "unit": "g"}
+            }
+          }
+        }
+        
+        
+            Important considerations:
+            1. Analyze the provided food items and their quantities in the meal description.
+            2. Generate nutritional information for each food item and the total meal, adhering to the provided JSON schema.
+            3. Prioritize using values from the USDA FoodData Central database. If data is unavailable in the USDA database, use other reputable sources like the EFSA (European Food Safety Authority) Comprehensive Food Consumption Database or national food composition databases, ensuring data reliability and scientific validity.
+            4. Account for common preparation methods (e.g., boiled, fried, baked) when calculating nutritional values. If the preparation method is not specified, assume the most common method for that food item.
+            5. Convert all measurements to grams (g) or milliliters (ml) as appropriate. If only volume is provided, use standard density values to convert to weight.  If a unit is not specified, assume grams (g).
+            6. Consider regional variations in portion sizes when interpreting quantities. If the description is ambiguous, use standard serving sizes.
+            7. Round all nutritional values to one decimal place.
+            8. Account for density and volume-to-weight conversions
+            
+            Provide accurate nutritional data based on the most reliable food databases and scientific sources.
+            """;
+
+  private static final Content DESCRIPTION_INSTRUCTION = ContentMaker.fromString(DESCRIPTION_PROMPT);
+
+  /**
+   * Several descriptions in one call; each meal is analyzed exactly as in {@link #DESCRIPTION_PROMPT}
+   */
+  private static final Content DESCRIPTION_BATCH_INSTRUCTION = ContentMaker.fromString("""
+        The user's message is a JSON array of separate meal descriptions, each with its index. Analyze each
+        description on its own, as if it were the only one, following the instructions below. Respond with
+        {"meals": [...]} holding exactly one entry per description: {"index": <the description's index>,
+        "meal_analysis": {...}}, where meal_analysis is as in the JSON format below. Never merge descriptions.
+        
+        """ + DESCRIPTION_PROMPT);
 
-      // Extract and parse JSON from response
-      String responseText = response.getCandidates(0).getContent().getParts(0).getText();
-      return extractJsonFromResponse(responseText);
+  private static final Endpoint PRODUCT = new Endpoint("product", PRODUCT_INSTRUCTION, jsonResponse(ResponseSchemas.PRODUCT));
+  private static final Endpoint FOOD_IMAGE = new Endpoint("food-image", FOOD_IMAGE_INSTRUCTION, jsonResponse(ResponseSchemas.FOOD_IMAGE));
+  private static final Endpoint DESCRIPTION = new Endpoint("description", DESCRIPTION_INSTRUCTION, jsonResponse(ResponseSchemas.DESCRIPTION));
+  private static final Endpoint DESCRIPTION_BATCH = new Endpoint("description-batch", DESCRIPTION_BATCH_INSTRUCTION,
+          jsonResponse(ResponseSchemas.DESCRIPTION_BATCH));
+
+  @Autowired
+  private ObjectMapper objectMapper;
+
+  @Autowired
+  private VertexAI vertexAI;
+
+  @Autowired
+  private LatencyAwareRouter<GenerativeModel> generativeModelRouter;
+
+  @Autowired
+  private LatencyAwareRouter<GenerativeModel> lightGenerativeModelRouter;
+
+  @Autowired
+  private ModelTieringService modelTieringService;
+
+  @Autowired
+  private SingleFlight<String, GenerateContentResponse> generateContentSingleFlight;
+
+  @Autowired
+  private AdaptiveConcurrencyLimiter generateContentLimiter;
+
+  @Autowired
+  private RetryPolicy generateContentRetryPolicy;
+
+  @Autowired
+  private ImagePreprocessingService imagePreprocessingService;
+
+  @Autowired
+  private AiResponseProcessingService aiResponseProcessingService;
+
+  @Autowired
+  private MeterRegistry meterRegistry;
+
+  // Runs on virtual threads when spring.threads.virtual.enabled=true
+  @Autowired
+  @Qualifier("applicationTaskExecutor")
+  private Executor taskExecutor;
+
+  @Value("${vertex.ai.model.name:gemini-2.0-flash}")
+  private String modelName;
+
+  @Value("${vertex.ai.model.light-name:gemini-2.0-flash-lite}")
+  private String lightModelName;
+
+  @Value("${ai.batching.description.enabled:false}")
+  private boolean descriptionBatchingEnabled;
+
+  @Value("${ai.batching.description.max-size:8}")
+  private int descriptionBatchMaxSize;
+
+  @Value("${ai.batching.description.max-wait:20ms}")
+  private Duration descriptionBatchMaxWait;
+
+  // Null unless ai.batching.description.enabled
+  private MicroBatcher<String, FoodAnalysisResponse> descriptionBatcher;
+
+  @Value("${ai.streaming.threads:32}")
+  private int streamingThreads;
+
+  // Drains the SDK's blocking response streams, one thread per stream in progress
+  private ThreadPoolExecutor streamingExecutor;
+
+  private final ConcurrentMap<EndpointModelKey, GenerativeModel> endpointModels = new ConcurrentHashMap<>();
+
+  @PostConstruct
+  void init() {
+    if (descriptionBatchingEnabled) {
+      descriptionBatcher = new MicroBatcher<>(descriptionBatchMaxSize, descriptionBatchMaxWait,
+              this::analyzeFoodDescriptions, this::analyzeSingleFoodDescription,
+              VertexAiServiceImpl::isUnusableBatchAnswer, meterRegistry, "description");
+      logger.info("Batching description analyses: up to {} per call, waiting at most {}",
+              descriptionBatchMaxSize, descriptionBatchMaxWait);
+    }
+
+    AtomicInteger threadCount = new AtomicInteger();
+    streamingExecutor = new ThreadPoolExecutor(0, streamingThreads, 60L, TimeUnit.SECONDS,
+            new SynchronousQueue<>(),
+            runnable -> {
+              Thread thread = new Thread(runnable, "ai-stream-" + threadCount.incrementAndGet());
+              thread.setDaemon(true);
+              return thread;
+            },
+            new ThreadPoolExecutor.AbortPolicy());
+    Gauge.builder("ai.streaming.active", streamingExecutor, ThreadPoolExecutor::getActiveCount)
+            .description("Model response streams being drained")
+            .register(meterRegistry);
+  }
+
+  @PreDestroy
+  void shutdown() {
+    streamingExecutor.shutdownNow();
+  }
+
+  @Override
+  public CompletableFuture<ProductAnalysisResponse> analyzeProductImages(MultipartFile frontImage, MultipartFile labelImage) {
+
+    try {
+      String frontMimeType = determineMimeType(frontImage);
+      String labelMimeType = determineMimeType(labelImage);
+
+      // Downsize both images in parallel, then use ContentMaker
+      return imagePreprocessingService.prepare(frontImage.getBytes(), frontMimeType)
+              .thenCombine(imagePreprocessingService.prepareLabel(labelImage.getBytes(), labelMimeType),
+                      (front, label) -> ContentMaker.fromMultiModalData(inlineImage(front), inlineImage(label)))
+              // Generate content
+              .thenCompose(content -> generateJson(PRODUCT, content, "product images",
+                      aiResponseProcessingService::processProductImagesResponse,
+                      aiResponseProcessingService::isPlausibleProduct, VertexAiServiceImpl::markUnverified));
 
     } catch (Exception e) {
       logger.error("Error analyzing product images", e);
-      throw new RuntimeException("Failed to analyze product images: " + e.getMessage());
+      return CompletableFuture.failedFuture(new RuntimeException("Failed to analyze product images: " + e.getMessage()));
     }
   }
 
   @Override
-  public Map<String, Object> analyzeFoodImage(MultipartFile imageFile) {
+  public CompletableFuture<FoodAnalysisResponse> analyzeFoodImage(MultipartFile imageFile) {
     try {
-      String foodMimeType = determineMimeType(imageFile);
+      // Generate content
+      return foodImageContent(imageFile).thenCompose(content -> generateJson(FOOD_IMAGE, content, "food image",
+              aiResponseProcessingService::processFoodImageResponse, aiResponseProcessingService::isPlausibleMeal,
+              VertexAiServiceImpl::markUnverified));
 
+    } catch (Exception e) {
+      logger.error("Error analyzing food image", e);
+      return CompletableFuture.failedFuture(new RuntimeException("Failed to analyze food image: " + e.getMessage()));
+    }
+  }
 
-      // Create prompt
-      String prompt = """
-              Analyze this food image and break down each visible food item.
-              Provide response in this strict JSON format:
-              {
-                "plate_analysis": {
-                "meal_name": "Name of the meal",
-                  "items": [
-                    {
-                      "food_name": "Name of the food item",
-                      "estimated_quantity": {
-                        "amount": 0,
-                        "unit": "g",
-                      },
-                      "nutrients_per_100g": {
-                        "calories": 0,
-                        "protein": {"value": 0, "unit": "g"},
-                        "carbohydrates": {"value": 0, "unit": "g"},
-                        "fat": {"value": 0, "unit": "g"},
-                        "fiber": {"value": 0, "unit": "g"}
-                      },
-                      "total_nutrients": {
-                        "calories": 0,
-                        "protein": {"value": 0, "unit": "g"},
-                        "carbohydrates": {"value": 0, "unit": "g"},
-                        "fat": {"value": 0, "unit": "g"},
-                        "fiber": {"value": 0, "unit": "g"}
-                      },
-                      "visual_cues": ["List of visual indicators used for estimation"],
-                      "position": "Description of item location in the image"
-                    }
-                  ],
-                  "total_plate_nutrients": {
-                    "calories": 0,
-                    "protein": {"value": 0, "unit": "g"},
-                    "carbohydrates": {"value": 0, "unit": "g"},
-                    "fat": {"value": 0, "unit": "g"},
-                    "fiber": {"value": 0, "unit": "g"}
-                  }
-                }
-              }
-              
-              Consider:
-              1. Use visual cues to estimate portions (size relative to plate, height of food, etc.)
-              2. Take a deeper look into the container size of food, don't consider a zoomed in container to be a big container
-              3. Provide nutrients both per 100g and for estimated total quantity
-              4. Prioritize using values from the USDA FoodData Central database
-              5. Consider common serving sizes and preparation methods
-              6. Account for density and volume-to-weight conversions
-              
-              """;
-
-      // Use ContentMaker and PartMaker with the determined MIME type
-      Content content = ContentMaker.fromMultiModalData(
-              prompt,
-              PartMaker.fromMimeTypeAndData(foodMimeType, imageFile.getBytes()));
+  @Override
+  public CompletableFuture<FoodAnalysisResponse> analyzeFoodDescription(String description) {
+    return descriptionBatcher == null ? analyzeSingleFoodDescription(description) : descriptionBatcher.submit(description);
+  }
+
+  private CompletableFuture<FoodAnalysisResponse> analyzeSingleFoodDescription(String description) {
+    try {
+      Content content = foodDescriptionContent(description);
 
       // Generate content
-      GenerateContentResponse response = generativeModel.generateContent(content);
+      return generateJson(DESCRIPTION, content, "food description",
+              aiResponseProcessingService::processFoodDescriptionResponse, aiResponseProcessingService::isPlausibleMeal,
+              VertexAiServiceImpl::markUnverified);
+
+    } catch (Exception e) {
+      logger.error("Error analyzing food description", e);
+      return CompletableFuture.failedFuture(new RuntimeException("Failed to analyze food description: " + e.getMessage()));
+    }
+  }
+
+  /**
+   * Analyzes several descriptions in one model call, answering in the order they were given. The
+   * descriptions are sent as a JSON array so one user's text cannot run into the next one's.
+   */
+  private CompletableFuture<List<FoodAnalysisResponse>> analyzeFoodDescriptions(List<String> descriptions) {
+    try {
+      List<IndexedDescription> indexed = new ArrayList<>(descriptions.size());
+      for (int i = 0; i < descriptions.size(); i++) {
+        indexed.add(new IndexedDescription(i, descriptions.get(i)));
+      }
+      Content content = ContentMaker.fromString(objectMapper.writeValueAsString(indexed));
+      return generateJson(DESCRIPTION_BATCH, content, "food description batch",
+              parser -> byIndex(aiResponseProcessingService.processFoodDescriptionBatchResponse(parser), descriptions.size()),
+              meals -> meals.stream().allMatch(meal -> meal != null && aiResponseProcessingService.isPlausibleMeal(meal)),
+              meals -> {
+                meals.stream()
+                        .filter(meal -> meal != null && !aiResponseProcessingService.isPlausibleMeal(meal))
+                        .forEach(VertexAiServiceImpl::markUnverified);
+                return meals;
+              });
+    } catch (JsonProcessingException e) {
+      return CompletableFuture.failedFuture(e);
+    }
+  }
+
+  private record IndexedDescription(int index, String description) {
+  }
+
+  /**
+   * Lines the batch meals up with the descriptions by the index each meal echoes, never by position,
+   * so a meal the model dropped or merged cannot shift later answers onto the wrong caller. Descriptions
+   * without a meal stay null and are re-run as single calls; an index that was never sent makes the
+   * whole answer unusable.
+   */
+  private static List<FoodAnalysisResponse> byIndex(Map<Integer, FoodAnalysisResponse> meals, int count) throws IOException {
+    List<FoodAnalysisResponse> answers = Arrays.asList(new FoodAnalysisResponse[count]);
+    for (Map.Entry<Integer, FoodAnalysisResponse> meal : meals.entrySet()) {
+      if (meal.getKey() < 0 || meal.getKey() >= count) {
+        throw new IOException("Batch answer for unknown description index " + meal.getKey());
+      }
+      answers.set(meal.getKey(), meal.getValue());
+    }
+    return answers;
+  }
 
-      // Extract and parse JSON from response
-      String responseText = response.getCandidates(0).getContent().getParts(0).getText();
-      return extractJsonFromResponse(responseText);
+  /**
+   * Whether a failed batch answer should be retried as single calls: only when the answer could not
+   * be parsed or bound, which the single prompt may well get right. Rejections and model errors
+   * would fail the single calls just the same.
+   */
+  private static boolean isUnusableBatchAnswer(Throwable error) {
+    for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+      if (cause instanceof IOException) {
+        return true;
+      }
+    }
+    return false;
+  }
 
+  @Override
+  public CompletableFuture<FoodAnalysisResponse> streamFoodImageAnalysis(MultipartFile imageFile, Consumer<String> onTextChunk) {
+    try {
+      return composeCancellable(foodImageContent(imageFile),
+              content -> generateJsonStream(FOOD_IMAGE, content, "food image", onTextChunk,
+                      aiResponseProcessingService::processFoodImageResponse));
     } catch (Exception e) {
       logger.error("Error analyzing food image", e);
-      throw new RuntimeException("Failed to analyze food image: " + e.getMessage());
+      return CompletableFuture.failedFuture(new RuntimeException("Failed to analyze food image: " + e.getMessage()));
     }
   }
 
   @Override
-  public Map<String, Object> analyzeFoodDescription(String description) {
-    try {
-      // Create prompt
-      String prompt = """
-          You are a highly qualified and experienced nutritionist specializing in providing accurate nutritional information.
-          Analyze these food items (always consider items in cooked form whenever applicable) and their quantities:
-
-          %s
-
-          Generate nutritional info for each of the mentioned food items and their respective quantities and respond using this JSON schema:
-          {
-            "meal_analysis": {
-            "meal_name": "Name of the meal",
-              "items": [
-                {
-                  "food_name": "Name of the food item",
-                  "mentioned_quantity": {
-                    "amount": 0,
-                    "unit": "g",
-                  },
-                  "nutrients_per_100g": {
-                    "calories": 0,
-                    "protein": {"value": 0, "unit": "g"},
-                    "carbohydrates": {"value": 0, "unit": "g"},
-                    "fat": {"value": 0, "unit": "g"},
-                    "fiber": {"value": 0, "unit": "g"}
-                  },
-                  "nutrients_in_mentioned_quantity": {
-                    "calories": 0,
-                    "protein": {"value": 0, "unit": "g"},
-                    "carbohydrates": {"value": 0, "unit": "g"},
-                    "fat": {"value": 0, "unit": "g"},
-                    "fiber": {"value": 0, "unit": "g"}
-                  },
+  public CompletableFuture<FoodAnalysisResponse> streamFoodDescriptionAnalysis(String description, Consumer<String> onTextChunk) {
+    return generateJsonStream(DESCRIPTION, foodDescriptionContent(description), "food description", onTextChunk,
+            aiResponseProcessingService::processFoodDescriptionResponse);
+  }
+
+  /**
+   * {@code first.thenCompose(next)}, except that cancelling the result also cancels whichever of the
+   * two stages is running, so a client hanging up stops the model stream and not just the composed
+   * future
+   */
+  private static <A, T> CompletableFuture<T> composeCancellable(CompletableFuture<A> first,
+                                                                Function<A, CompletableFuture<T>> next) {
+    CompletableFuture<Void> abandoned = new CompletableFuture<>();
+    CompletableFuture<T> result = first.thenCompose(value -> {
+      CompletableFuture<T> second = next.apply(value);
+      abandoned.thenRun(() -> second.cancel(true));
+      return second;
+    });
+    result.whenComplete((value, error) -> {
+      if (result.isCancelled()) {
+        first.cancel(true);
+        abandoned.complete(null);
+      }
+    });
+    return result;
+  }
+
+  private CompletableFuture<Content> foodImageContent(MultipartFile imageFile) throws IOException {
+    String foodMimeType = determineMimeType(imageFile);
+
+    // Use ContentMaker with the downsized image
+    return imagePreprocessingService.prepare(imageFile.getBytes(), foodMimeType)
+            .thenApply(image -> ContentMaker.fromMultiModalData(inlineImage(image)));
+  }
+
+  /**
+   * Wraps the image bytes in the request part without the copy {@code PartMaker.fromMimeTypeAndData}
+   * makes; the prepared image is never modified after this point
+   */
+  private static Part inlineImage(ImagePreprocessor.PreparedImage image) {
+    return Part.newBuilder()
+            .setInlineData(Blob.newBuilder()
+                    .setMimeType(image.mimeType())
+                    .setData(UnsafeByteOperations.unsafeWrap(image.data())))
+            .build();
+  }
+
+  private Content foodDescriptionContent(String description) {
+    return ContentMaker.fromString(description);
+  }
+
+  /**
+   * Marks an answer that failed the plausibility checks on both model tiers as partial, so it is still
+   * shown but never cached
+   */
+  private static FoodAnalysisResponse markUnverified(FoodAnalysisResponse meal) {
+    meal.setPartial(true);
+    return meal;
+  }
+
+  private static ProductAnalysisResponse markUnverified(ProductAnalysisResponse product) {
+    product.setPartial(true);
+    return product;
+  }
+
+  /**
+   * Sends the request without holding the calling thread and binds the JSON answer once it arrives.
+   * Binding is handed to the application task executor rather than the gRPC transport threads. An
+   * answer from the light model tier that fails or is not {@code confident} is asked again of the
+   * standard model, and a standard answer to such an escalation that is still not {@code confident}
+   * is passed through {@code unconfident}.
+   */
+  private <T> CompletableFuture<T> generateJson(Endpoint endpoint, Content content, String subject,
+                                                ResponseBinder<T> binder, Predicate<T> confident,
+                                                UnaryOperator<T> unconfident) {
+    recordContentSize(content, subject);
+    return modelTieringService.execute(endpoint.name(), tier -> generateContent(tier, endpoint, content)
+            .thenApplyAsync(response -> {
+              // Extract and bind JSON from response
+              String responseText = response.getCandidates(0).getContent().getParts(0).getText();
+              try {
+                return parseJsonResponse(responseText, binder, subject);
+              } catch (IOException e) {
+                throw new CompletionException(e);
+              }
+            }, taskExecutor), confident, unconfident)
+            .exceptionally(e -> failure(e, subject));
+  }
+
+  /**
+   * Streams the model output to {@code onTextChunk} and binds the accumulated JSON at the end. The
+   * SDK stream is a blocking iterator, so it is drained on the bounded streaming executor, which
+   * answers 503 once {@code ai.streaming.threads} streams are in progress, rather than on the shared
+   * application task executor. {@code onTextChunk} stops the drain by throwing
+   * {@link CancellationException}, e.g. once the client has gone; cancelling the returned future
+   * drops a stream still queued for the limiter and interrupts one being drained, which ends a drain
+   * waiting on the next chunk. Streams always use the standard
+   * model: text already sent to the client cannot be taken back to escalate.
+   */
+  private <T> CompletableFuture<T> generateJsonStream(Endpoint endpoint, Content content, String subject,
+                                                      Consumer<String> onTextChunk, ResponseBinder<T> binder) {
+    recordContentSize(content, subject);
+    CompletableFuture<T> drained = generateContentLimiter.execute(() -> drainAsync(() -> {
+              StringBuilder responseText = new StringBuilder();
+              try {
+                ResponseStream<GenerateContentResponse> stream = endpointModel(generativeModelRouter.preferred(), endpoint)
+                        .generateContentStream(content);
+                for (GenerateContentResponse response : stream) {
+                  String chunk = chunkText(response);
+                  responseText.append(chunk);
+                  onTextChunk.accept(chunk);
                 }
-              ],
-              "total_nutrients": {
-                "calories": 0,
-                "protein": {"value": 0, "unit": "g"},
-                "carbohydrates": {"value": 0, "unit": "g"},
-                "fat": {"value": 0, "unit": "g"},
-                "fiber": {"value": 0, "unit": "g"}
+                return parseJsonResponse(responseText.toString(), binder, subject);
+              } catch (IOException e) {
+                throw new CompletionException(e);
               }
-            }
+            }));
+    CompletableFuture<T> result = drained.exceptionally(e -> failure(e, subject));
+    result.whenComplete((value, error) -> {
+      if (result.isCancelled()) {
+        drained.cancel(true);
+      }
+    });
+    return result;
+  }
+
+  /**
+   * Runs {@code drain} on the streaming executor; cancelling the returned future interrupts the
+   * draining thread, so the SDK's blocking iterator gives up instead of waiting for the next chunk
+   */
+  private <T> CompletableFuture<T> drainAsync(Supplier<T> drain) {
+    CompletableFuture<T> result = new CompletableFuture<>();
+    AtomicReference<Thread> draining = new AtomicReference<>();
+    result.whenComplete((value, error) -> {
+      if (result.isCancelled()) {
+        synchronized (draining) {
+          Thread thread = draining.get();
+          if (thread != null) {
+            thread.interrupt();
+          }
+        }
+      }
+    });
+    try {
+      streamingExecutor.execute(() -> {
+        if (result.isDone()) {
+          return;
+        }
+        draining.set(Thread.currentThread());
+        try {
+          result.complete(drain.get());
+        } catch (RuntimeException e) {
+          result.completeExceptionally(e);
+        } finally {
+          synchronized (draining) {
+            draining.set(null);
+            // Do not let a late cancellation leak into the next stream on this thread
+            Thread.interrupted();
           }
-          
-          
-              Important considerations:
-              1. Analyze the provided food items and their quantities in the meal description.
-              2. Generate nutritional information for each food item and the total meal, adhering to the provided JSON schema.
-              3. Prioritize using values from the USDA FoodData Central database. If data is unavailable in the USDA database, use other reputable sources like the EFSA (European Food Safety Authority) Comprehensive Food Consumption Database or national food composition databases, ensuring data reliability and scientific validity.
-              4. Account for common preparation methods (e.g., boiled, fried, baked) when calculating nutritional values. If the preparation method is not specified, assume the most common method for that food item.
-              5. Convert all measurements to grams (g) or milliliters (ml) as appropriate. If only volume is provided, use standard density values to convert to weight.  If a unit is not specified, assume grams (g).
-              6. Consider regional variations in portion sizes when interpreting quantities. If the description is ambiguous, use standard serving sizes.
-              7. Round all nutritional values to one decimal place.
-              8. Account for density and volume-to-weight conversions
-              
-              Provide accurate nutritional data based on the most reliable food databases and scientific sources.
-              """
-          .formatted(description);
-
-      // Use ContentMaker (text-only in this case)
-      Content content = ContentMaker.fromString(prompt);
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      result.completeExceptionally(new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE,
+              "Too many analyses streaming, please retry shortly"));
+    }
+    return result;
+  }
 
-      // Generate content
-      GenerateContentResponse response = generativeModel.generateContent(content);
+  /**
+   * Logs a failed analysis and rethrows it with the subject in the message. Rejections that already
+   * carry an HTTP status (such as the concurrency limiter's 503) pass through unchanged.
+   */
+  private static <T> T failure(Throwable e, String subject) {
+    Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+    if (cause instanceof ResponseStatusException rejection) {
+      logger.warn("Rejected analyzing {}: {}", subject, rejection.getReason());
+      throw rejection;
+    }
+    if (cause instanceof CancellationException cancelled) {
+      logger.info("Stopped analyzing {}: {}", subject, cancelled.getMessage());
+      throw cancelled;
+    }
+    logger.error("Error analyzing " + subject, cause);
+    throw new RuntimeException("Failed to analyze " + subject + ": " + cause.getMessage(), cause);
+  }
 
-      // Extract and parse JSON from response
-      String responseText = response.getCandidates(0).getContent().getParts(0).getText();
-      return extractJsonFromResponse(responseText);
+  /**
+   * Text of one streamed chunk; the final chunk may carry only the finish reason
+   */
+  private static String chunkText(GenerateContentResponse response) {
+    if (response.getCandidatesCount() == 0 || response.getCandidates(0).getContent().getPartsCount() == 0) {
+      return "";
+    }
+    return response.getCandidates(0).getContent().getParts(0).getText();
+  }
 
-    } catch (Exception e) {
-      logger.error("Error analyzing food description", e);
-      throw new RuntimeException("Failed to analyze food description: " + e.getMessage());
+  /**
+   * Calls the model, sharing the call with any identical request already in flight. Transient
+   * failures are retried with the same content, and each attempt that actually goes out counts
+   * against the concurrency limit. The limit counts these logical attempts rather than RPCs: a hedged
+   * attempt holds one slot for both of its regional calls, so time spent queueing for the limit never
+   * shows up in the router's regional latencies.
+   */
+  private CompletableFuture<GenerateContentResponse> generateContent(ModelTieringService.Tier tier, Endpoint endpoint,
+                                                                     Content content) {
+    LatencyAwareRouter<GenerativeModel> router =
+        tier == ModelTieringService.Tier.LIGHT ? lightGenerativeModelRouter : generativeModelRouter;
+    String tierModelName = tier == ModelTieringService.Tier.LIGHT ? lightModelName : modelName;
+    return generateContentSingleFlight.execute(contentKey(tierModelName, endpoint, content), () -> generateContentRetryPolicy.execute(() ->
+        generateContentLimiter.execute(() ->
+            router.execute(model -> {
+              try {
+                return toCompletableFuture(endpointModel(model, endpoint).generateContentAsync(content));
+              } catch (IOException e) {
+                return CompletableFuture.failedFuture(e);
+              }
+            }))));
+  }
+
+  /**
+   * What is fixed about one kind of analysis: its name (as in ai.tiering.light-endpoints and the
+   * metrics), its instructions and the schema its answer follows
+   */
+  private record Endpoint(String name, Content systemInstruction, GenerationConfig generationConfig) {
+  }
+
+  private static GenerationConfig jsonResponse(Schema schema) {
+    return GenerationConfig.newBuilder()
+            .setResponseMimeType("application/json")
+            .setResponseSchema(schema)
+            .build();
+  }
+
+  /**
+   * The region's model configured for an analysis, built once per region and analysis
+   */
+  private GenerativeModel endpointModel(GenerativeModel model, Endpoint endpoint) {
+    return endpointModels.computeIfAbsent(new EndpointModelKey(model, endpoint),
+            key -> key.model()
+                    .withSystemInstruction(key.endpoint().systemInstruction())
+                    .withGenerationConfig(key.endpoint().generationConfig()));
+  }
+
+  private record EndpointModelKey(GenerativeModel model, Endpoint endpoint) {
+  }
+
+  /**
+   * Size of what each request actually uploads besides the system instruction; point
+   * {@code vertex.ai.api-endpoints} at a local stub to compare payloads without calling the model
+   */
+  private void recordContentSize(Content content, String subject) {
+    DistributionSummary.builder("ai.request.content.bytes")
+            .baseUnit("bytes")
+            .tag("subject", subject)
+            .register(meterRegistry)
+            .record(content.getSerializedSize());
+  }
+
+  /**
+   * Bridges the SDK future; cancelling the returned future (a losing hedged call) cancels the RPC
+   */
+  private static <T> CompletableFuture<T> toCompletableFuture(ApiFuture<T> apiFuture) {
+    CompletableFuture<T> future = new CompletableFuture<>();
+    future.whenComplete((result, error) -> {
+      if (future.isCancelled()) {
+        apiFuture.cancel(true);
+      }
+    });
+    ApiFutures.addCallback(apiFuture, new ApiFutureCallback<T>() {
+      @Override
+      public void onSuccess(T result) {
+        future.complete(result);
+      }
+
+      @Override
+      public void onFailure(Throwable t) {
+        future.completeExceptionally(t);
+      }
+    }, MoreExecutors.directExecutor());
+    return future;
+  }
+
+  /**
+   * Hashes the model name, system instruction, prompt text and image bytes of a request without
+   * copying the image data
+   */
+  private String contentKey(String modelName, Endpoint endpoint, Content content) {
+    MessageDigest digest = HashUtils.sha256();
+    digest.update(modelName.getBytes(StandardCharsets.UTF_8));
+    List<Part> parts = new ArrayList<>(endpoint.systemInstruction().getPartsList());
+    parts.addAll(content.getPartsList());
+    for (Part part : parts) {
+      if (part.hasInlineData()) {
+        digest.update(part.getInlineData().getMimeType().getBytes(StandardCharsets.UTF_8));
+        digest.update(part.getInlineData().getData().asReadOnlyByteBuffer());
+      } else {
+        digest.update(part.getText().getBytes(StandardCharsets.UTF_8));
+      }
     }
+    return HashUtils.toHex(digest.digest());
   }
 
   /**
@@ -301,16 +823,69 @@ public class VertexAiServiceImpl implements AiService {
     return mimeType;
   }
 
-  private Map<String, Object> extractJsonFromResponse(String responseText) throws IOException {
-    // Extract JSON from the response text using regex
-    Pattern pattern = Pattern.compile("\\{.*\\}", Pattern.DOTALL);
-    Matcher matcher = pattern.matcher(responseText);
+  /**
+   * The response is constrained to the endpoint's JSON schema, so it is bound as a whole, straight
+   * from the parser into the response model. Only if that fails is the text repaired and bound
+   * again: stray trailing commas are dropped, and an answer cut off by the output limit keeps its
+   * complete items and is marked partial rather than failing the analysis.
+   */
+  private <T> T parseJsonResponse(String responseText, ResponseBinder<T> binder, String subject) throws IOException {
+    if (responseText.isBlank()) {
+      throw new IOException("Empty response from the model");
+    }
+    try {
+      return bind(responseText, binder);
+    } catch (JsonProcessingException e) {
+      JsonRepair.Result repaired = JsonRepair.repair(responseText);
+      if (!repaired.repaired()) {
+        throw e;
+      }
+      T response = bind(repaired.json(), binder);
+      if (repaired.truncated()) {
+        markPartial(response);
+      }
+      logger.warn("Repaired malformed {} response from the model (cut off: {})", subject, repaired.truncated());
+      Counter.builder("ai.response.repaired")
+              .description("Model responses that only parsed after repair")
+              .tag("subject", subject)
+              .tag("truncated", String.valueOf(repaired.truncated()))
+              .register(meterRegistry)
+              .increment();
+      return response;
+    }
+  }
+
+  private <T> T bind(String json, ResponseBinder<T> binder) throws IOException {
+    try (JsonParser parser = objectMapper.createParser(json)) {
+      return binder.bind(parser);
+    }
+  }
 
-    if (matcher.find()) {
-      String jsonString = matcher.group(0);
-      return objectMapper.readValue(jsonString, HashMap.class);
-    } else {
-      throw new IOException("No valid JSON found in the response");
+  /**
+   * Marks an analysis whose response was cut off as partial, or rejects it when nothing usable is
+   * left. Batch answers (lists of meals) are not marked: the repair cuts back to the last complete
+   * element of the outermost open array, which is the meals, so every meal kept is complete, and the
+   * descriptions whose meals were cut off are left without an answer and re-run as single calls.
+   */
+  private static void markPartial(Object response) throws IOException {
+    if (response instanceof FoodAnalysisResponse analysis) {
+      if (analysis.getAnalyzedFoodItems() == null || analysis.getAnalyzedFoodItems().isEmpty()) {
+        throw new IOException("Response from the model was cut off before the first complete item");
+      }
+      // The model's totals, if they were written at all, may count items that were cut off
+      analysis.setTotalPlateNutrients(FoodAnalysisResponse.totalNutrients(analysis.getAnalyzedFoodItems()));
+      analysis.setPartial(true);
+    } else if (response instanceof ProductAnalysisResponse analysis) {
+      ProductAnalysisResponse.NutritionAnalysis nutrition = analysis.getNutritionAnalysis();
+      if (nutrition == null || nutrition.getNutrients() == null || nutrition.getNutrients().isEmpty()) {
+        throw new IOException("Response from the model was cut off before the first complete nutrient");
+      }
+      analysis.setPartial(true);
     }
   }
+
+  @FunctionalInterface
+  private interface ResponseBinder<T> {
+    T bind(JsonParser parser) throws IOException;
+  }
 }
\ No newline at end of file
@@ -0,0 +1,195 @@
+package com.scanmyfood.backend.utils;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * Gradient-style adaptive concurrency limit for asynchronous calls. The permitted number of
+ * in-flight calls follows the ratio between the long-term average latency and each new sample:
+ * while latency stays near its baseline the limit grows by roughly its square root, and when
+ * latency climbs (queueing at the backend) the limit shrinks proportionally. Calls failing with an
+ * overload error cut the limit by 10%.
+ *
+ * <p>Calls over the limit wait in a bounded FIFO queue for at most {@code maxWait}; calls that
+ * find the queue full or time out complete with the exception produced by {@code rejection}. The
+ * limit counts logical calls: a call that fans out internally, such as a hedged call, holds one slot
+ * for all of its attempts.
+ */
+public class AdaptiveConcurrencyLimiter {
+
+    // Weight of each sample in the long-term latency average (~100 sample window)
+    private static final double LONG_RTT_ALPHA = 0.01;
+    private static final double MIN_GRADIENT = 0.5;
+    private static final double OVERLOAD_BACKOFF = 0.9;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final int maxQueue;
+    private final Duration maxWait;
+    private final double tolerance;
+    private final double smoothing;
+    private final Predicate<Throwable> isOverload;
+    private final Supplier<? extends RuntimeException> rejection;
+
+    private final Deque<Waiter> queue = new ArrayDeque<>();
+    private double limit;
+    private int inFlight;
+    private double longRttNanos = -1;
+    private long rejected;
+
+    public AdaptiveConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit, int maxQueue, Duration maxWait,
+                                      double tolerance, double smoothing, Predicate<Throwable> isOverload,
+                                      Supplier<? extends RuntimeException> rejection) {
+        if (minLimit < 1 || maxLimit < minLimit) {
+            throw new IllegalArgumentException("Require 1 <= minLimit <= maxLimit");
+        }
+        this.limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.maxQueue = maxQueue;
+        this.maxWait = maxWait;
+        this.tolerance = tolerance;
+        this.smoothing = smoothing;
+        this.isOverload = isOverload;
+        this.rejection = rejection;
+    }
+
+    public <T> CompletableFuture<T> execute(Supplier<CompletableFuture<T>> call) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        Waiter waiter = new Waiter(() -> run(call, result), result);
+
+        synchronized (this) {
+            if (inFlight < (int) limit) {
+                inFlight++;
+            } else if (queue.size() < maxQueue) {
+                queue.addLast(waiter);
+                waiter.expiry = SharedTimer.schedule(() -> expire(waiter), maxWait.toNanos());
+                return result;
+            } else {
+                rejected++;
+                return CompletableFuture.failedFuture(rejection.get());
+            }
+        }
+        waiter.start.run();
+        return result;
+    }
+
+    private <T> void run(Supplier<CompletableFuture<T>> call, CompletableFuture<T> result) {
+        long startNanos = System.nanoTime();
+        CompletableFuture<T> pending;
+        try {
+            pending = call.get();
+        } catch (RuntimeException e) {
+            pending = CompletableFuture.failedFuture(e);
+        }
+        CompletableFuture<T> started = pending;
+        // Cancelling the returned future (a deadline or a lost hedge) cancels the underlying call
+        result.whenComplete((value, error) -> {
+            if (result.isCancelled()) {
+                started.cancel(true);
+            }
+        });
+        pending.whenComplete((value, error) -> {
+            release(System.nanoTime() - startNanos, error);
+            if (error != null) {
+                result.completeExceptionally(error);
+            } else {
+                result.complete(value);
+            }
+        });
+    }
+
+    private void expire(Waiter waiter) {
+        synchronized (this) {
+            if (!queue.remove(waiter)) {
+                return;
+            }
+            rejected++;
+        }
+        waiter.result.completeExceptionally(rejection.get());
+    }
+
+    private void release(long rttNanos, Throwable error) {
+        List<Waiter> toStart = new ArrayList<>();
+        synchronized (this) {
+            int inFlightAtCompletion = inFlight;
+            inFlight--;
+            if (error == null) {
+                onSample(rttNanos, inFlightAtCompletion);
+            } else if (isOverload.test(unwrap(error))) {
+                limit = Math.max(minLimit, limit * OVERLOAD_BACKOFF);
+            }
+            while (inFlight < (int) limit && !queue.isEmpty()) {
+                Waiter waiter = queue.pollFirst();
+                waiter.expiry.cancel(false);
+                // Skip callers that were cancelled while queued
+                if (!waiter.result.isDone()) {
+                    toStart.add(waiter);
+                    inFlight++;
+                }
+            }
+        }
+        toStart.forEach(waiter -> waiter.start.run());
+    }
+
+    private void onSample(double rttNanos, int inFlightAtCompletion) {
+        if (longRttNanos < 0) {
+            longRttNanos = rttNanos;
+        } else {
+            longRttNanos = longRttNanos * (1 - LONG_RTT_ALPHA) + rttNanos * LONG_RTT_ALPHA;
+        }
+        // After a latency spike the long-term average lags behind; let it recover faster
+        if (longRttNanos / rttNanos > 2) {
+            longRttNanos *= 0.95;
+        }
+
+        // Only grow the limit when it is actually being used
+        if (inFlightAtCompletion < limit / 2) {
+            return;
+        }
+
+        double gradient = Math.max(MIN_GRADIENT, Math.min(1.0, tolerance * longRttNanos / rttNanos));
+        double newLimit = limit * gradient + Math.sqrt(limit);
+        limit = Math.max(minLimit, Math.min(maxLimit, limit * (1 - smoothing) + newLimit * smoothing));
+    }
+
+    private static Throwable unwrap(Throwable error) {
+        return error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+    }
+
+    public synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    public synchronized int getQueued() {
+        return queue.size();
+    }
+
+    public synchronized long getRejected() {
+        return rejected;
+    }
+
+    private static final class Waiter {
+        private final Runnable start;
+        private final CompletableFuture<?> result;
+        // Set under the limiter's lock when the waiter is queued
+        private ScheduledFuture<?> expiry;
+
+        private Waiter(Runnable start, CompletableFuture<?> result) {
+            this.start = start;
+            this.result = result;
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.scanmyfood.backend.utils;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStreamImpl;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Objects;
+
+/**
+ * Seekable {@link javax.imageio.stream.ImageInputStream} over a byte array. {@code ImageIO.read(InputStream)}
+ * buffers the whole stream again, in a temp file by default or in memory blocks with the cache
+ * disabled, so decoding an upload that is already in memory through it costs an extra copy.
+ */
+public class ByteArrayImageInputStream extends ImageInputStreamImpl {
+
+    private final byte[] data;
+
+    public ByteArrayImageInputStream(byte[] data) {
+        this.data = data;
+    }
+
+    /**
+     * Decodes an encoded image without copying it
+     *
+     * @return the image, or null if no ImageIO reader supports the format
+     */
+    public static BufferedImage decode(byte[] data) throws IOException {
+        return ImageIO.read(new ByteArrayImageInputStream(data));
+    }
+
+    /**
+     * Decodes an image at reduced resolution, reading only every n-th pixel of every n-th row so
+     * that the longer edge stays at least {@code minEdge}. Only the kept pixels are allocated, but
+     * the result is point-sampled, so use this where aliasing does not matter.
+     *
+     * @return the image, or null if no ImageIO reader supports the format
+     */
+    public static BufferedImage decode(byte[] data, int minEdge) throws IOException {
+        try (ByteArrayImageInputStream in = new ByteArrayImageInputStream(data)) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            if (!readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                int longerEdge = Math.max(reader.getWidth(0), reader.getHeight(0));
+                int subsampling = Math.max(1, longerEdge / Math.max(1, minEdge));
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                return reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        checkClosed();
+        bitOffset = 0;
+        return streamPos < data.length ? data[(int) streamPos++] & 0xFF : -1;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        checkClosed();
+        Objects.checkFromIndexSize(offset, length, buffer.length);
+        bitOffset = 0;
+        if (length == 0) {
+            return 0;
+        }
+        if (streamPos >= data.length) {
+            return -1;
+        }
+        int count = (int) Math.min(length, data.length - streamPos);
+        System.arraycopy(data, (int) streamPos, buffer, offset, count);
+        streamPos += count;
+        return count;
+    }
+
+    @Override
+    public long length() {
+        return data.length;
+    }
+}
@@ -0,0 +1,197 @@
+package com.scanmyfood.backend.utils;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.function.Supplier;
+
+/**
+ * Semaphore over bytes rather than calls: each asynchronous call reserves its estimated memory
+ * footprint up front and releases it when its future completes, so the total held by admitted
+ * calls never exceeds {@code capacity}. A call larger than the whole budget is admitted alone
+ * rather than never.
+ *
+ * <p>Calls that do not fit wait in a bounded FIFO queue for at most {@code maxWait}; a small call
+ * never overtakes a large one queued before it. Calls that find the queue full or time out
+ * complete with the exception produced by {@code rejection}. A queued call admitted when another
+ * call releases its bytes starts on {@code admitExecutor} rather than on the releasing thread, which
+ * is usually a model callback thread that must not be held up by the next call's blocking reads.
+ */
+public class ByteBudget {
+
+    private final long capacity;
+    private final int maxQueue;
+    private final Duration maxWait;
+    private final Supplier<? extends RuntimeException> rejection;
+    private final Executor admitExecutor;
+
+    private final Deque<Waiter> queue = new ArrayDeque<>();
+    private long inUse;
+    private long rejected;
+
+    public ByteBudget(long capacity, int maxQueue, Duration maxWait, Supplier<? extends RuntimeException> rejection,
+                      Executor admitExecutor) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        this.capacity = capacity;
+        this.maxQueue = maxQueue;
+        this.maxWait = maxWait;
+        this.rejection = rejection;
+        this.admitExecutor = admitExecutor;
+    }
+
+    /**
+     * Runs {@code call} once {@code bytes} fit in the budget, holding them until its future completes
+     */
+    public <T> CompletableFuture<T> execute(long bytes, Supplier<CompletableFuture<T>> call) {
+        long reserved = Math.max(0, Math.min(bytes, capacity));
+        CompletableFuture<T> result = new CompletableFuture<>();
+        Waiter waiter = new Waiter(reserved, () -> run(reserved, call, result), result);
+
+        synchronized (this) {
+            if (queue.isEmpty() && inUse + reserved <= capacity) {
+                inUse += reserved;
+            } else if (queue.size() < maxQueue) {
+                queue.addLast(waiter);
+                waiter.expiry = SharedTimer.schedule(() -> expire(waiter), maxWait.toNanos());
+                return result;
+            } else {
+                rejected++;
+                return CompletableFuture.failedFuture(rejection.get());
+            }
+        }
+        waiter.start.run();
+        return result;
+    }
+
+    /**
+     * Reserves {@code bytes} only if they fit now, without queueing, for memory held beyond a single
+     * future, such as uploads of queued jobs. Returns the bytes reserved, to be passed to
+     * {@link #release(long)}, or -1 if they did not fit.
+     */
+    public long tryReserve(long bytes) {
+        long reserved = Math.max(0, Math.min(bytes, capacity));
+        synchronized (this) {
+            if (queue.isEmpty() && inUse + reserved <= capacity) {
+                inUse += reserved;
+                return reserved;
+            }
+            rejected++;
+            return -1;
+        }
+    }
+
+    private <T> void run(long reserved, Supplier<CompletableFuture<T>> call, CompletableFuture<T> result) {
+        CompletableFuture<T> pending;
+        try {
+            pending = call.get();
+        } catch (RuntimeException e) {
+            pending = CompletableFuture.failedFuture(e);
+        }
+        CompletableFuture<T> started = pending;
+        // Cancelling the returned future (a client hanging up) cancels the underlying call
+        result.whenComplete((value, error) -> {
+            if (result.isCancelled()) {
+                started.cancel(true);
+            }
+        });
+        pending.whenComplete((value, error) -> {
+            release(reserved);
+            if (error != null) {
+                result.completeExceptionally(error);
+            } else {
+                result.complete(value);
+            }
+        });
+    }
+
+    private void expire(Waiter waiter) {
+        List<Waiter> toStart;
+        synchronized (this) {
+            if (!queue.remove(waiter)) {
+                return;
+            }
+            rejected++;
+            // A large call timing out at the head may unblock smaller ones behind it
+            toStart = admitQueued();
+        }
+        waiter.result.completeExceptionally(rejection.get());
+        toStart.forEach(this::startAdmitted);
+    }
+
+    public void release(long reserved) {
+        List<Waiter> toStart;
+        synchronized (this) {
+            inUse -= reserved;
+            toStart = admitQueued();
+        }
+        toStart.forEach(this::startAdmitted);
+    }
+
+    private void startAdmitted(Waiter waiter) {
+        try {
+            admitExecutor.execute(waiter.start);
+        } catch (RejectedExecutionException e) {
+            waiter.result.completeExceptionally(e);
+            release(waiter.bytes);
+        }
+    }
+
+    private List<Waiter> admitQueued() {
+        List<Waiter> toStart = new ArrayList<>();
+        while (!queue.isEmpty()) {
+            Waiter head = queue.peekFirst();
+            // Skip callers that were cancelled while queued
+            if (head.result.isDone()) {
+                queue.pollFirst();
+                head.expiry.cancel(false);
+                continue;
+            }
+            if (inUse + head.bytes > capacity) {
+                break;
+            }
+            queue.pollFirst();
+            head.expiry.cancel(false);
+            inUse += head.bytes;
+            toStart.add(head);
+        }
+        return toStart;
+    }
+
+    public long getCapacity() {
+        return capacity;
+    }
+
+    public synchronized long getInUse() {
+        return inUse;
+    }
+
+    public synchronized int getQueued() {
+        return queue.size();
+    }
+
+    public synchronized long getRejected() {
+        return rejected;
+    }
+
+    private static final class Waiter {
+        private final long bytes;
+        private final Runnable start;
+        private final CompletableFuture<?> result;
+        // Set under the budget's lock when the waiter is queued
+        private ScheduledFuture<?> expiry;
+
+        private Waiter(long bytes, Runnable start, CompletableFuture<?> result) {
+            this.bytes = bytes;
+            this.start = start;
+            this.result = result;
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package com.scanmyfood.backend.utils;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * Count-based circuit breaker for asynchronous calls. The outcomes of the last {@code windowSize}
+ * calls are kept; once at least {@code minimumCalls} are recorded and the share of failures or of
+ * calls slower than {@code slowCallDuration} reaches its threshold, the breaker opens and rejects
+ * calls immediately with the exception produced by {@code rejection}.
+ *
+ * <p>After {@code openDuration} the breaker half-opens and lets {@code halfOpenProbes} calls
+ * through. If they all succeed quickly it closes again; any failed or slow probe reopens it. Only
+ * the probes themselves decide: calls still running from before the breaker opened, or probes of
+ * an earlier half-open period, are not counted once they finish.
+ */
+public class CircuitBreaker {
+
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private static final byte SUCCESS = 0;
+    private static final byte FAILURE = 1;
+    private static final byte SLOW = 2;
+
+    // Permits handed out by tryAcquire; a probe's permit is its half-open period, counting from 1
+    private static final long REJECTED = -1;
+    private static final long NOT_A_PROBE = 0;
+
+    private final int minimumCalls;
+    private final double failureRateThreshold;
+    private final double slowCallRateThreshold;
+    private final long slowCallNanos;
+    private final long openNanos;
+    private final int halfOpenProbes;
+    private final Predicate<Throwable> isFailure;
+    private final Supplier<? extends RuntimeException> rejection;
+
+    private final byte[] window;
+    private int recorded;
+    private int next;
+    private int failures;
+    private int slowCalls;
+
+    private State state = State.CLOSED;
+    private long openedAtNanos;
+    private long halfOpenPeriod;
+    private int probesStarted;
+    private int probesSucceeded;
+    private long rejected;
+
+    public CircuitBreaker(int windowSize, int minimumCalls, double failureRateThreshold, double slowCallRateThreshold,
+                          Duration slowCallDuration, Duration openDuration, int halfOpenProbes,
+                          Predicate<Throwable> isFailure, Supplier<? extends RuntimeException> rejection) {
+        this.window = new byte[windowSize];
+        this.minimumCalls = Math.min(minimumCalls, windowSize);
+        this.failureRateThreshold = failureRateThreshold;
+        this.slowCallRateThreshold = slowCallRateThreshold;
+        this.slowCallNanos = slowCallDuration.toNanos();
+        this.openNanos = openDuration.toNanos();
+        this.halfOpenProbes = Math.max(1, halfOpenProbes);
+        this.isFailure = isFailure;
+        this.rejection = rejection;
+    }
+
+    public <T> CompletableFuture<T> execute(Supplier<CompletableFuture<T>> call) {
+        long permit = tryAcquire();
+        if (permit == REJECTED) {
+            return CompletableFuture.failedFuture(rejection.get());
+        }
+
+        long startNanos = System.nanoTime();
+        CompletableFuture<T> pending;
+        try {
+            pending = call.get();
+        } catch (RuntimeException e) {
+            pending = CompletableFuture.failedFuture(e);
+        }
+        CompletableFuture<T> started = pending;
+        CompletableFuture<T> result = pending.whenComplete((value, error) -> {
+            long elapsedNanos = System.nanoTime() - startNanos;
+            if (error != null && isFailure.test(unwrap(error))) {
+                onResult(permit, FAILURE);
+            } else if (error == null) {
+                onResult(permit, elapsedNanos >= slowCallNanos ? SLOW : SUCCESS);
+            } else {
+                // Not the backend's fault (e.g. a bad request); give back a half-open probe slot
+                onIgnored(permit);
+            }
+        });
+        // Cancelling the returned future (a client hanging up) cancels the underlying call
+        result.whenComplete((value, error) -> {
+            if (result.isCancelled()) {
+                started.cancel(true);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * True when a call would currently be rejected; lets callers pick a fallback up front
+     */
+    public synchronized boolean isCallPermitted() {
+        return currentState() != State.OPEN;
+    }
+
+    private synchronized long tryAcquire() {
+        switch (currentState()) {
+            case CLOSED:
+                return NOT_A_PROBE;
+            case HALF_OPEN:
+                if (probesStarted < halfOpenProbes) {
+                    probesStarted++;
+                    return halfOpenPeriod;
+                }
+                rejected++;
+                return REJECTED;
+            default:
+                rejected++;
+                return REJECTED;
+        }
+    }
+
+    /**
+     * Whether a call holding {@code permit} is a probe of the current half-open period
+     */
+    private boolean isCurrentProbe(long permit) {
+        return state == State.HALF_OPEN && permit == halfOpenPeriod;
+    }
+
+    private State currentState() {
+        if (state == State.OPEN && System.nanoTime() - openedAtNanos >= openNanos) {
+            state = State.HALF_OPEN;
+            halfOpenPeriod++;
+            probesStarted = 0;
+            probesSucceeded = 0;
+        }
+        return state;
+    }
+
+    private synchronized void onResult(long permit, byte outcome) {
+        if (state == State.HALF_OPEN) {
+            if (!isCurrentProbe(permit)) {
+                // A call that started before the breaker opened, or a probe of an earlier period
+                return;
+            }
+            if (outcome != SUCCESS) {
+                open();
+            } else if (++probesSucceeded >= halfOpenProbes) {
+                close();
+            }
+            return;
+        }
+        if (state == State.OPEN || permit != NOT_A_PROBE) {
+            // A call that started before the breaker opened, or a probe finishing after it closed
+            return;
+        }
+
+        if (recorded == window.length) {
+            forget(window[next]);
+        } else {
+            recorded++;
+        }
+        window[next] = outcome;
+        next = (next + 1) % window.length;
+        if (outcome == FAILURE) {
+            failures++;
+        } else if (outcome == SLOW) {
+            slowCalls++;
+        }
+
+        if (recorded >= minimumCalls
+                && ((double) failures / recorded >= failureRateThreshold
+                || (double) slowCalls / recorded >= slowCallRateThreshold)) {
+            open();
+        }
+    }
+
+    private synchronized void onIgnored(long permit) {
+        if (isCurrentProbe(permit)) {
+            probesStarted--;
+        }
+    }
+
+    private void forget(byte outcome) {
+        if (outcome == FAILURE) {
+            failures--;
+        } else if (outcome == SLOW) {
+            slowCalls--;
+        }
+    }
+
+    private void open() {
+        state = State.OPEN;
+        openedAtNanos = System.nanoTime();
+    }
+
+    private void close() {
+        state = State.CLOSED;
+        recorded = 0;
+        next = 0;
+        failures = 0;
+        slowCalls = 0;
+    }
+
+    private static Throwable unwrap(Throwable error) {
+        return error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+    }
+
+    public synchronized State getState() {
+        return currentState();
+    }
+
+    public synchronized double getFailureRate() {
+        return recorded == 0 ? 0 : (double) failures / recorded;
+    }
+
+    public synchronized double getSlowCallRate() {
+        return recorded == 0 ? 0 : (double) slowCalls / recorded;
+    }
+
+    public synchronized long getRejected() {
+        return rejected;
+    }
+}
@@ -0,0 +1,91 @@
+package com.scanmyfood.backend.utils;
+
+/**
+ * Reads the EXIF orientation tag (0x0112) from a JPEG without decoding the image. ImageIO ignores
+ * this tag, so phone photos taken in portrait decode sideways unless it is applied.
+ */
+public final class ExifOrientation {
+
+    private static final int ORIENTATION_TAG = 0x0112;
+
+    private ExifOrientation() {
+    }
+
+    /**
+     * @return the orientation (1-8), or 1 when the data is not a JPEG or carries no orientation
+     */
+    public static int read(byte[] jpeg) {
+        if (jpeg.length < 4 || (jpeg[0] & 0xFF) != 0xFF || (jpeg[1] & 0xFF) != 0xD8) {
+            return 1;
+        }
+
+        int pos = 2;
+        while (pos + 4 <= jpeg.length && (jpeg[pos] & 0xFF) == 0xFF) {
+            int marker = jpeg[pos + 1] & 0xFF;
+            // Start of scan: no metadata segments follow
+            if (marker == 0xDA) {
+                break;
+            }
+            int length = readShort(jpeg, pos + 2, false);
+            if (length < 2) {
+                break;
+            }
+            int segmentStart = pos + 4;
+            if (marker == 0xE1 && isExif(jpeg, segmentStart, length - 2)) {
+                return readOrientation(jpeg, segmentStart + 6, segmentStart + length - 2);
+            }
+            pos += 2 + length;
+        }
+        return 1;
+    }
+
+    private static boolean isExif(byte[] data, int start, int length) {
+        return length >= 14 && start + 6 <= data.length
+                && data[start] == 'E' && data[start + 1] == 'x' && data[start + 2] == 'i' && data[start + 3] == 'f'
+                && data[start + 4] == 0 && data[start + 5] == 0;
+    }
+
+    private static int readOrientation(byte[] data, int tiffStart, int segmentEnd) {
+        int end = Math.min(segmentEnd, data.length);
+        if (tiffStart + 8 > end) {
+            return 1;
+        }
+        boolean littleEndian;
+        if (data[tiffStart] == 'I' && data[tiffStart + 1] == 'I') {
+            littleEndian = true;
+        } else if (data[tiffStart] == 'M' && data[tiffStart + 1] == 'M') {
+            littleEndian = false;
+        } else {
+            return 1;
+        }
+
+        int ifd0 = tiffStart + readInt(data, tiffStart + 4, littleEndian);
+        if (ifd0 + 2 > end || ifd0 < tiffStart) {
+            return 1;
+        }
+        int entries = readShort(data, ifd0, littleEndian);
+        for (int i = 0; i < entries; i++) {
+            int entry = ifd0 + 2 + i * 12;
+            if (entry + 12 > end) {
+                break;
+            }
+            if (readShort(data, entry, littleEndian) == ORIENTATION_TAG) {
+                int orientation = readShort(data, entry + 8, littleEndian);
+                return orientation >= 1 && orientation <= 8 ? orientation : 1;
+            }
+        }
+        return 1;
+    }
+
+    private static int readShort(byte[] data, int pos, boolean littleEndian) {
+        int b0 = data[pos] & 0xFF;
+        int b1 = data[pos + 1] & 0xFF;
+        return littleEndian ? (b1 << 8) | b0 : (b0 << 8) | b1;
+    }
+
+    private static int readInt(byte[] data, int pos, boolean littleEndian) {
+        int high = readShort(data, littleEndian ? pos + 2 : pos, littleEndian);
+        int low = readShort(data, littleEndian ? pos : pos + 2, littleEndian);
+        return (high << 16) | low;
+    }
+}
@@ -0,0 +1,105 @@
+package com.scanmyfood.backend.utils;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.LongPredicate;
+
+/**
+ * Multi-index hashing over 64-bit hashes. The hash is split into {@code maxDistance + 1} disjoint
+ * bit blocks; by the pigeonhole principle any two hashes within {@code maxDistance} bits agree
+ * exactly on at least one block, so a lookup only has to compare against hashes sharing a block.
+ */
+public class HammingIndex {
+
+    private final int maxDistance;
+    private final int[] shifts;
+    private final long[] masks;
+    private final List<Map<Long, Set<Long>>> blocks;
+
+    public HammingIndex(int maxDistance) {
+        if (maxDistance < 0 || maxDistance > 63) {
+            throw new IllegalArgumentException("maxDistance must be between 0 and 63: " + maxDistance);
+        }
+        this.maxDistance = maxDistance;
+
+        int blockCount = maxDistance + 1;
+        this.shifts = new int[blockCount];
+        this.masks = new long[blockCount];
+        this.blocks = new ArrayList<>(blockCount);
+
+        int offset = 0;
+        for (int i = 0; i < blockCount; i++) {
+            int bits = 64 / blockCount + (i < 64 % blockCount ? 1 : 0);
+            shifts[i] = offset;
+            masks[i] = bits == 64 ? -1L : (1L << bits) - 1;
+            blocks.add(new HashMap<>());
+            offset += bits;
+        }
+    }
+
+    public synchronized void add(long hash) {
+        for (int i = 0; i < blocks.size(); i++) {
+            blocks.get(i).computeIfAbsent(block(hash, i), k -> new HashSet<>()).add(hash);
+        }
+    }
+
+    public synchronized void remove(long hash) {
+        for (int i = 0; i < blocks.size(); i++) {
+            Long key = block(hash, i);
+            Set<Long> bucket = blocks.get(i).get(key);
+            if (bucket != null) {
+                bucket.remove(hash);
+                if (bucket.isEmpty()) {
+                    blocks.get(i).remove(key);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the indexed hash closest to {@code hash} within {@code maxDistance} bits, or
+     * {@code null} if there is none.
+     */
+    public Long findNearest(long hash) {
+        return findNearest(hash, candidate -> true);
+    }
+
+    /**
+     * Like {@link #findNearest(long)}, but skips hashes {@code isLive} rejects, such as ones whose
+     * cache entry has expired but not yet been evicted. {@code isLive} is only asked about hashes
+     * closer than the best one found so far, while the index is locked.
+     */
+    public synchronized Long findNearest(long hash, LongPredicate isLive) {
+        Long best = null;
+        int bestDistance = maxDistance + 1;
+        for (int i = 0; i < blocks.size(); i++) {
+            Set<Long> bucket = blocks.get(i).get(block(hash, i));
+            if (bucket == null) {
+                continue;
+            }
+            for (Long candidate : bucket) {
+                int distance = Long.bitCount(candidate ^ hash);
+                if (distance < bestDistance && isLive.test(candidate)) {
+                    best = candidate;
+                    bestDistance = distance;
+                    if (distance == 0) {
+                        return best;
+                    }
+                }
+            }
+        }
+        return best;
+    }
+
+    public int getMaxDistance() {
+        return maxDistance;
+    }
+
+    private long block(long hash, int index) {
+        return (hash >>> shifts[index]) & masks[index];
+    }
+}
@@ -0,0 +1,76 @@
+package com.scanmyfood.backend.utils;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+
+public final class ImageHashUtils {
+
+    private static final int HASH_WIDTH = 9;
+    private static final int HASH_HEIGHT = 8;
+    // Samples taken per axis inside each grid cell when averaging luminance
+    private static final int SAMPLES_PER_CELL = 16;
+
+    private ImageHashUtils() {
+    }
+
+    /**
+     * Computes a 64-bit difference hash (dHash) of an encoded image. The image is reduced to a 9x8
+     * grid of average luminance and each bit records whether a cell is brighter than its left
+     * neighbour, so small crops, re-encodes and exposure changes flip only a few bits.
+     *
+     * @return the hash, or {@code null} if the bytes cannot be decoded by ImageIO
+     */
+    public static Long differenceHash(byte[] imageBytes) {
+        BufferedImage image;
+        try {
+            // The hash only samples a small grid, so there is no need to allocate every source pixel
+            image = ByteArrayImageInputStream.decode(imageBytes, HASH_WIDTH * SAMPLES_PER_CELL * 2);
+        } catch (IOException e) {
+            return null;
+        }
+        if (image == null) {
+            return null;
+        }
+
+        double[][] luminance = averageLuminance(image);
+        long hash = 0L;
+        for (int y = 0; y < HASH_HEIGHT; y++) {
+            for (int x = 0; x < HASH_WIDTH - 1; x++) {
+                hash <<= 1;
+                if (luminance[y][x] < luminance[y][x + 1]) {
+                    hash |= 1L;
+                }
+            }
+        }
+        return hash;
+    }
+
+    private static double[][] averageLuminance(BufferedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        double[][] grid = new double[HASH_HEIGHT][HASH_WIDTH];
+
+        for (int cy = 0; cy < HASH_HEIGHT; cy++) {
+            int top = cy * height / HASH_HEIGHT;
+            int bottom = Math.max(top + 1, (cy + 1) * height / HASH_HEIGHT);
+            for (int cx = 0; cx < HASH_WIDTH; cx++) {
+                int left = cx * width / HASH_WIDTH;
+                int right = Math.max(left + 1, (cx + 1) * width / HASH_WIDTH);
+
+                double sum = 0;
+                int count = 0;
+                for (int sy = 0; sy < SAMPLES_PER_CELL; sy++) {
+                    int y = Math.min(height - 1, top + sy * (bottom - top) / SAMPLES_PER_CELL);
+                    for (int sx = 0; sx < SAMPLES_PER_CELL; sx++) {
+                        int x = Math.min(width - 1, left + sx * (right - left) / SAMPLES_PER_CELL);
+                        int rgb = image.getRGB(x, y);
+                        sum += 0.299 * ((rgb >> 16) & 0xFF) + 0.587 * ((rgb >> 8) & 0xFF) + 0.114 * (rgb & 0xFF);
+                        count++;
+                    }
+                }
+                grid[cy][cx] = sum / count;
+            }
+        }
+        return grid;
+    }
+}
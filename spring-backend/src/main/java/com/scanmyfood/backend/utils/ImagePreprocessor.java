@@ -0,0 +1,200 @@
+package com.scanmyfood.backend.utils;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.function.Function;
+
+/**
+ * Prepares photos for upload to the model: decodes the image, applies its EXIF orientation,
+ * downsizes it so the longer edge is at most {@code maxEdge} pixels and re-encodes it as a baseline
+ * JPEG. Re-encoding writes no EXIF, XMP or ICC segments, so location and device metadata are
+ * dropped as well.
+ *
+ * <p>Images ImageIO cannot decode are returned unchanged.
+ */
+public class ImagePreprocessor {
+
+    public static final String JPEG = "image/jpeg";
+
+    public record PreparedImage(byte[] data, String mimeType, int originalSize) {
+
+        public int bytesSaved() {
+            return originalSize - data.length;
+        }
+    }
+
+    private final int maxEdge;
+    private final float jpegQuality;
+
+    public ImagePreprocessor(int maxEdge, float jpegQuality) {
+        this.maxEdge = maxEdge;
+        this.jpegQuality = jpegQuality;
+    }
+
+    /**
+     * Decodes only as many pixels as the output needs: a photo at least twice {@code maxEdge} is
+     * point-sampled while decoding (every other pixel of every other row for a 12 MP photo), which
+     * cuts the decoded image to a quarter of the memory. Use the cropping overload where fine print
+     * has to survive.
+     */
+    public PreparedImage prepare(byte[] original, String mimeType) throws IOException {
+        BufferedImage image = ByteArrayImageInputStream.decode(original, maxEdge);
+        if (image == null) {
+            return new PreparedImage(original, mimeType, original.length);
+        }
+        return prepare(image, ExifOrientation.read(original), original.length);
+    }
+
+    /**
+     * Like {@link #prepare(byte[], String)}, but lets {@code crop} choose a region of the upright,
+     * full-resolution image before it is downsized, so the region keeps as much detail as possible.
+     * {@code crop} returns null to keep the whole image.
+     */
+    public PreparedImage prepare(byte[] original, String mimeType, Function<BufferedImage, Rectangle> crop)
+            throws IOException {
+        BufferedImage image = ByteArrayImageInputStream.decode(original);
+        if (image == null) {
+            return new PreparedImage(original, mimeType, original.length);
+        }
+        BufferedImage upright = orient(image, ExifOrientation.read(original));
+        Rectangle region = crop.apply(upright);
+        if (region != null) {
+            upright = upright.getSubimage(region.x, region.y, region.width, region.height);
+        }
+        return prepare(upright, 1, original.length);
+    }
+
+    /**
+     * Prepares an already decoded image, e.g. one that has been cropped
+     */
+    public PreparedImage prepare(BufferedImage image, int orientation, int originalSize) throws IOException {
+        BufferedImage scaled = downscale(image);
+        BufferedImage oriented = orient(scaled, orientation);
+        return new PreparedImage(encodeJpeg(oriented), JPEG, originalSize);
+    }
+
+    /**
+     * Halves the image repeatedly before the final resize; a single bilinear step from 12 MP to
+     * ~2 MP skips most source pixels and aliases fine texture
+     */
+    private BufferedImage downscale(BufferedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        double scale = Math.min(1.0, (double) maxEdge / Math.max(width, height));
+        int targetWidth = Math.max(1, (int) Math.round(width * scale));
+        int targetHeight = Math.max(1, (int) Math.round(height * scale));
+
+        // Each resize draws into a new RGB image, so only an image that is not resized at all needs
+        // a separate full-size RGB copy
+        BufferedImage current = image;
+        while (width / 2 >= targetWidth && height / 2 >= targetHeight) {
+            width /= 2;
+            height /= 2;
+            current = resize(current, width, height);
+        }
+        if (width != targetWidth || height != targetHeight) {
+            current = resize(current, targetWidth, targetHeight);
+        }
+        return toRgb(current);
+    }
+
+    private static BufferedImage resize(BufferedImage image, int width, int height) {
+        BufferedImage resized = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = resized.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            if (image.getColorModel().hasAlpha()) {
+                g.setColor(Color.WHITE);
+                g.fillRect(0, 0, width, height);
+            }
+            g.drawImage(image, 0, 0, width, height, null);
+        } finally {
+            g.dispose();
+        }
+        return resized;
+    }
+
+    /**
+     * JPEG has no alpha channel; transparent areas (PNG screenshots) are flattened onto white
+     */
+    private static BufferedImage toRgb(BufferedImage image) {
+        if (image.getType() == BufferedImage.TYPE_INT_RGB) {
+            return image;
+        }
+        BufferedImage rgb = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = rgb.createGraphics();
+        try {
+            g.setColor(Color.WHITE);
+            g.fillRect(0, 0, image.getWidth(), image.getHeight());
+            g.drawImage(image, 0, 0, null);
+        } finally {
+            g.dispose();
+        }
+        return rgb;
+    }
+
+    /**
+     * Applies an EXIF orientation (1-8) so the pixels are stored upright
+     */
+    static BufferedImage orient(BufferedImage image, int orientation) {
+        if (orientation <= 1 || orientation > 8) {
+            return image;
+        }
+        int width = image.getWidth();
+        int height = image.getHeight();
+        boolean swapsAxes = orientation >= 5;
+
+        AffineTransform transform = new AffineTransform();
+        switch (orientation) {
+            case 2 -> transform.setTransform(-1, 0, 0, 1, width, 0);
+            case 3 -> transform.setTransform(-1, 0, 0, -1, width, height);
+            case 4 -> transform.setTransform(1, 0, 0, -1, 0, height);
+            case 5 -> transform.setTransform(0, 1, 1, 0, 0, 0);
+            case 6 -> transform.setTransform(0, 1, -1, 0, height, 0);
+            case 7 -> transform.setTransform(0, -1, -1, 0, height, width);
+            case 8 -> transform.setTransform(0, -1, 1, 0, 0, width);
+            default -> {
+            }
+        }
+
+        BufferedImage oriented = new BufferedImage(swapsAxes ? height : width, swapsAxes ? width : height,
+                BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = oriented.createGraphics();
+        try {
+            g.drawImage(image, transform, null);
+        } finally {
+            g.dispose();
+        }
+        return oriented;
+    }
+
+    private byte[] encodeJpeg(BufferedImage image) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        // Sized for ~2 bits per pixel so the buffer rarely has to grow and copy itself
+        ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(8192, image.getWidth() * image.getHeight() / 4));
+        // ImageIO.createImageOutputStream would stage the output in a temp file
+        try (ImageOutputStream output = new MemoryCacheImageOutputStream(out)) {
+            writer.setOutput(output);
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(jpegQuality);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        return out.toByteArray();
+    }
+}
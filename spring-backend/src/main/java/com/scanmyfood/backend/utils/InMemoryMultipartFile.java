@@ -0,0 +1,95 @@
+package com.scanmyfood.backend.utils;
+
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * An uploaded part read into memory exactly once. The container's {@code MultipartFile.getBytes()}
+ * reads the part again on every call through a growing buffer, so the cache key, the perceptual
+ * hash and the model request each paid for their own copies. Here the content is read into one
+ * array of the part's declared size and {@link #getBytes()} returns that array, which callers
+ * must not modify.
+ */
+public final class InMemoryMultipartFile implements MultipartFile {
+
+    private final String name;
+    private final String originalFilename;
+    private final String contentType;
+    private final byte[] content;
+
+    private InMemoryMultipartFile(MultipartFile file, byte[] content) {
+        this.name = file.getName();
+        this.originalFilename = file.getOriginalFilename();
+        this.contentType = file.getContentType();
+        this.content = content;
+    }
+
+    public static InMemoryMultipartFile of(MultipartFile file) throws IOException {
+        if (file instanceof InMemoryMultipartFile inMemory) {
+            return inMemory;
+        }
+        long size = file.getSize();
+        if (size > Integer.MAX_VALUE - 8) {
+            throw new IOException("Upload " + file.getName() + " is too large to buffer: " + size + " bytes");
+        }
+        byte[] content = new byte[(int) size];
+        try (InputStream in = file.getInputStream()) {
+            if (in.readNBytes(content, 0, content.length) != content.length) {
+                throw new EOFException("Upload " + file.getName() + " is shorter than its declared " + size + " bytes");
+            }
+        }
+        return new InMemoryMultipartFile(file, content);
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public String getOriginalFilename() {
+        return originalFilename;
+    }
+
+    @Override
+    public String getContentType() {
+        return contentType;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return content.length == 0;
+    }
+
+    @Override
+    public long getSize() {
+        return content.length;
+    }
+
+    @Override
+    public byte[] getBytes() {
+        return content;
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return new ByteArrayInputStream(content);
+    }
+
+    @Override
+    public void transferTo(File dest) throws IOException {
+        Files.write(dest.toPath(), content);
+    }
+
+    @Override
+    public void transferTo(Path dest) throws IOException {
+        Files.write(dest, content);
+    }
+}
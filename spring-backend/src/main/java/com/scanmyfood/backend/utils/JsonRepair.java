@@ -0,0 +1,182 @@
+package com.scanmyfood.backend.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Repairs the two ways model output commonly fails to parse as JSON, in one pass over the text:
+ * <ul>
+ *   <li>Trailing commas before a closing brace or bracket are dropped.</li>
+ *   <li>Output cut off by the token limit is closed. Everything after the last complete element of
+ *   the outermost unfinished array is dropped, so a half-written item is discarded rather than
+ *   returned with fields missing. With no array open, the unfinished object keeps its complete
+ *   members.</li>
+ * </ul>
+ * Text before the first '{' (such as a markdown code fence) and anything after the root object are
+ * ignored. Well-formed input is returned as the same string, without a copy. Anything else that is
+ * wrong, such as a missing colon, is left for the JSON parser to reject.
+ */
+public final class JsonRepair {
+
+    private JsonRepair() {
+    }
+
+    /**
+     * @param json      the JSON object, repaired if needed
+     * @param repaired  whether the text was changed: text around the object or trailing commas
+     *                  dropped, or the text cut off and closed
+     * @param truncated whether the text was cut off; trailing elements may be missing
+     */
+    public record Result(String json, boolean repaired, boolean truncated) {
+    }
+
+    public static Result repair(String text) {
+        int start = text.indexOf('{');
+        if (start < 0) {
+            return new Result(text, false, false);
+        }
+
+        int capacity = 16;
+        char[] openers = new char[capacity];
+        // Offset just after the last complete member or element of each open structure, or just
+        // after its opening bracket
+        int[] completeEnd = new int[capacity];
+        int depth = 0;
+        List<Integer> trailingCommas = new ArrayList<>();
+
+        boolean inString = false;
+        boolean escaped = false;
+        boolean stringIsKey = false;
+        boolean expectKey = false;
+        int scalarStart = -1;
+        int lastSignificant = -1;
+        int end = -1;
+
+        for (int i = start; i < text.length() && end < 0; i++) {
+            char c = text.charAt(i);
+            if (inString) {
+                if (escaped) {
+                    escaped = false;
+                } else if (c == '\\') {
+                    escaped = true;
+                } else if (c == '"') {
+                    inString = false;
+                    lastSignificant = i;
+                    if (!stringIsKey) {
+                        completeEnd[depth - 1] = i + 1;
+                    }
+                }
+                continue;
+            }
+            if (scalarStart >= 0 && !isScalarChar(c)) {
+                scalarStart = -1;
+                completeEnd[depth - 1] = i;
+            }
+            switch (c) {
+                case '{', '[' -> {
+                    if (depth == capacity) {
+                        capacity *= 2;
+                        openers = Arrays.copyOf(openers, capacity);
+                        completeEnd = Arrays.copyOf(completeEnd, capacity);
+                    }
+                    openers[depth] = c;
+                    completeEnd[depth] = i + 1;
+                    depth++;
+                    expectKey = c == '{';
+                    lastSignificant = i;
+                }
+                case '}', ']' -> {
+                    if (lastSignificant >= 0 && text.charAt(lastSignificant) == ',') {
+                        trailingCommas.add(lastSignificant);
+                    }
+                    depth--;
+                    lastSignificant = i;
+                    if (depth == 0) {
+                        end = i + 1;
+                    } else {
+                        completeEnd[depth - 1] = i + 1;
+                        expectKey = false;
+                    }
+                }
+                case '"' -> {
+                    inString = true;
+                    stringIsKey = expectKey && openers[depth - 1] == '{';
+                    expectKey = false;
+                    lastSignificant = i;
+                }
+                case ',' -> {
+                    expectKey = openers[depth - 1] == '{';
+                    lastSignificant = i;
+                }
+                case ':' -> {
+                    expectKey = false;
+                    lastSignificant = i;
+                }
+                default -> {
+                    if (!isWhitespace(c)) {
+                        if (scalarStart < 0) {
+                            scalarStart = i;
+                        }
+                        lastSignificant = i;
+                    }
+                }
+            }
+        }
+
+        int cut = end;
+        int closeFrom = 0;
+        if (end < 0) {
+            // Cut off: keep the complete elements of the outermost open array, or failing that the
+            // complete members of the innermost open object. A number at the very end may itself
+            // be cut short, so it is not counted as complete.
+            closeFrom = depth - 1;
+            for (int level = 0; level < depth; level++) {
+                if (openers[level] == '[') {
+                    closeFrom = level;
+                    break;
+                }
+            }
+            cut = completeEnd[closeFrom];
+        }
+
+        if (end >= 0 && trailingCommas.isEmpty()) {
+            boolean whole = start == 0 && isBlankFrom(text, end);
+            return whole ? new Result(text, false, false) : new Result(text.substring(start, end), true, false);
+        }
+
+        StringBuilder repaired = new StringBuilder(cut - start + closeFrom + 1);
+        int copied = start;
+        for (int comma : trailingCommas) {
+            if (comma >= cut) {
+                break;
+            }
+            repaired.append(text, copied, comma);
+            copied = comma + 1;
+        }
+        repaired.append(text, copied, cut);
+        if (end < 0) {
+            for (int level = closeFrom; level >= 0; level--) {
+                repaired.append(openers[level] == '{' ? '}' : ']');
+            }
+        }
+        return new Result(repaired.toString(), true, end < 0);
+    }
+
+    private static boolean isBlankFrom(String text, int from) {
+        for (int i = from; i < text.length(); i++) {
+            if (!isWhitespace(text.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\n' || c == '\r' || c == '\t';
+    }
+
+    private static boolean isScalarChar(char c) {
+        return (c >= '0' && c <= '9') || (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '-' || c == '+' || c == '.';
+    }
+}
@@ -0,0 +1,237 @@
+package com.scanmyfood.backend.utils;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Routes asynchronous calls across equivalent regional clients, preferring the region with the
+ * lowest exponentially weighted moving average latency. A small share of calls goes to a random
+ * other region so a region that was slow once gets a chance to prove it has recovered.
+ *
+ * <p>With hedging enabled, a call still running after its region's recent p95 latency (but at least
+ * {@code minHedgeDelay}) is sent again to the next best region. The first success wins and the
+ * other attempt is cancelled; the call only fails once every attempt has failed.
+ */
+public class LatencyAwareRouter<T> {
+
+    private static final double EWMA_ALPHA = 0.2;
+    private static final int LATENCY_WINDOW = 128;
+    private static final int MIN_SAMPLES_FOR_P95 = 20;
+
+    private final List<Region<T>> regions = new ArrayList<>();
+    private final double exploreRate;
+    private final boolean hedging;
+    private final Duration minHedgeDelay;
+    private final LongAdder hedges = new LongAdder();
+    private final LongAdder hedgeWins = new LongAdder();
+
+    public LatencyAwareRouter(Map<String, T> clients, double exploreRate, boolean hedging, Duration minHedgeDelay) {
+        if (clients.isEmpty()) {
+            throw new IllegalArgumentException("At least one region is required");
+        }
+        clients.forEach((name, client) -> regions.add(new Region<>(name, client)));
+        this.exploreRate = exploreRate;
+        this.hedging = hedging && regions.size() > 1;
+        this.minHedgeDelay = minHedgeDelay;
+    }
+
+    /**
+     * Client of the currently preferred region, for calls that cannot go through {@link #execute}
+     */
+    public T preferred() {
+        return choose().client;
+    }
+
+    public <R> CompletableFuture<R> execute(Function<T, CompletableFuture<R>> call) {
+        Region<T> primary = choose();
+        CompletableFuture<R> first = attempt(primary, call);
+        if (!hedging) {
+            return first;
+        }
+
+        CompletableFuture<R> result = new CompletableFuture<>();
+        AtomicInteger outstanding = new AtomicInteger(1);
+        AtomicReference<CompletableFuture<R>> second = new AtomicReference<>();
+
+        first.whenComplete((value, error) -> settle(result, outstanding, value, error, second.get()));
+        result.whenComplete((value, error) -> {
+            if (result.isCancelled()) {
+                first.cancel(true);
+                CompletableFuture<R> hedge = second.get();
+                if (hedge != null) {
+                    hedge.cancel(true);
+                }
+            }
+        });
+
+        CompletableFuture.delayedExecutor(primary.hedgeDelay(minHedgeDelay).toNanos(), TimeUnit.NANOSECONDS).execute(() -> {
+            // Do not hedge once the call is settled or the primary attempt has already failed
+            if (result.isDone() || outstanding.updateAndGet(n -> n == 0 ? 0 : n + 1) < 2) {
+                return;
+            }
+            hedges.increment();
+            CompletableFuture<R> hedge = attempt(nextBest(primary), call);
+            second.set(hedge);
+            // The primary may have won, or the call been cancelled, before the hedge was visible
+            if (result.isDone()) {
+                hedge.cancel(true);
+            }
+            hedge.whenComplete((value, error) -> {
+                if (settle(result, outstanding, value, error, first)) {
+                    hedgeWins.increment();
+                }
+            });
+        });
+        return result;
+    }
+
+    /**
+     * Completes {@code result} with the first success and cancels the other attempt.
+     *
+     * @return true if this attempt's value became the result
+     */
+    private static <R> boolean settle(CompletableFuture<R> result, AtomicInteger outstanding, R value, Throwable error,
+                                      CompletableFuture<R> other) {
+        if (error == null) {
+            if (result.complete(value)) {
+                if (other != null) {
+                    other.cancel(true);
+                }
+                return true;
+            }
+        } else if (outstanding.decrementAndGet() == 0) {
+            result.completeExceptionally(error);
+        }
+        return false;
+    }
+
+    private <R> CompletableFuture<R> attempt(Region<T> region, Function<T, CompletableFuture<R>> call) {
+        long startNanos = System.nanoTime();
+        region.calls.increment();
+        CompletableFuture<R> future;
+        try {
+            future = call.apply(region.client);
+        } catch (RuntimeException e) {
+            future = CompletableFuture.failedFuture(e);
+        }
+        future.whenComplete((value, error) -> {
+            long elapsedNanos = System.nanoTime() - startNanos;
+            if (error == null) {
+                region.record(elapsedNanos);
+            } else if (unwrap(error) instanceof CancellationException) {
+                region.recordLowerBound(elapsedNanos);
+            } else {
+                region.penalize(elapsedNanos);
+            }
+        });
+        return future;
+    }
+
+    private Region<T> choose() {
+        if (regions.size() > 1 && ThreadLocalRandom.current().nextDouble() < exploreRate) {
+            return regions.get(ThreadLocalRandom.current().nextInt(regions.size()));
+        }
+        return nextBest(null);
+    }
+
+    private Region<T> nextBest(Region<T> excluded) {
+        Region<T> best = null;
+        for (Region<T> region : regions) {
+            if (region != excluded && (best == null || region.ewmaNanos() < best.ewmaNanos())) {
+                best = region;
+            }
+        }
+        return best;
+    }
+
+    private static Throwable unwrap(Throwable error) {
+        return error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+    }
+
+    public List<Region<T>> getRegions() {
+        return List.copyOf(regions);
+    }
+
+    public long getHedges() {
+        return hedges.sum();
+    }
+
+    public long getHedgeWins() {
+        return hedgeWins.sum();
+    }
+
+    public static final class Region<T> {
+        private final String name;
+        private final T client;
+        private final LongAdder calls = new LongAdder();
+        private final long[] window = new long[LATENCY_WINDOW];
+        private long samples;
+        // Unmeasured regions sort first so each one gets tried
+        private double ewmaNanos = 0;
+
+        private Region(String name, T client) {
+            this.name = name;
+            this.client = client;
+        }
+
+        private synchronized void record(long elapsedNanos) {
+            window[(int) (samples++ % LATENCY_WINDOW)] = elapsedNanos;
+            ewmaNanos = samples == 1 ? elapsedNanos : ewmaNanos + EWMA_ALPHA * (elapsedNanos - ewmaNanos);
+        }
+
+        /**
+         * A cancelled hedging loser took at least this long; without this a region that always
+         * loses would never be measured and keep looking fastest
+         */
+        private synchronized void recordLowerBound(long elapsedNanos) {
+            if (samples == 0 || elapsedNanos > ewmaNanos) {
+                record(elapsedNanos);
+            }
+        }
+
+        /**
+         * Failures count as a slow sample so routing moves away from an erroring region
+         */
+        private synchronized void penalize(long elapsedNanos) {
+            ewmaNanos = ewmaNanos + EWMA_ALPHA * (Math.max(2 * ewmaNanos, elapsedNanos) - ewmaNanos);
+        }
+
+        private synchronized double ewmaNanos() {
+            return ewmaNanos;
+        }
+
+        private synchronized Duration hedgeDelay(Duration minimum) {
+            if (samples < MIN_SAMPLES_FOR_P95) {
+                return minimum;
+            }
+            long[] sorted = Arrays.copyOf(window, (int) Math.min(samples, LATENCY_WINDOW));
+            Arrays.sort(sorted);
+            long p95 = sorted[(int) Math.ceil(sorted.length * 0.95) - 1];
+            return p95 > minimum.toNanos() ? Duration.ofNanos(p95) : minimum;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getCalls() {
+            return calls.sum();
+        }
+
+        public double getLatencyEwmaMillis() {
+            return ewmaNanos() / 1_000_000d;
+        }
+    }
+}
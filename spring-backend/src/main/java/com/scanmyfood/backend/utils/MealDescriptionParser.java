@@ -0,0 +1,262 @@
+package com.scanmyfood.backend.utils;
+
+import java.math.BigDecimal;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Turns free-text meal descriptions such as "1 toast and 2 Eggs" into a list of
+ * (food, preparation, quantity, unit) items, and into a canonical string that is identical for
+ * descriptions of the same meal regardless of case, ordering, separators or unit spelling.
+ * Letters of any script are kept, and "and" does not split known dishes such as "mac and cheese".
+ */
+public final class MealDescriptionParser {
+
+    private static final Pattern ITEM_SEPARATOR =
+            Pattern.compile("\\s*(?:[,;+&\\n]|\\band\\b|\\bwith\\b)\\s*", Pattern.UNICODE_CHARACTER_CLASS);
+    private static final Pattern NUMBER = Pattern.compile("\\d+(?:\\.\\d+)?");
+    private static final Pattern FRACTION = Pattern.compile("(\\d+)/(\\d+)");
+    private static final Pattern NUMBER_WITH_UNIT = Pattern.compile("(\\d+(?:\\.\\d+)?)([a-z]+)");
+    // Joins the words of a known dish so the separators inside it do not split it. It is a word
+    // character, so the "and" separator finds no word boundary inside the joined dish
+    private static final char DISH_JOINER = '_';
+
+    private static final List<String> DISHES = List.of(
+            "bangers and mash", "biscuits and gravy", "bread and butter", "chicken and waffles",
+            "chips and salsa", "cookies and cream", "fish and chips", "ham and cheese", "liver and onions",
+            "mac and cheese", "macaroni and cheese", "peanut butter and jelly", "pork and beans",
+            "rice and beans", "salt and pepper", "spaghetti and meatballs", "strawberries and cream",
+            "surf and turf", "sweet and sour");
+    private static final List<Pattern> DISH_PATTERNS = DISHES.stream()
+            .map(dish -> Pattern.compile("\\b" + Pattern.quote(dish) + "\\b", Pattern.UNICODE_CHARACTER_CLASS))
+            .toList();
+
+    private static final Map<String, Double> NUMBER_WORDS = Map.ofEntries(
+            Map.entry("a", 1.0), Map.entry("an", 1.0), Map.entry("one", 1.0),
+            Map.entry("two", 2.0), Map.entry("three", 3.0), Map.entry("four", 4.0),
+            Map.entry("five", 5.0), Map.entry("six", 6.0), Map.entry("seven", 7.0),
+            Map.entry("eight", 8.0), Map.entry("nine", 9.0), Map.entry("ten", 10.0),
+            Map.entry("half", 0.5), Map.entry("dozen", 12.0));
+
+    private static final Map<String, String> UNITS = buildUnits();
+
+    // Units that convert directly to the gram or millilitre base that nutrients per 100 are given in
+    private static final Map<String, Double> GRAM_FACTORS =
+            Map.of("g", 1.0, "kg", 1000.0, "mg", 0.001, "oz", 28.35, "lb", 453.59);
+    private static final Map<String, Double> MILLILITRE_FACTORS = Map.of("ml", 1.0, "l", 1000.0);
+
+    private static final List<String> FILLER_WORDS = List.of("a", "an", "the", "some", "of");
+
+    private static final List<String> PREPARATION_WORDS = List.of(
+            "baked", "barbecued", "boiled", "braised", "deep", "fried", "grilled", "mashed", "pan",
+            "poached", "raw", "roasted", "sauteed", "scrambled", "smoked", "steamed", "stewed", "stir",
+            "toasted");
+
+    private MealDescriptionParser() {
+    }
+
+    /**
+     * A single food mentioned in a description. {@code preparation}, {@code quantity} and
+     * {@code unit} are null when the description does not state them.
+     */
+    public record Item(String food, String preparation, Double quantity, String unit) {
+
+        public String canonical() {
+            StringBuilder sb = new StringBuilder();
+            if (quantity != null) {
+                sb.append(BigDecimal.valueOf(quantity).stripTrailingZeros().toPlainString()).append(' ');
+            }
+            if (unit != null) {
+                sb.append(unit).append(' ');
+            }
+            if (preparation != null) {
+                sb.append(preparation).append(' ');
+            }
+            return sb.append(food).toString();
+        }
+    }
+
+    public static List<Item> parse(String description) {
+        if (description == null) {
+            return List.of();
+        }
+        // NFKC folds full-width digits and compatibility forms; the fraction slash in "½" becomes "/"
+        String normalized = Normalizer.normalize(description, Normalizer.Form.NFKC)
+                .replace('\u2044', '/')
+                .toLowerCase(Locale.ROOT)
+                .replaceAll("[^\\p{L}\\p{M}\\p{N}./,;+&%\\n ]", " ")
+                .replaceAll("[ \\t]+", " ");
+        for (int i = 0; i < DISHES.size(); i++) {
+            normalized = DISH_PATTERNS.get(i).matcher(normalized)
+                    .replaceAll(DISHES.get(i).replace(' ', DISH_JOINER));
+        }
+
+        // Merge repeated mentions of the same food and unit, e.g. "1 egg and 1 egg"
+        Map<String, Item> merged = new LinkedHashMap<>();
+        for (String part : ITEM_SEPARATOR.split(normalized)) {
+            Item item = parseItem(part.trim());
+            if (item == null) {
+                continue;
+            }
+            String mergeKey = item.food() + "|" + item.preparation() + "|" + item.unit();
+            merged.merge(mergeKey, item, (existing, added) ->
+                    existing.quantity() != null && added.quantity() != null
+                            ? new Item(existing.food(), existing.preparation(),
+                                    existing.quantity() + added.quantity(), existing.unit())
+                            : existing);
+        }
+
+        return merged.values().stream()
+                .sorted(Comparator.comparing(Item::food)
+                        .thenComparing(item -> Objects.toString(item.preparation(), ""))
+                        .thenComparing(item -> Objects.toString(item.unit(), "")))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Factor converting a parsed {@code unit} to {@code baseUnit} ("g" or "ml"), or null if there is
+     * no direct conversion, as for cups or slices
+     */
+    public static Double baseUnitFactor(String unit, String baseUnit) {
+        if (unit == null) {
+            return null;
+        }
+        return ("g".equals(baseUnit) ? GRAM_FACTORS : MILLILITRE_FACTORS).get(unit);
+    }
+
+    public static String canonicalize(String description) {
+        return parse(description).stream()
+                .map(Item::canonical)
+                .collect(Collectors.joining("; "));
+    }
+
+    private static Item parseItem(String text) {
+        if (text.isEmpty()) {
+            return null;
+        }
+        List<String> tokens = new ArrayList<>(Arrays.asList(text.split(" ")));
+        // "2 eggs." or "2 oz. cheese": a trailing period ends the word, not the number in "1.5"
+        tokens.replaceAll(token -> token.replaceAll("\\.+$", ""));
+        // Split tokens like "200g" into "200" "g"
+        for (int i = 0; i < tokens.size(); i++) {
+            Matcher m = NUMBER_WITH_UNIT.matcher(tokens.get(i));
+            if (m.matches() && UNITS.containsKey(m.group(2))) {
+                tokens.set(i, m.group(1));
+                tokens.add(i + 1, m.group(2));
+            }
+        }
+
+        int pos = 0;
+        Double quantity = null;
+        while (pos < tokens.size()) {
+            Double value = parseNumber(tokens.get(pos));
+            if (value == null) {
+                break;
+            }
+            String token = tokens.get(pos);
+            if (quantity == null) {
+                quantity = value;
+            } else if (token.equals("dozen")) {
+                // "a dozen", "2 dozen"
+                quantity *= value;
+            } else if (!tokens.get(pos - 1).equals("half")) {
+                // "1 1/2"; the article in "half a cup" adds nothing
+                quantity += value;
+            }
+            pos++;
+        }
+
+        String unit = null;
+        if (pos < tokens.size() && UNITS.containsKey(tokens.get(pos))) {
+            unit = UNITS.get(tokens.get(pos));
+            pos++;
+        }
+
+        List<String> words = new ArrayList<>();
+        List<String> preparation = new ArrayList<>();
+        for (; pos < tokens.size(); pos++) {
+            String token = tokens.get(pos);
+            if (token.isEmpty() || FILLER_WORDS.contains(token)) {
+                continue;
+            }
+            if (PREPARATION_WORDS.contains(token)) {
+                preparation.add(token);
+            } else {
+                words.add(token);
+            }
+        }
+        if (words.isEmpty()) {
+            return null;
+        }
+        String last = words.get(words.size() - 1);
+        // Dish names are kept as written: "fish and chips" is not one chip
+        words.set(words.size() - 1, last.indexOf(DISH_JOINER) >= 0 ? last : singularize(last));
+        return new Item(String.join(" ", words).replace(DISH_JOINER, ' '),
+                preparation.isEmpty() ? null : String.join(" ", preparation), quantity, unit);
+    }
+
+    private static Double parseNumber(String token) {
+        if (NUMBER.matcher(token).matches()) {
+            return Double.parseDouble(token);
+        }
+        Matcher fraction = FRACTION.matcher(token);
+        if (fraction.matches()) {
+            double denominator = Double.parseDouble(fraction.group(2));
+            return denominator == 0 ? null : Double.parseDouble(fraction.group(1)) / denominator;
+        }
+        return NUMBER_WORDS.get(token);
+    }
+
+    private static String singularize(String word) {
+        if (word.length() <= 3) {
+            return word;
+        }
+        if (word.endsWith("ies")) {
+            return word.substring(0, word.length() - 3) + "y";
+        }
+        if (word.endsWith("oes") || word.endsWith("ches") || word.endsWith("shes")) {
+            return word.substring(0, word.length() - 2);
+        }
+        if (word.endsWith("s") && !word.endsWith("ss") && !word.endsWith("us") && !word.endsWith("is")) {
+            return word.substring(0, word.length() - 1);
+        }
+        return word;
+    }
+
+    private static Map<String, String> buildUnits() {
+        Map<String, String> units = new LinkedHashMap<>();
+        putAll(units, "g", "g", "gm", "gms", "gram", "grams", "gramme", "grammes");
+        putAll(units, "kg", "kg", "kgs", "kilo", "kilos", "kilogram", "kilograms");
+        putAll(units, "mg", "mg", "milligram", "milligrams");
+        putAll(units, "ml", "ml", "mls", "milliliter", "milliliters", "millilitre", "millilitres");
+        putAll(units, "l", "l", "liter", "liters", "litre", "litres");
+        putAll(units, "oz", "oz", "ounce", "ounces");
+        putAll(units, "lb", "lb", "lbs", "pound", "pounds");
+        putAll(units, "cup", "cup", "cups");
+        putAll(units, "tbsp", "tbsp", "tbs", "tablespoon", "tablespoons");
+        putAll(units, "tsp", "tsp", "teaspoon", "teaspoons");
+        putAll(units, "slice", "slice", "slices");
+        putAll(units, "piece", "piece", "pieces", "pc", "pcs");
+        putAll(units, "bowl", "bowl", "bowls");
+        putAll(units, "glass", "glass", "glasses");
+        putAll(units, "plate", "plate", "plates");
+        putAll(units, "serving", "serving", "servings");
+        return Map.copyOf(units);
+    }
+
+    private static void putAll(Map<String, String> units, String canonical, String... spellings) {
+        for (String spelling : spellings) {
+            units.put(spelling, canonical);
+        }
+    }
+}
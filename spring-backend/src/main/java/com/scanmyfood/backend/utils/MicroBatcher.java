@@ -0,0 +1,178 @@
+package com.scanmyfood.backend.utils;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Collects concurrent calls for up to {@code maxWait} or {@code maxSize} inputs and runs them as one
+ * batch call. The batch call answers with one result per input, in input order, and {@code null} for
+ * an input it has no answer for; each caller receives its own. A batch answer that cannot be used,
+ * because it failed with an error {@code fallbackOn} accepts (such as one that could not be parsed or
+ * matched back to its inputs) or does not hold exactly one entry per input, and any input the answer
+ * left out fall back to the single call for that input, so the batch prompt never fails a call the
+ * single call would have answered. Other errors, such as rejections or the model being
+ * unavailable, fail every caller in the batch at once: the single calls would only meet them again.
+ * A batch of one input runs the single call directly.
+ *
+ * <p>Batch sizes and the time each input waited for its batch to be sent are recorded as
+ * {@code ai.batch.size} and {@code ai.batch.wait}, tagged with the batcher's name.
+ */
+public class MicroBatcher<I, O> {
+
+    private final int maxSize;
+    private final Duration maxWait;
+    private final Function<List<I>, CompletableFuture<List<O>>> batchCall;
+    private final Function<I, CompletableFuture<O>> singleCall;
+    private final Predicate<Throwable> fallbackOn;
+    private final DistributionSummary batchSize;
+    private final Timer waitTime;
+    private final Counter batchFailures;
+    private final Counter fallbacks;
+
+    private List<Pending<I, O>> collecting = new ArrayList<>();
+
+    public MicroBatcher(int maxSize, Duration maxWait, Function<List<I>, CompletableFuture<List<O>>> batchCall,
+                        Function<I, CompletableFuture<O>> singleCall, Predicate<Throwable> fallbackOn,
+                        MeterRegistry meterRegistry, String name) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("maxSize must be at least 1");
+        }
+        this.maxSize = maxSize;
+        this.maxWait = maxWait;
+        this.batchCall = batchCall;
+        this.singleCall = singleCall;
+        this.fallbackOn = fallbackOn;
+        this.batchSize = DistributionSummary.builder("ai.batch.size")
+                .description("Inputs sent per batch call")
+                .tag("name", name)
+                .publishPercentiles(0.5, 0.95)
+                .register(meterRegistry);
+        this.waitTime = Timer.builder("ai.batch.wait")
+                .description("Time an input waited for its batch to be sent")
+                .tag("name", name)
+                .publishPercentiles(0.5, 0.95)
+                .register(meterRegistry);
+        this.batchFailures = Counter.builder("ai.batch.failures")
+                .tag("name", name)
+                .register(meterRegistry);
+        this.fallbacks = Counter.builder("ai.batch.fallbacks")
+                .description("Inputs re-run as single calls because their batch answer was unusable or left them out")
+                .tag("name", name)
+                .register(meterRegistry);
+    }
+
+    public CompletableFuture<O> submit(I input) {
+        Pending<I, O> pending = new Pending<>(input, System.nanoTime(), new CompletableFuture<>());
+        List<Pending<I, O>> full = null;
+        List<Pending<I, O>> started = null;
+        synchronized (this) {
+            collecting.add(pending);
+            if (collecting.size() >= maxSize) {
+                full = collecting;
+                collecting = new ArrayList<>();
+            } else if (collecting.size() == 1) {
+                started = collecting;
+            }
+        }
+        if (full != null) {
+            send(full);
+        } else if (started != null) {
+            List<Pending<I, O>> batch = started;
+            CompletableFuture.delayedExecutor(maxWait.toNanos(), TimeUnit.NANOSECONDS).execute(() -> flush(batch));
+        }
+        return pending.result();
+    }
+
+    /**
+     * Sends {@code batch} if it is still the one collecting, i.e. it did not fill up in the meantime
+     */
+    private void flush(List<Pending<I, O>> batch) {
+        synchronized (this) {
+            if (collecting != batch || batch.isEmpty()) {
+                return;
+            }
+            collecting = new ArrayList<>();
+        }
+        send(batch);
+    }
+
+    private void send(List<Pending<I, O>> batch) {
+        long now = System.nanoTime();
+        for (Pending<I, O> pending : batch) {
+            waitTime.record(now - pending.enqueuedNanos(), TimeUnit.NANOSECONDS);
+        }
+        batchSize.record(batch.size());
+        if (batch.size() == 1) {
+            single(batch.get(0));
+            return;
+        }
+
+        CompletableFuture<List<O>> answer;
+        try {
+            answer = batchCall.apply(batch.stream().map(Pending::input).toList());
+        } catch (RuntimeException e) {
+            answer = CompletableFuture.failedFuture(e);
+        }
+        answer.whenComplete((results, error) -> {
+            if (error != null) {
+                batchFailures.increment();
+                Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+                if (fallbackOn.test(cause)) {
+                    batch.forEach(this::fallback);
+                } else {
+                    batch.forEach(pending -> pending.result().completeExceptionally(cause));
+                }
+                return;
+            }
+            if (results.size() != batch.size()) {
+                // Without one entry per input the results cannot be matched back to their callers
+                batchFailures.increment();
+                batch.forEach(this::fallback);
+                return;
+            }
+            for (int i = 0; i < batch.size(); i++) {
+                O result = results.get(i);
+                if (result != null) {
+                    batch.get(i).result().complete(result);
+                } else {
+                    fallback(batch.get(i));
+                }
+            }
+        });
+    }
+
+    private void fallback(Pending<I, O> pending) {
+        fallbacks.increment();
+        single(pending);
+    }
+
+    private void single(Pending<I, O> pending) {
+        CompletableFuture<O> answer;
+        try {
+            answer = singleCall.apply(pending.input());
+        } catch (RuntimeException e) {
+            answer = CompletableFuture.failedFuture(e);
+        }
+        answer.whenComplete((result, error) -> {
+            if (error != null) {
+                pending.result().completeExceptionally(error);
+            } else {
+                pending.result().complete(result);
+            }
+        });
+    }
+
+    private record Pending<I, O>(I input, long enqueuedNanos, CompletableFuture<O> result) {
+    }
+}
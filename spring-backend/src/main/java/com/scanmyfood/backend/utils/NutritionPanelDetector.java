@@ -0,0 +1,245 @@
+package com.scanmyfood.backend.utils;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Locates the nutrition facts panel on a photo of packaging using edge and line density only. The
+ * panel is the densest block of small text on the pack and is ruled by long horizontal lines, while
+ * the rest of the box is mostly product photography, large type and flat colour.
+ *
+ * <p>The image is sampled down to {@value #WORKING_EDGE} px, edges are counted per
+ * {@value #CELL} px cell, and dense cells are joined into regions. Each region scores its edge
+ * density plus a bonus for rows crossed by a long horizontal edge; the best region's bounding box
+ * is returned in source pixels. Regions covering too little or nearly all of the image are rejected
+ * so that a bad guess never crops away the panel.
+ */
+public final class NutritionPanelDetector {
+
+    private static final int WORKING_EDGE = 512;
+    private static final int CELL = 8;
+    private static final int EDGE_THRESHOLD = 32;
+    private static final double MIN_CELL_DENSITY = 0.10;
+    private static final double LINE_RUN_FRACTION = 0.5;
+    private static final double LINE_BONUS = 2.0;
+    private static final double MIN_AREA_RATIO = 0.04;
+    private static final double MAX_AREA_RATIO = 0.85;
+    private static final double MARGIN = 0.02;
+
+    private NutritionPanelDetector() {
+    }
+
+    /**
+     * @return the panel's bounding box in {@code image} coordinates, or null if no region looks
+     * like a nutrition panel
+     */
+    public static Rectangle detect(BufferedImage image) {
+        int sourceWidth = image.getWidth();
+        int sourceHeight = image.getHeight();
+        double scale = Math.min(1.0, (double) WORKING_EDGE / Math.max(sourceWidth, sourceHeight));
+        int width = Math.max(CELL * 2, (int) (sourceWidth * scale));
+        int height = Math.max(CELL * 2, (int) (sourceHeight * scale));
+
+        int[] gray = sampleGray(image, width, height);
+        boolean[] vertical = new boolean[width * height];
+        boolean[] horizontal = new boolean[width * height];
+        for (int y = 0; y < height - 1; y++) {
+            for (int x = 0; x < width - 1; x++) {
+                int i = y * width + x;
+                vertical[i] = Math.abs(gray[i + 1] - gray[i]) > EDGE_THRESHOLD;
+                horizontal[i] = Math.abs(gray[i + width] - gray[i]) > EDGE_THRESHOLD;
+            }
+        }
+
+        int columns = width / CELL;
+        int rows = height / CELL;
+        double[] density = cellDensity(vertical, horizontal, width, columns, rows);
+        double mean = 0;
+        for (double d : density) {
+            mean += d;
+        }
+        mean /= density.length;
+        double threshold = Math.max(MIN_CELL_DENSITY, mean * 1.5);
+
+        boolean[] dense = new boolean[density.length];
+        for (int i = 0; i < density.length; i++) {
+            dense[i] = density[i] >= threshold;
+        }
+        // Bridge the gaps between text lines and table columns
+        boolean[] joined = dilate(dense, columns, rows);
+
+        Rectangle best = null;
+        double bestScore = 0;
+        int[] component = new int[density.length];
+        int componentId = 0;
+        for (int start = 0; start < joined.length; start++) {
+            if (!joined[start] || component[start] != 0) {
+                continue;
+            }
+            componentId++;
+            Rectangle cells = flood(joined, component, componentId, start, columns, rows);
+            // Score and bound the region by its dense cells, not the dilation around them
+            double score = 0;
+            Rectangle denseCells = null;
+            for (int cy = cells.y; cy < cells.y + cells.height; cy++) {
+                for (int cx = cells.x; cx < cells.x + cells.width; cx++) {
+                    int i = cy * columns + cx;
+                    if (component[i] == componentId && dense[i]) {
+                        score += density[i];
+                        Rectangle cell = new Rectangle(cx, cy, 1, 1);
+                        denseCells = denseCells == null ? cell : denseCells.union(cell);
+                    }
+                }
+            }
+            if (denseCells == null) {
+                continue;
+            }
+            Rectangle pixels = new Rectangle(denseCells.x * CELL, denseCells.y * CELL,
+                    denseCells.width * CELL, denseCells.height * CELL);
+            score *= 1 + LINE_BONUS * ruledRowFraction(horizontal, width, pixels);
+            if (score > bestScore) {
+                bestScore = score;
+                best = pixels;
+            }
+        }
+        if (best == null) {
+            return null;
+        }
+
+        double areaRatio = (double) best.width * best.height / ((double) width * height);
+        if (areaRatio < MIN_AREA_RATIO || areaRatio > MAX_AREA_RATIO) {
+            return null;
+        }
+
+        int marginX = (int) (sourceWidth * MARGIN);
+        int marginY = (int) (sourceHeight * MARGIN);
+        int x = Math.max(0, (int) (best.x / scale) - marginX);
+        int y = Math.max(0, (int) (best.y / scale) - marginY);
+        int right = Math.min(sourceWidth, (int) Math.ceil((best.x + best.width) / scale) + marginX);
+        int bottom = Math.min(sourceHeight, (int) Math.ceil((best.y + best.height) / scale) + marginY);
+        return new Rectangle(x, y, right - x, bottom - y);
+    }
+
+    /**
+     * Intersection over union of two boxes, for scoring detections against labelled fixtures
+     */
+    public static double intersectionOverUnion(Rectangle a, Rectangle b) {
+        Rectangle intersection = a.intersection(b);
+        if (intersection.isEmpty()) {
+            return 0;
+        }
+        double overlap = (double) intersection.width * intersection.height;
+        return overlap / ((double) a.width * a.height + (double) b.width * b.height - overlap);
+    }
+
+    private static int[] sampleGray(BufferedImage image, int width, int height) {
+        int[] gray = new int[width * height];
+        double stepX = (double) image.getWidth() / width;
+        double stepY = (double) image.getHeight() / height;
+        for (int y = 0; y < height; y++) {
+            int sy = Math.min(image.getHeight() - 1, (int) (y * stepY));
+            for (int x = 0; x < width; x++) {
+                int rgb = image.getRGB(Math.min(image.getWidth() - 1, (int) (x * stepX)), sy);
+                gray[y * width + x] = (299 * ((rgb >> 16) & 0xFF) + 587 * ((rgb >> 8) & 0xFF) + 114 * (rgb & 0xFF)) / 1000;
+            }
+        }
+        return gray;
+    }
+
+    private static double[] cellDensity(boolean[] vertical, boolean[] horizontal, int width, int columns, int rows) {
+        double[] density = new double[columns * rows];
+        for (int cy = 0; cy < rows; cy++) {
+            for (int cx = 0; cx < columns; cx++) {
+                int edges = 0;
+                for (int y = cy * CELL; y < (cy + 1) * CELL; y++) {
+                    for (int x = cx * CELL; x < (cx + 1) * CELL; x++) {
+                        int i = y * width + x;
+                        if (vertical[i] || horizontal[i]) {
+                            edges++;
+                        }
+                    }
+                }
+                density[cy * columns + cx] = (double) edges / (CELL * CELL);
+            }
+        }
+        return density;
+    }
+
+    private static boolean[] dilate(boolean[] mask, int columns, int rows) {
+        boolean[] dilated = new boolean[mask.length];
+        for (int cy = 0; cy < rows; cy++) {
+            for (int cx = 0; cx < columns; cx++) {
+                if (!mask[cy * columns + cx]) {
+                    continue;
+                }
+                for (int dy = -1; dy <= 1; dy++) {
+                    for (int dx = -1; dx <= 1; dx++) {
+                        int nx = cx + dx;
+                        int ny = cy + dy;
+                        if (nx >= 0 && ny >= 0 && nx < columns && ny < rows) {
+                            dilated[ny * columns + nx] = true;
+                        }
+                    }
+                }
+            }
+        }
+        return dilated;
+    }
+
+    /**
+     * Labels the 4-connected region containing {@code start} and returns its bounding box in cells
+     */
+    private static Rectangle flood(boolean[] mask, int[] component, int id, int start, int columns, int rows) {
+        int minX = columns, minY = rows, maxX = -1, maxY = -1;
+        Deque<Integer> pending = new ArrayDeque<>();
+        pending.push(start);
+        component[start] = id;
+        while (!pending.isEmpty()) {
+            int i = pending.pop();
+            int cx = i % columns;
+            int cy = i / columns;
+            minX = Math.min(minX, cx);
+            minY = Math.min(minY, cy);
+            maxX = Math.max(maxX, cx);
+            maxY = Math.max(maxY, cy);
+            int[] neighbours = {
+                    cx > 0 ? i - 1 : -1,
+                    cx < columns - 1 ? i + 1 : -1,
+                    cy > 0 ? i - columns : -1,
+                    cy < rows - 1 ? i + columns : -1};
+            for (int n : neighbours) {
+                if (n >= 0 && mask[n] && component[n] == 0) {
+                    component[n] = id;
+                    pending.push(n);
+                }
+            }
+        }
+        return new Rectangle(minX, minY, maxX - minX + 1, maxY - minY + 1);
+    }
+
+    /**
+     * Share of rows in the box crossed by a horizontal edge spanning at least half its width,
+     * i.e. the rules between nutrient rows
+     */
+    private static double ruledRowFraction(boolean[] horizontal, int width, Rectangle box) {
+        int minRun = (int) (box.width * LINE_RUN_FRACTION);
+        int ruledRows = 0;
+        int lastRuledRow = -3;
+        for (int y = box.y; y < box.y + box.height; y++) {
+            int run = 0;
+            int longest = 0;
+            for (int x = box.x; x < box.x + box.width; x++) {
+                run = horizontal[y * width + x] ? run + 1 : 0;
+                longest = Math.max(longest, run);
+            }
+            // A drawn rule shows up as two adjacent edge rows; count it once
+            if (longest >= minRun && y - lastRuledRow > 2) {
+                ruledRows++;
+                lastRuledRow = y;
+            }
+        }
+        return Math.min(1.0, ruledRows * (double) CELL / box.height);
+    }
+}
@@ -0,0 +1,117 @@
+package com.scanmyfood.backend.utils;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * Retries asynchronous calls that fail with a transient error, waiting a fully jittered exponential
+ * backoff between attempts. All attempts share one deadline: an attempt still running when it
+ * passes is cancelled, and no retry is scheduled whose backoff would outlast it. Completing or
+ * cancelling the returned future cancels the attempt in flight and any retry still waiting out its
+ * backoff.
+ *
+ * <p>The call supplier is invoked again for each attempt, so it should capture an already built
+ * request rather than rebuild it.
+ */
+public class RetryPolicy {
+
+    private final int maxAttempts;
+    private final Duration initialBackoff;
+    private final Duration maxBackoff;
+    private final Duration deadline;
+    private final Predicate<Throwable> isRetryable;
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder deadlinesExceeded = new LongAdder();
+
+    public RetryPolicy(int maxAttempts, Duration initialBackoff, Duration maxBackoff, Duration deadline,
+                       Predicate<Throwable> isRetryable) {
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("maxAttempts must be at least 1");
+        }
+        this.maxAttempts = maxAttempts;
+        this.initialBackoff = initialBackoff;
+        this.maxBackoff = maxBackoff;
+        this.deadline = deadline;
+        this.isRetryable = isRetryable;
+    }
+
+    public <T> CompletableFuture<T> execute(Supplier<CompletableFuture<T>> call) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        attempt(call, result, 1, System.nanoTime() + deadline.toNanos());
+        return result;
+    }
+
+    private <T> void attempt(Supplier<CompletableFuture<T>> call, CompletableFuture<T> result, int attempt,
+                             long deadlineNanos) {
+        if (result.isDone()) {
+            return;
+        }
+        CompletableFuture<T> pending;
+        try {
+            pending = call.get();
+        } catch (RuntimeException e) {
+            pending = CompletableFuture.failedFuture(e);
+        }
+
+        AtomicBoolean timedOut = new AtomicBoolean();
+        CompletableFuture<T> current = pending;
+        // Deadline and backoff timers are cancelled as soon as their attempt completes or the call is abandoned
+        ScheduledFuture<?> timer = SharedTimer.schedule(() -> {
+            if (!current.isDone()) {
+                timedOut.set(true);
+                current.cancel(true);
+            }
+        }, deadlineNanos - System.nanoTime());
+        result.whenComplete((value, error) -> current.cancel(true));
+
+        current.whenComplete((value, error) -> {
+            timer.cancel(false);
+            if (result.isDone()) {
+                return;
+            }
+            if (error == null) {
+                result.complete(value);
+                return;
+            }
+            if (timedOut.get()) {
+                deadlinesExceeded.increment();
+                result.completeExceptionally(new TimeoutException("Model call exceeded its " + deadline.toMillis() + "ms deadline"));
+                return;
+            }
+
+            Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+            long backoffNanos = backoffNanos(attempt);
+            if (attempt >= maxAttempts || !isRetryable.test(cause) || System.nanoTime() + backoffNanos >= deadlineNanos) {
+                result.completeExceptionally(cause);
+                return;
+            }
+            retries.increment();
+            ScheduledFuture<?> retry = SharedTimer.schedule(() -> attempt(call, result, attempt + 1, deadlineNanos), backoffNanos);
+            result.whenComplete((settled, abandoned) -> retry.cancel(false));
+        });
+    }
+
+    /**
+     * Full jitter: uniformly random up to the capped exponential backoff for this attempt
+     */
+    private long backoffNanos(int attempt) {
+        long ceiling = Math.min(maxBackoff.toNanos(), initialBackoff.toNanos() << Math.min(attempt - 1, 30));
+        return ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+
+    public long getRetries() {
+        return retries.sum();
+    }
+
+    public long getDeadlinesExceeded() {
+        return deadlinesExceeded.sum();
+    }
+}
@@ -0,0 +1,34 @@
+package com.scanmyfood.backend.utils;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One timer thread for the deadlines, backoffs and queue expiries of every utility in this package.
+ * Timers are removed from the queue as soon as they are cancelled, so work that finishes in time
+ * leaves nothing behind; the timer thread only hands each task off to the common pool, so a task
+ * that completes futures never runs their callbacks on it.
+ */
+final class SharedTimer {
+
+    private static final ScheduledThreadPoolExecutor TIMER = timer();
+
+    private SharedTimer() {
+    }
+
+    static ScheduledFuture<?> schedule(Runnable task, long delayNanos) {
+        return TIMER.schedule(() -> ForkJoinPool.commonPool().execute(task), Math.max(0, delayNanos), TimeUnit.NANOSECONDS);
+    }
+
+    private static ScheduledThreadPoolExecutor timer() {
+        ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "shared-timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        timer.setRemoveOnCancelPolicy(true);
+        return timer;
+    }
+}
@@ -0,0 +1,65 @@
+package com.scanmyfood.backend.utils;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Collapses concurrent calls with the same key into one. The first caller for a key runs the call;
+ * callers arriving while it is in flight wait on the same {@link CompletableFuture} and receive its
+ * result or exception. Nothing is retained once the call completes.
+ */
+public class SingleFlight<K, V> {
+
+    private final Map<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+    private final Counter executed;
+    private final Counter coalesced;
+
+    public SingleFlight(MeterRegistry meterRegistry, String name) {
+        this.executed = Counter.builder("ai.single-flight.calls")
+                .tag("name", name).tag("result", "executed")
+                .register(meterRegistry);
+        this.coalesced = Counter.builder("ai.single-flight.calls")
+                .tag("name", name).tag("result", "coalesced")
+                .description("Calls that waited on an identical in-flight call instead of running their own")
+                .register(meterRegistry);
+        meterRegistry.gaugeMapSize("ai.single-flight.in-flight",
+                Tags.of("name", name), inFlight);
+    }
+
+    /**
+     * Runs {@code call} unless an identical call is already in flight, in which case the caller
+     * is attached to that call's result instead
+     */
+    public CompletableFuture<V> execute(K key, Supplier<CompletableFuture<V>> call) {
+        CompletableFuture<V> created = new CompletableFuture<>();
+        CompletableFuture<V> existing = inFlight.putIfAbsent(key, created);
+        if (existing != null) {
+            coalesced.increment();
+            return existing.copy();
+        }
+
+        executed.increment();
+        CompletableFuture<V> pending;
+        try {
+            pending = call.get();
+        } catch (RuntimeException e) {
+            pending = CompletableFuture.failedFuture(e);
+        }
+        pending.whenComplete((result, error) -> {
+            // Remove first so callers arriving after completion start a fresh call
+            inFlight.remove(key, created);
+            if (error != null) {
+                created.completeExceptionally(error);
+            } else {
+                created.complete(result);
+            }
+        });
+        return created.copy();
+    }
+}
@@ -0,0 +1,117 @@
+package com.scanmyfood.backend.utils;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonStreamContext;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.async.ByteArrayFeeder;
+import com.fasterxml.jackson.core.json.JsonReadFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Consumer;
+
+/**
+ * Incremental JSON parser for streamed model output. Text chunks are fed as they arrive and every
+ * object element of an array field named {@code arrayField} is handed to {@code onItem} as soon as
+ * its closing brace has been read, without waiting for the rest of the document. Each item is
+ * handed over as a parser over its buffered tokens, so the caller binds it directly. Text before the
+ * first '{' (such as a markdown code fence) and anything after the root object are ignored.
+ *
+ * <p>Not thread-safe; feed chunks from one thread in order.
+ */
+public class StreamingJsonItemParser {
+
+    private static final JsonFactory JSON_FACTORY = JsonFactory.builder()
+            .enable(JsonReadFeature.ALLOW_TRAILING_COMMA)
+            .build();
+
+    private final ObjectMapper objectMapper;
+    private final String arrayField;
+    private final Consumer<JsonParser> onItem;
+    private final JsonParser parser;
+    private final ByteArrayFeeder feeder;
+
+    private boolean started;
+    private boolean finished;
+    private TokenBuffer item;
+    private int itemDepth;
+
+    public StreamingJsonItemParser(ObjectMapper objectMapper, String arrayField, Consumer<JsonParser> onItem) {
+        this.objectMapper = objectMapper;
+        this.arrayField = arrayField;
+        this.onItem = onItem;
+        try {
+            this.parser = JSON_FACTORY.createNonBlockingByteArrayParser();
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not create non-blocking JSON parser", e);
+        }
+        this.feeder = (ByteArrayFeeder) parser.getNonBlockingInputFeeder();
+    }
+
+    /**
+     * Feeds the next chunk of model output. Once the stream turns out not to be valid JSON further
+     * chunks are ignored; the caller still gets the full text through its own accumulation.
+     */
+    public void feed(String chunk) {
+        if (finished || chunk == null || chunk.isEmpty()) {
+            return;
+        }
+        if (!started) {
+            int start = chunk.indexOf('{');
+            if (start < 0) {
+                return;
+            }
+            chunk = chunk.substring(start);
+            started = true;
+        }
+
+        try {
+            byte[] bytes = chunk.getBytes(StandardCharsets.UTF_8);
+            feeder.feedInput(bytes, 0, bytes.length);
+            JsonToken token;
+            while (!finished && (token = parser.nextToken()) != JsonToken.NOT_AVAILABLE && token != null) {
+                handle(token);
+            }
+        } catch (IOException e) {
+            finished = true;
+        }
+    }
+
+    private void handle(JsonToken token) throws IOException {
+        if (item != null) {
+            item.copyCurrentEvent(parser);
+            if (token.isStructStart()) {
+                itemDepth++;
+            } else if (token.isStructEnd() && --itemDepth == 0) {
+                emit();
+            }
+        } else if (token == JsonToken.START_OBJECT && isArrayElement()) {
+            item = new TokenBuffer(objectMapper, false);
+            item.copyCurrentEvent(parser);
+            itemDepth = 1;
+        } else if (token.isStructEnd() && parser.getParsingContext().inRoot()) {
+            finished = true;
+        }
+    }
+
+    /**
+     * True when the object just opened is an element of the array field we are extracting
+     */
+    private boolean isArrayElement() {
+        JsonStreamContext array = parser.getParsingContext().getParent();
+        return array != null && array.inArray()
+                && array.getParent() != null
+                && arrayField.equals(array.getParent().getCurrentName());
+    }
+
+    private void emit() throws IOException {
+        TokenBuffer completed = item;
+        item = null;
+        try (JsonParser itemParser = completed.asParser(objectMapper)) {
+            onItem.accept(itemParser);
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package com.scanmyfood.backend.services;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.scanmyfood.backend.models.FoodAnalysisResponse;
+import com.scanmyfood.backend.models.FoodItem;
+import com.scanmyfood.backend.models.ProductAnalysisResponse;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Measures heap allocated and CPU time per model response, comparing the previous path (parse into a
+ * {@code HashMap}, then walk it into the response model) with binding straight from the parser.
+ * The responses are synthetic but shaped like real answers: a plate with six items and a product
+ * label with twelve nutrients and three concerns.
+ *
+ * <p>Run with {@code java ... AiResponseBindingBenchmark}.
+ */
+public class AiResponseBindingBenchmark {
+
+    private static final int WARMUP = 20_000;
+    private static final int ITERATIONS = 50_000;
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+    private static final AiResponseProcessingServiceImpl BINDER = new AiResponseProcessingServiceImpl(OBJECT_MAPPER);
+
+    public static void main(String[] args) throws IOException {
+        String plate = plateResponse(6);
+        String product = productResponse(12, 3);
+
+        compare("food image", plate,
+                json -> legacyFoodImage(OBJECT_MAPPER.readValue(json, HashMap.class)),
+                json -> bind(json, BINDER::processFoodImageResponse));
+        compare("product", product,
+                json -> legacyProduct(OBJECT_MAPPER.readValue(json, HashMap.class)),
+                json -> bind(json, BINDER::processProductImagesResponse));
+    }
+
+    private static void compare(String name, String json, Parse before, Parse after) throws IOException {
+        Measurement legacy = measure(json, before);
+        Measurement direct = measure(json, after);
+        System.out.printf("%s (%d chars): map+walk %d bytes %d ns, direct %d bytes %d ns (-%.0f%% bytes, -%.0f%% cpu)%n",
+                name, json.length(), legacy.bytes(), legacy.nanos(), direct.bytes(), direct.nanos(),
+                100.0 * (legacy.bytes() - direct.bytes()) / legacy.bytes(),
+                100.0 * (legacy.nanos() - direct.nanos()) / legacy.nanos());
+    }
+
+    private static Measurement measure(String json, Parse parse) throws IOException {
+        for (int i = 0; i < WARMUP; i++) {
+            parse.apply(json);
+        }
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long bytes = threads.getCurrentThreadAllocatedBytes();
+        long cpu = threads.getCurrentThreadCpuTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            parse.apply(json);
+        }
+        return new Measurement((threads.getCurrentThreadAllocatedBytes() - bytes) / ITERATIONS,
+                (threads.getCurrentThreadCpuTime() - cpu) / ITERATIONS);
+    }
+
+    private static <T> T bind(String json, Binder<T> binder) throws IOException {
+        try (JsonParser parser = OBJECT_MAPPER.createParser(json)) {
+            return binder.bind(parser);
+        }
+    }
+
+    private record Measurement(long bytes, long nanos) {
+    }
+
+    private interface Parse {
+        Object apply(String json) throws IOException;
+    }
+
+    private interface Binder<T> {
+        T bind(JsonParser parser) throws IOException;
+    }
+
+    // The previous map walk, kept here for comparison
+
+    @SuppressWarnings("unchecked")
+    private static FoodAnalysisResponse legacyFoodImage(Map<String, Object> aiResponse) {
+        FoodAnalysisResponse response = new FoodAnalysisResponse();
+        Map<String, Object> plateAnalysis = (Map<String, Object>) aiResponse.get("plate_analysis");
+        response.setMealName((String) plateAnalysis.get("meal_name"));
+        List<FoodItem> foodItems = new ArrayList<>();
+        for (Map<String, Object> item : (List<Map<String, Object>>) plateAnalysis.get("items")) {
+            FoodItem foodItem = new FoodItem();
+            foodItem.setName((String) item.get("food_name"));
+            Map<String, Object> quantity = (Map<String, Object>) item.get("estimated_quantity");
+            foodItem.setQuantity(((Number) quantity.get("amount")).doubleValue());
+            foodItem.setUnit((String) quantity.get("unit"));
+            foodItem.setNutrientsPer100g((Map<String, Object>) item.get("nutrients_per_100g"));
+            foodItems.add(foodItem);
+        }
+        response.setAnalyzedFoodItems(foodItems);
+        response.setTotalPlateNutrients((Map<String, Object>) plateAnalysis.get("total_plate_nutrients"));
+        return response;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static ProductAnalysisResponse legacyProduct(Map<String, Object> aiResponse) {
+        ProductAnalysisResponse response = new ProductAnalysisResponse();
+        Map<String, Object> productInfo = (Map<String, Object>) aiResponse.get("product");
+        ProductAnalysisResponse.ProductInfo product = new ProductAnalysisResponse.ProductInfo();
+        product.setName((String) productInfo.get("name"));
+        product.setCategory((String) productInfo.get("category"));
+        response.setProduct(product);
+
+        Map<String, Object> analysisMap = (Map<String, Object>) aiResponse.get("nutrition_analysis");
+        ProductAnalysisResponse.NutritionAnalysis analysis = new ProductAnalysisResponse.NutritionAnalysis();
+        analysis.setServingSize((String) analysisMap.get("serving_size"));
+        List<ProductAnalysisResponse.Nutrient> nutrients = new ArrayList<>();
+        for (Map<String, Object> nutrientMap : (List<Map<String, Object>>) analysisMap.get("nutrients")) {
+            ProductAnalysisResponse.Nutrient nutrient = new ProductAnalysisResponse.Nutrient();
+            nutrient.setName((String) nutrientMap.get("name"));
+            nutrient.setQuantity((String) nutrientMap.get("quantity"));
+            nutrient.setDailyValue((String) nutrientMap.get("daily_value"));
+            nutrient.setDvStatus((String) nutrientMap.get("dv_status"));
+            nutrient.setGoal((String) nutrientMap.get("goal"));
+            nutrient.setHealthImpact((String) nutrientMap.get("health_impact"));
+            nutrients.add(nutrient);
+        }
+        analysis.setNutrients(nutrients);
+
+        List<ProductAnalysisResponse.PrimaryConcern> concerns = new ArrayList<>();
+        for (Map<String, Object> concernMap : (List<Map<String, Object>>) analysisMap.get("primary_concerns")) {
+            ProductAnalysisResponse.PrimaryConcern concern = new ProductAnalysisResponse.PrimaryConcern();
+            concern.setIssue((String) concernMap.get("issue"));
+            concern.setExplanation((String) concernMap.get("explanation"));
+            List<ProductAnalysisResponse.Recommendation> recommendations = new ArrayList<>();
+            for (Map<String, Object> recMap : (List<Map<String, Object>>) concernMap.get("recommendations")) {
+                ProductAnalysisResponse.Recommendation recommendation = new ProductAnalysisResponse.Recommendation();
+                recommendation.setFood((String) recMap.get("food"));
+                recommendation.setQuantity((String) recMap.get("quantity"));
+                recommendation.setReasoning((String) recMap.get("reasoning"));
+                recommendations.add(recommendation);
+            }
+            concern.setRecommendations(recommendations);
+            concerns.add(concern);
+        }
+        analysis.setPrimaryConcerns(concerns);
+        response.setNutritionAnalysis(analysis);
+        return response;
+    }
+
+    // Synthetic responses
+
+    private static String nutrients(double scale) {
+        return String.format(Locale.ROOT, """
+                {"calories": %.1f, "protein": {"value": %.1f, "unit": "g"}, "carbohydrates": {"value": %.1f, "unit": "g"},
+                 "fat": {"value": %.1f, "unit": "g"}, "fiber": {"value": %.1f, "unit": "g"}}""",
+                130 * scale, 2.7 * scale, 28.2 * scale, 0.3 * scale, 0.4 * scale);
+    }
+
+    private static String plateResponse(int itemCount) {
+        List<String> items = new ArrayList<>();
+        for (int i = 0; i < itemCount; i++) {
+            items.add("""
+                    {"food_name": "Food item %d", "estimated_quantity": {"amount": %d, "unit": "g"},
+                     "nutrients_per_100g": %s, "total_nutrients": %s,
+                     "visual_cues": ["Covers a quarter of the plate", "About 2 cm high"],
+                     "position": "Left side of the plate"}""".formatted(i, 80 + 10 * i, nutrients(1), nutrients(0.8 + 0.1 * i)));
+        }
+        return """
+                {"plate_analysis": {"meal_name": "Rice with curry and salad", "items": [%s],
+                 "total_plate_nutrients": %s}}""".formatted(String.join(",", items), nutrients(6));
+    }
+
+    private static String productResponse(int nutrientCount, int concernCount) {
+        List<String> nutrients = new ArrayList<>();
+        for (int i = 0; i < nutrientCount; i++) {
+            nutrients.add("""
+                    {"name": "Nutrient %d", "quantity": "%d g", "daily_value": "%d", "dv_status": "Moderate",
+                     "goal": "Less than", "health_impact": "Moderate"}""".formatted(i, i + 1, 5 + i));
+        }
+        List<String> concerns = new ArrayList<>();
+        for (int i = 0; i < concernCount; i++) {
+            concerns.add("""
+                    {"issue": "High sodium %d", "explanation": "Sodium is above 20%% of the daily value per serving",
+                     "recommendations": [
+                       {"food": "Banana", "quantity": "1 medium", "reasoning": "Potassium offsets sodium"},
+                       {"food": "Spinach", "quantity": "1 cup", "reasoning": "Adds fiber and potassium"},
+                       {"food": "Yogurt", "quantity": "150 g", "reasoning": "Adds protein"}]}""".formatted(i));
+        }
+        return """
+                {"product": {"name": "Salted crackers", "category": "snack"},
+                 "nutrition_analysis": {"serving_size": "30 g", "nutrients": [%s], "primary_concerns": [%s]}}"""
+                .formatted(String.join(",", nutrients), String.join(",", concerns));
+    }
+}
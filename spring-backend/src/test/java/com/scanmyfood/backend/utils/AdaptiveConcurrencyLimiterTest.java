@@ -0,0 +1,149 @@
+package com.scanmyfood.backend.utils;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AdaptiveConcurrencyLimiterTest {
+
+    @Test
+    void limitGrowsWhileLatencyStaysFlat() throws InterruptedException {
+        AdaptiveConcurrencyLimiter limiter = limiter(10, 1, 100, 10, Duration.ofSeconds(5));
+
+        for (int round = 0; round < 10; round++) {
+            runRound(limiter, limiter.getLimit(), 5);
+        }
+
+        assertTrue(limiter.getLimit() > 10, "limit should grow, was " + limiter.getLimit());
+    }
+
+    @Test
+    void limitShrinksWhenLatencyClimbs() throws InterruptedException {
+        AdaptiveConcurrencyLimiter limiter = limiter(20, 1, 20, 10, Duration.ofSeconds(5));
+        for (int round = 0; round < 5; round++) {
+            runRound(limiter, limiter.getLimit(), 2);
+        }
+        int baseline = limiter.getLimit();
+
+        for (int round = 0; round < 5; round++) {
+            runRound(limiter, limiter.getLimit(), 30);
+        }
+
+        assertTrue(limiter.getLimit() < baseline, "limit should shrink from " + baseline + ", was " + limiter.getLimit());
+    }
+
+    @Test
+    void overloadErrorsCutTheLimit() {
+        AdaptiveConcurrencyLimiter limiter = limiter(10, 1, 100, 10, Duration.ofSeconds(5));
+
+        limiter.execute(() -> CompletableFuture.failedFuture(new IllegalStateException("overloaded")));
+        assertEquals(9, limiter.getLimit());
+
+        // Other errors say nothing about the backend's capacity
+        limiter.execute(() -> CompletableFuture.failedFuture(new IllegalArgumentException("bad request")));
+        assertEquals(9, limiter.getLimit());
+    }
+
+    @Test
+    void limitNeverDropsBelowMinimum() {
+        AdaptiveConcurrencyLimiter limiter = limiter(3, 2, 100, 10, Duration.ofSeconds(5));
+
+        for (int i = 0; i < 10; i++) {
+            limiter.execute(() -> CompletableFuture.failedFuture(new IllegalStateException("overloaded")));
+        }
+
+        assertEquals(2, limiter.getLimit());
+    }
+
+    @Test
+    void queuedCallStartsWhenASlotFrees() {
+        AdaptiveConcurrencyLimiter limiter = limiter(1, 1, 1, 1, Duration.ofSeconds(5));
+        CompletableFuture<String> first = new CompletableFuture<>();
+        limiter.execute(() -> first);
+
+        AtomicBoolean started = new AtomicBoolean();
+        CompletableFuture<String> queued = limiter.execute(() -> {
+            started.set(true);
+            return CompletableFuture.completedFuture("second");
+        });
+        assertFalse(started.get());
+        assertEquals(1, limiter.getQueued());
+
+        first.complete("first");
+
+        assertEquals("second", queued.join());
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    void queuedCallIsRejectedWith503AfterMaxWait() {
+        AdaptiveConcurrencyLimiter limiter = limiter(1, 1, 1, 1, Duration.ofMillis(50));
+        limiter.execute(() -> new CompletableFuture<>());
+
+        AtomicBoolean started = new AtomicBoolean();
+        CompletableFuture<Object> queued = limiter.execute(() -> {
+            started.set(true);
+            return CompletableFuture.completedFuture("late");
+        });
+
+        assertServiceUnavailable(queued);
+        assertFalse(started.get());
+        assertEquals(0, limiter.getQueued());
+        assertEquals(1, limiter.getRejected());
+    }
+
+    @Test
+    void callIsRejectedWith503WhenTheQueueIsFull() {
+        AdaptiveConcurrencyLimiter limiter = limiter(1, 1, 1, 1, Duration.ofSeconds(5));
+        limiter.execute(() -> new CompletableFuture<>());
+        limiter.execute(() -> new CompletableFuture<>());
+
+        CompletableFuture<Object> rejected = limiter.execute(() -> new CompletableFuture<>());
+
+        assertTrue(rejected.isCompletedExceptionally());
+        assertServiceUnavailable(rejected);
+        assertEquals(1, limiter.getRejected());
+    }
+
+    private static AdaptiveConcurrencyLimiter limiter(int initialLimit, int minLimit, int maxLimit, int maxQueue,
+                                                      Duration maxWait) {
+        return new AdaptiveConcurrencyLimiter(initialLimit, minLimit, maxLimit, maxQueue, maxWait, 1.5, 0.2,
+                error -> error instanceof IllegalStateException,
+                () -> new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Too many requests"));
+    }
+
+    /**
+     * Runs {@code calls} calls at once, all taking about {@code latencyMillis}
+     */
+    private static void runRound(AdaptiveConcurrencyLimiter limiter, int calls, long latencyMillis)
+            throws InterruptedException {
+        List<CompletableFuture<String>> pending = new ArrayList<>();
+        for (int i = 0; i < calls; i++) {
+            CompletableFuture<String> call = new CompletableFuture<>();
+            pending.add(call);
+            limiter.execute(() -> call);
+        }
+        TimeUnit.MILLISECONDS.sleep(latencyMillis);
+        pending.forEach(call -> call.complete("done"));
+    }
+
+    private static void assertServiceUnavailable(CompletableFuture<?> future) {
+        CompletionException error = assertThrows(CompletionException.class, future::join);
+        ResponseStatusException rejection = assertInstanceOf(ResponseStatusException.class, error.getCause());
+        assertEquals(HttpStatus.SERVICE_UNAVAILABLE, rejection.getStatusCode());
+    }
+}
@@ -0,0 +1,207 @@
+package com.scanmyfood.backend.utils;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ByteBudgetTest {
+
+    @Test
+    void callsWithinCapacityRunAtOnce() {
+        ByteBudget budget = budget(100, Duration.ofSeconds(5));
+        CompletableFuture<String> first = new CompletableFuture<>();
+
+        budget.execute(60, () -> first);
+        assertTrue(budget.execute(40, () -> CompletableFuture.completedFuture("second")).isDone());
+        assertEquals(60, budget.getInUse());
+
+        first.complete("first");
+        assertEquals(0, budget.getInUse());
+    }
+
+    @Test
+    void smallCallDoesNotOvertakeALargerOneQueuedBeforeIt() {
+        ByteBudget budget = budget(100, Duration.ofSeconds(5));
+        CompletableFuture<String> running = new CompletableFuture<>();
+        budget.execute(80, () -> running);
+
+        Started large = new Started();
+        Started small = new Started();
+        CompletableFuture<String> largeResult = budget.execute(50, large::call);
+        // 10 bytes would fit next to the running call, but the larger call is first in line
+        CompletableFuture<String> smallResult = budget.execute(10, small::call);
+        assertFalse(large.started.get());
+        assertFalse(small.started.get());
+        assertEquals(2, budget.getQueued());
+
+        running.complete("done");
+
+        assertTrue(large.started.get());
+        assertTrue(small.started.get());
+        assertEquals("started", largeResult.join());
+        assertEquals("started", smallResult.join());
+        assertEquals(0, budget.getInUse());
+    }
+
+    @Test
+    void queuedCallsStartInOrderAsBytesFree() {
+        ByteBudget budget = budget(100, Duration.ofSeconds(5));
+        CompletableFuture<String> running = new CompletableFuture<>();
+        budget.execute(100, () -> running);
+
+        CompletableFuture<String> firstQueued = new CompletableFuture<>();
+        AtomicBoolean secondStarted = new AtomicBoolean();
+        budget.execute(70, () -> firstQueued);
+        budget.execute(70, () -> {
+            secondStarted.set(true);
+            return CompletableFuture.completedFuture("second");
+        });
+
+        running.complete("done");
+        assertEquals(70, budget.getInUse());
+        assertFalse(secondStarted.get());
+
+        firstQueued.complete("first");
+        assertTrue(secondStarted.get());
+    }
+
+    @Test
+    void callLargerThanTheBudgetRunsAlone() {
+        ByteBudget budget = budget(100, Duration.ofSeconds(5));
+        CompletableFuture<String> huge = new CompletableFuture<>();
+
+        budget.execute(500, () -> huge);
+        assertEquals(100, budget.getInUse());
+        assertFalse(budget.execute(1, () -> CompletableFuture.completedFuture("small")).isDone());
+
+        huge.complete("done");
+        assertEquals(0, budget.getInUse());
+    }
+
+    @Test
+    void queuedCallIsRejectedAfterMaxWait() {
+        ByteBudget budget = budget(100, Duration.ofMillis(50));
+        budget.execute(100, CompletableFuture::new);
+
+        CompletableFuture<String> queued = budget.execute(10, () -> CompletableFuture.completedFuture("late"));
+
+        assertServiceUnavailable(queued);
+        assertEquals(0, budget.getQueued());
+        assertEquals(1, budget.getRejected());
+    }
+
+    @Test
+    void callIsRejectedWhenTheQueueIsFull() {
+        ByteBudget budget = new ByteBudget(100, 1, Duration.ofSeconds(5), ByteBudgetTest::rejection, Runnable::run);
+        budget.execute(100, CompletableFuture::new);
+        budget.execute(10, CompletableFuture::new);
+
+        assertServiceUnavailable(budget.execute(10, CompletableFuture::new));
+        assertEquals(1, budget.getRejected());
+    }
+
+    @Test
+    void tryReserveDoesNotJumpTheQueue() {
+        ByteBudget budget = budget(100, Duration.ofSeconds(5));
+        CompletableFuture<String> running = new CompletableFuture<>();
+        budget.execute(80, () -> running);
+        budget.execute(50, CompletableFuture::new);
+
+        assertEquals(-1, budget.tryReserve(10));
+
+        running.complete("done");
+        long reserved = budget.tryReserve(10);
+        assertEquals(10, reserved);
+        assertEquals(60, budget.getInUse());
+        budget.release(reserved);
+        assertEquals(50, budget.getInUse());
+    }
+
+    @Test
+    void queuedCallStartsOnTheAdmitExecutorRatherThanTheReleasingThread() {
+        List<Runnable> admitted = new ArrayList<>();
+        ByteBudget budget = budget(100, Duration.ofSeconds(5), admitted::add);
+        CompletableFuture<String> running = new CompletableFuture<>();
+        budget.execute(100, () -> running);
+        Started queued = new Started();
+        CompletableFuture<String> queuedResult = budget.execute(50, queued::call);
+
+        running.complete("done");
+        assertFalse(queued.started.get());
+        assertEquals(50, budget.getInUse());
+
+        admitted.forEach(Runnable::run);
+        assertEquals("started", queuedResult.join());
+        assertEquals(0, budget.getInUse());
+    }
+
+    @Test
+    void admittedCallDoesNotTimeOutLater() throws InterruptedException {
+        ByteBudget budget = budget(100, Duration.ofMillis(50));
+        CompletableFuture<String> running = new CompletableFuture<>();
+        budget.execute(100, () -> running);
+        CompletableFuture<String> slow = new CompletableFuture<>();
+        CompletableFuture<String> queuedResult = budget.execute(50, () -> slow);
+
+        running.complete("done");
+        TimeUnit.MILLISECONDS.sleep(100);
+
+        assertFalse(queuedResult.isDone());
+        assertEquals(0, budget.getRejected());
+        slow.complete("late");
+        assertEquals("late", queuedResult.join());
+    }
+
+    @Test
+    void cancellingTheResultCancelsTheCall() {
+        ByteBudget budget = budget(100, Duration.ofSeconds(5));
+        CompletableFuture<String> call = new CompletableFuture<>();
+
+        budget.execute(60, () -> call).cancel(true);
+
+        assertTrue(call.isCancelled());
+        assertEquals(0, budget.getInUse());
+    }
+
+    private static ByteBudget budget(long capacity, Duration maxWait) {
+        return budget(capacity, maxWait, Runnable::run);
+    }
+
+    private static ByteBudget budget(long capacity, Duration maxWait, Executor admitExecutor) {
+        return new ByteBudget(capacity, 10, maxWait, ByteBudgetTest::rejection, admitExecutor);
+    }
+
+    private static ResponseStatusException rejection() {
+        return new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Too many uploads in progress");
+    }
+
+    private static void assertServiceUnavailable(CompletableFuture<?> future) {
+        CompletionException error = assertThrows(CompletionException.class, future::join);
+        ResponseStatusException rejection = assertInstanceOf(ResponseStatusException.class, error.getCause());
+        assertEquals(HttpStatus.SERVICE_UNAVAILABLE, rejection.getStatusCode());
+    }
+
+    private static final class Started {
+        private final AtomicBoolean started = new AtomicBoolean();
+
+        private CompletableFuture<String> call() {
+            started.set(true);
+            return CompletableFuture.completedFuture("started");
+        }
+    }
+}
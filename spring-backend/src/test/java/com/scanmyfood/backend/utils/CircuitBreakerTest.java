@@ -0,0 +1,200 @@
+package com.scanmyfood.backend.utils;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CircuitBreakerTest {
+
+    private static final Duration OPEN_DURATION = Duration.ofMillis(50);
+
+    @Test
+    void staysClosedBelowMinimumCalls() {
+        CircuitBreaker breaker = breaker();
+
+        fail(breaker);
+        fail(breaker);
+        fail(breaker);
+
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    void opensWhenFailureRateReachesThreshold() {
+        CircuitBreaker breaker = breaker();
+
+        succeed(breaker);
+        succeed(breaker);
+        fail(breaker);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        fail(breaker);
+
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertFalse(breaker.isCallPermitted());
+    }
+
+    @Test
+    void opensWhenSlowCallRateReachesThreshold() {
+        CircuitBreaker breaker = new CircuitBreaker(10, 4, 0.5, 0.5, Duration.ZERO, OPEN_DURATION, 2,
+                error -> true, CircuitBreakerTest::rejection);
+
+        // Every call takes at least zero time, so every success counts as slow
+        for (int i = 0; i < 4; i++) {
+            succeed(breaker);
+        }
+
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    @Test
+    void ignoredErrorsDoNotCount() {
+        CircuitBreaker breaker = breaker();
+
+        for (int i = 0; i < 10; i++) {
+            breaker.execute(() -> CompletableFuture.failedFuture(new IllegalArgumentException("bad request")));
+        }
+
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertEquals(0.0, breaker.getFailureRate(), 0.0);
+    }
+
+    @Test
+    void openBreakerRejectsWithoutCalling() {
+        CircuitBreaker breaker = openBreaker();
+        AtomicInteger calls = new AtomicInteger();
+
+        CompletableFuture<String> result = breaker.execute(() -> {
+            calls.incrementAndGet();
+            return CompletableFuture.completedFuture("called");
+        });
+
+        CompletionException error = assertThrows(CompletionException.class, result::join);
+        ResponseStatusException rejection = assertInstanceOf(ResponseStatusException.class, error.getCause());
+        assertEquals(HttpStatus.SERVICE_UNAVAILABLE, rejection.getStatusCode());
+        assertEquals(0, calls.get());
+        assertEquals(1, breaker.getRejected());
+    }
+
+    @Test
+    void halfOpensAfterOpenDurationAndClosesWhenProbesSucceed() throws InterruptedException {
+        CircuitBreaker breaker = openBreaker();
+
+        TimeUnit.MILLISECONDS.sleep(OPEN_DURATION.toMillis() + 20);
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+
+        CompletableFuture<String> firstProbe = new CompletableFuture<>();
+        CompletableFuture<String> secondProbe = new CompletableFuture<>();
+        breaker.execute(() -> firstProbe);
+        breaker.execute(() -> secondProbe);
+        // Only the configured number of probes get through while half-open
+        assertTrue(breaker.execute(() -> CompletableFuture.completedFuture("extra")).isCompletedExceptionally());
+
+        firstProbe.complete("ok");
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        secondProbe.complete("ok");
+
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertEquals(0.0, breaker.getFailureRate(), 0.0);
+    }
+
+    @Test
+    void callsFromBeforeTheBreakerOpenedDoNotCountAsProbes() throws InterruptedException {
+        CircuitBreaker breaker = breaker();
+        CompletableFuture<String> early = new CompletableFuture<>();
+        CompletableFuture<String> earlyFailure = new CompletableFuture<>();
+        breaker.execute(() -> early);
+        breaker.execute(() -> earlyFailure);
+        for (int i = 0; i < 4; i++) {
+            fail(breaker);
+        }
+        TimeUnit.MILLISECONDS.sleep(OPEN_DURATION.toMillis() + 20);
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+
+        CompletableFuture<String> probe = new CompletableFuture<>();
+        breaker.execute(() -> probe);
+        early.complete("ok");
+        earlyFailure.completeExceptionally(new IllegalStateException("model down"));
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+
+        probe.complete("ok");
+        succeed(breaker);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    void failedProbeReopens() throws InterruptedException {
+        CircuitBreaker breaker = openBreaker();
+        TimeUnit.MILLISECONDS.sleep(OPEN_DURATION.toMillis() + 20);
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+
+        fail(breaker);
+
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    @Test
+    void ignoredProbeErrorGivesBackItsSlot() throws InterruptedException {
+        CircuitBreaker breaker = openBreaker();
+        TimeUnit.MILLISECONDS.sleep(OPEN_DURATION.toMillis() + 20);
+
+        breaker.execute(() -> CompletableFuture.failedFuture(new IllegalArgumentException("bad request")));
+        succeed(breaker);
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        succeed(breaker);
+
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    void cancellingTheResultCancelsTheCall() {
+        CircuitBreaker breaker = breaker();
+        CompletableFuture<String> call = new CompletableFuture<>();
+
+        breaker.execute(() -> call).cancel(true);
+
+        assertTrue(call.isCancelled());
+        assertEquals(0.0, breaker.getFailureRate(), 0.0);
+    }
+
+    /**
+     * Window of 10, opening at half failures once 4 calls are recorded, with 2 half-open probes.
+     * Only {@link IllegalStateException} counts as a failure.
+     */
+    private static CircuitBreaker breaker() {
+        return new CircuitBreaker(10, 4, 0.5, 1.0, Duration.ofSeconds(10), OPEN_DURATION, 2,
+                error -> error instanceof IllegalStateException, CircuitBreakerTest::rejection);
+    }
+
+    private static CircuitBreaker openBreaker() {
+        CircuitBreaker breaker = breaker();
+        for (int i = 0; i < 4; i++) {
+            fail(breaker);
+        }
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        return breaker;
+    }
+
+    private static void succeed(CircuitBreaker breaker) {
+        breaker.execute(() -> CompletableFuture.completedFuture("ok"));
+    }
+
+    private static void fail(CircuitBreaker breaker) {
+        breaker.execute(() -> CompletableFuture.failedFuture(new IllegalStateException("model down")));
+    }
+
+    private static ResponseStatusException rejection() {
+        return new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "AI analysis is temporarily unavailable");
+    }
+}
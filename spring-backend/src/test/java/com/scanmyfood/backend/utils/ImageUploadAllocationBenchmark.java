@@ -0,0 +1,59 @@
+package com.scanmyfood.backend.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Measures heap allocated per product scan (front and label image) on the upload path: reading the
+ * spooled parts once, the cache key, and preprocessing both images for the request. Run it on the
+ * same two photos before and after a change to the path to compare.
+ *
+ * <p>Run with {@code java ... ImageUploadAllocationBenchmark <front.jpg> <label.jpg>}.
+ */
+public class ImageUploadAllocationBenchmark {
+
+    private static final int WARMUP = 20;
+    private static final int ITERATIONS = 50;
+
+    public static void main(String[] args) throws IOException {
+        Path front = Path.of(args[0]);
+        Path label = Path.of(args[1]);
+        ImagePreprocessor preprocessor = new ImagePreprocessor(1536, 0.85f);
+
+        for (int i = 0; i < WARMUP; i++) {
+            scan(preprocessor, front, label);
+        }
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long start = threads.getCurrentThreadAllocatedBytes();
+        for (int i = 0; i < ITERATIONS; i++) {
+            scan(preprocessor, front, label);
+        }
+        long perScan = (threads.getCurrentThreadAllocatedBytes() - start) / ITERATIONS;
+        long uploaded = Files.size(front) + Files.size(label);
+        System.out.printf("uploaded=%d bytes allocated=%d bytes/scan (%.1fx upload size)%n",
+                uploaded, perScan, (double) perScan / uploaded);
+    }
+
+    private static void scan(ImagePreprocessor preprocessor, Path front, Path label) throws IOException {
+        byte[] frontBytes = readOnce(front);
+        byte[] labelBytes = readOnce(label);
+        HashUtils.sha256Hex(frontBytes);
+        HashUtils.sha256Hex(labelBytes);
+        preprocessor.prepare(frontBytes, ImagePreprocessor.JPEG);
+        preprocessor.prepare(labelBytes, ImagePreprocessor.JPEG, NutritionPanelDetector::detect);
+    }
+
+    /**
+     * Reads a part the way {@link InMemoryMultipartFile} does
+     */
+    private static byte[] readOnce(Path part) throws IOException {
+        byte[] content = new byte[(int) Files.size(part)];
+        try (InputStream in = Files.newInputStream(part)) {
+            in.readNBytes(content, 0, content.length);
+        }
+        return content;
+    }
+}
@@ -0,0 +1,123 @@
+package com.scanmyfood.backend.utils;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Replays a corpus of raw model responses (one response text per file, as returned by the model)
+ * through a strict parse and through {@link JsonRepair}, and counts the responses that only parse
+ * after repair: each of those would otherwise have failed the analysis and cost the user a rescan.
+ *
+ * <p>Every response that parses as it is also yields variants with the failures seen in practice:
+ * cut off at {@value #CUTS} points through the text, as by the output limit, and with a trailing
+ * comma before every closing bracket, as in the old prompt examples. A repaired cut-off response
+ * counts as saved only when its outermost array kept at least one complete element.
+ *
+ * <p>Run with {@code java ... JsonRepairCorpusBenchmark <corpus-dir>}.
+ */
+public class JsonRepairCorpusBenchmark {
+
+    private static final int CUTS = 10;
+    private static final int TIMING_ITERATIONS = 10_000;
+    private static final Pattern BEFORE_CLOSE = Pattern.compile("(?<=[\"\\d}\\]el])(\\s*)(?=[}\\]])");
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private int responses;
+    private int strictFailures;
+    private int saved;
+
+    public static void main(String[] args) throws IOException {
+        List<Path> files;
+        try (Stream<Path> corpus = Files.list(Path.of(args[0]))) {
+            files = corpus.filter(Files::isRegularFile).sorted().toList();
+        }
+
+        JsonRepairCorpusBenchmark recorded = new JsonRepairCorpusBenchmark();
+        JsonRepairCorpusBenchmark truncated = new JsonRepairCorpusBenchmark();
+        JsonRepairCorpusBenchmark trailingCommas = new JsonRepairCorpusBenchmark();
+        long repairNanos = 0;
+        int wellFormed = 0;
+        for (Path file : files) {
+            String text = Files.readString(file);
+            recorded.replay(text, false);
+            if (parse(text) == null) {
+                continue;
+            }
+            for (int cut = 1; cut <= CUTS; cut++) {
+                truncated.replay(text.substring(0, text.length() * cut / (CUTS + 1)), true);
+            }
+            trailingCommas.replay(BEFORE_CLOSE.matcher(text).replaceAll(",$1"), false);
+            repairNanos += timeRepair(text);
+            wellFormed++;
+        }
+
+        recorded.print("recorded");
+        truncated.print("cut off");
+        trailingCommas.print("trailing commas");
+        if (wellFormed > 0) {
+            System.out.printf("repair pass: %d ns/response, paid only after a strict parse fails%n", repairNanos / wellFormed);
+        }
+    }
+
+    private void replay(String text, boolean cutOff) {
+        responses++;
+        if (parse(text) != null) {
+            return;
+        }
+        strictFailures++;
+        JsonRepair.Result result = JsonRepair.repair(text);
+        JsonNode repaired = parse(result.json());
+        if (repaired != null && (!cutOff || hasCompleteElement(repaired))) {
+            saved++;
+        }
+    }
+
+    private void print(String variant) {
+        System.out.printf("%-16s responses=%d failed strict parse=%d saved by repair=%d (%.0f%% of failures)%n",
+                variant, responses, strictFailures, saved, strictFailures == 0 ? 0.0 : 100.0 * saved / strictFailures);
+    }
+
+    /**
+     * True when the first array found, breadth first, still has an element
+     */
+    private static boolean hasCompleteElement(JsonNode root) {
+        List<JsonNode> level = List.of(root);
+        while (!level.isEmpty()) {
+            for (JsonNode node : level) {
+                if (node.isArray()) {
+                    return !node.isEmpty();
+                }
+            }
+            level = level.stream().flatMap(node -> Stream.of(node.elements()).flatMap(elements -> {
+                Stream.Builder<JsonNode> children = Stream.builder();
+                elements.forEachRemaining(children);
+                return children.build();
+            })).toList();
+        }
+        return false;
+    }
+
+    private static long timeRepair(String text) {
+        long start = System.nanoTime();
+        for (int i = 0; i < TIMING_ITERATIONS; i++) {
+            JsonRepair.repair(text);
+        }
+        return (System.nanoTime() - start) / TIMING_ITERATIONS;
+    }
+
+    private static JsonNode parse(String text) {
+        try {
+            JsonNode node = OBJECT_MAPPER.readTree(text);
+            return node != null && node.isObject() ? node : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package com.scanmyfood.backend.utils;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class JsonRepairTest {
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    @Test
+    void wellFormedInputIsReturnedAsTheSameInstance() {
+        String json = "{\"a\": {\"b\": [1, {\"c\": \"d\"}]}}";
+
+        JsonRepair.Result result = JsonRepair.repair(json);
+
+        assertSame(json, result.json());
+        assertFalse(result.repaired());
+        assertFalse(result.truncated());
+    }
+
+    @Test
+    void trailingWhitespaceDoesNotCountAsARepair() {
+        String json = "{\"a\": 1}\n";
+
+        JsonRepair.Result result = JsonRepair.repair(json);
+
+        assertSame(json, result.json());
+        assertFalse(result.repaired());
+    }
+
+    @Test
+    void dropsTrailingCommaInObject() throws JsonProcessingException {
+        assertRepaired("{\"a\": 1, \"b\": 2,}", "{\"a\": 1, \"b\": 2}");
+    }
+
+    @Test
+    void dropsTrailingCommaInArray() throws JsonProcessingException {
+        assertRepaired("{\"a\": [1, 2,]}", "{\"a\": [1, 2]}");
+    }
+
+    @Test
+    void dropsNestedTrailingCommas() throws JsonProcessingException {
+        assertRepaired("{\"a\": 1, \"b\": [1, 2,],}", "{\"a\": 1, \"b\": [1, 2]}");
+    }
+
+    @Test
+    void keepsCommaInsideString() throws JsonProcessingException {
+        assertRepaired("{\"items\": [{\"name\": \"bread, butter\"}, {\"name\": \"jam,\"},]}",
+                "{\"items\": [{\"name\": \"bread, butter\"}, {\"name\": \"jam,\"}]}");
+    }
+
+    @Test
+    void escapedQuotesDoNotEndTheString() throws JsonProcessingException {
+        assertRepaired("{\"name\": \"say \\\"hi\\\", then}\",}", "{\"name\": \"say \\\"hi\\\", then}\"}");
+    }
+
+    @Test
+    void stripsCodeFence() throws JsonProcessingException {
+        assertRepaired("```json\n{\"a\": 1}\n```", "{\"a\": 1}");
+    }
+
+    @Test
+    void stripsProseBeforeTheObject() throws JsonProcessingException {
+        assertRepaired("Here is the analysis: {\"a\": [1]}", "{\"a\": [1]}");
+    }
+
+    @Test
+    void cutOffMidKeyDropsTheUnfinishedItem() throws JsonProcessingException {
+        assertTruncated("{\"items\": [{\"name\": \"egg\", \"calories\": 78}, {\"na",
+                "{\"items\": [{\"name\": \"egg\", \"calories\": 78}]}");
+    }
+
+    @Test
+    void cutOffMidStringDropsTheUnfinishedItem() throws JsonProcessingException {
+        assertTruncated("{\"items\": [{\"name\": \"egg\", \"calories\": 78}, {\"name\": \"toa",
+                "{\"items\": [{\"name\": \"egg\", \"calories\": 78}]}");
+    }
+
+    @Test
+    void cutOffMidNumberDropsTheUnfinishedItem() throws JsonProcessingException {
+        assertTruncated("{\"items\": [{\"name\": \"egg\", \"calories\": 78}, {\"name\": \"toast\", \"calories\": 7",
+                "{\"items\": [{\"name\": \"egg\", \"calories\": 78}]}");
+    }
+
+    @Test
+    void cutOffObjectKeepsItsCompleteMembers() throws JsonProcessingException {
+        assertTruncated("{\"meal\": \"eggs\", \"calories\": 155, \"to", "{\"meal\": \"eggs\", \"calories\": 155}");
+        assertTruncated("{\"meal\": \"eggs\", \"note\": \"cut of", "{\"meal\": \"eggs\"}");
+    }
+
+    @Test
+    void numberAtTheCutIsNotTrusted() throws JsonProcessingException {
+        // 15 may have been on its way to 155
+        assertTruncated("{\"meal\": \"eggs\", \"calories\": 15", "{\"meal\": \"eggs\"}");
+    }
+
+    @Test
+    void cutOffAfterTrailingCommaIsClosed() throws JsonProcessingException {
+        assertTruncated("{\"items\": [1, 2,", "{\"items\": [1, 2]}");
+    }
+
+    @Test
+    void textWithoutAnObjectIsLeftAlone() {
+        String text = "I could not analyze this image.";
+
+        JsonRepair.Result result = JsonRepair.repair(text);
+
+        assertSame(text, result.json());
+        assertFalse(result.repaired());
+    }
+
+    private static void assertRepaired(String text, String expected) throws JsonProcessingException {
+        JsonRepair.Result result = JsonRepair.repair(text);
+
+        assertEquals(expected, result.json());
+        assertTrue(result.repaired());
+        assertFalse(result.truncated());
+        OBJECT_MAPPER.readTree(result.json());
+    }
+
+    private static void assertTruncated(String text, String expected) throws JsonProcessingException {
+        JsonRepair.Result result = JsonRepair.repair(text);
+
+        assertEquals(expected, result.json());
+        assertTrue(result.repaired());
+        assertTrue(result.truncated());
+        OBJECT_MAPPER.readTree(result.json());
+    }
+}
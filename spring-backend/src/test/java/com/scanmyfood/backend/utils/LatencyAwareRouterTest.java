@@ -0,0 +1,122 @@
+package com.scanmyfood.backend.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LatencyAwareRouterTest {
+
+    private static final Duration HEDGE_DELAY = Duration.ofMillis(20);
+
+    // The attempt sent to each region, completed by the test
+    private final Map<String, CompletableFuture<String>> attempts = new ConcurrentHashMap<>();
+
+    @Test
+    void hedgeWinCancelsThePrimaryAttempt() throws InterruptedException {
+        LatencyAwareRouter<String> router = router(true);
+
+        CompletableFuture<String> result = router.execute(this::attempt);
+        await(() -> attempts.containsKey("secondary"));
+        attempts.get("secondary").complete("from secondary");
+
+        assertEquals("from secondary", result.join());
+        // The hedge settles the call on its own thread, then cancels the primary
+        await(() -> attempts.get("primary").isCancelled());
+        await(() -> router.getHedgeWins() == 1);
+        assertEquals(1, router.getHedges());
+    }
+
+    @Test
+    void primaryWinCancelsTheHedge() throws InterruptedException {
+        LatencyAwareRouter<String> router = router(true);
+
+        CompletableFuture<String> result = router.execute(this::attempt);
+        await(() -> attempts.containsKey("secondary"));
+        attempts.get("primary").complete("from primary");
+
+        assertEquals("from primary", result.join());
+        await(() -> attempts.get("secondary").isCancelled());
+        assertEquals(0, router.getHedgeWins());
+    }
+
+    @Test
+    void cancellingTheCallCancelsBothAttempts() throws InterruptedException {
+        LatencyAwareRouter<String> router = router(true);
+
+        CompletableFuture<String> result = router.execute(this::attempt);
+        await(() -> attempts.containsKey("secondary"));
+        result.cancel(true);
+
+        assertTrue(attempts.get("primary").isCancelled());
+        await(() -> attempts.get("secondary").isCancelled());
+    }
+
+    @Test
+    void noHedgeWhenThePrimaryAnswersInTime() throws InterruptedException {
+        LatencyAwareRouter<String> router = router(true);
+
+        CompletableFuture<String> result = router.execute(region -> CompletableFuture.completedFuture("from " + region));
+        TimeUnit.MILLISECONDS.sleep(HEDGE_DELAY.toMillis() * 3);
+
+        assertEquals("from primary", result.join());
+        assertEquals(0, router.getHedges());
+    }
+
+    @Test
+    void failsOnlyOnceEveryAttemptHasFailed() throws InterruptedException {
+        LatencyAwareRouter<String> router = router(true);
+
+        CompletableFuture<String> result = router.execute(this::attempt);
+        await(() -> attempts.containsKey("secondary"));
+        attempts.get("primary").completeExceptionally(new IllegalStateException("primary down"));
+        assertFalse(result.isDone());
+        attempts.get("secondary").complete("from secondary");
+
+        assertEquals("from secondary", result.join());
+    }
+
+    @Test
+    void withoutHedgingOnlyOneRegionIsCalled() throws InterruptedException {
+        LatencyAwareRouter<String> router = router(false);
+
+        router.execute(this::attempt);
+        TimeUnit.MILLISECONDS.sleep(HEDGE_DELAY.toMillis() * 3);
+
+        assertEquals(1, attempts.size());
+        assertEquals(0, router.getHedges());
+    }
+
+    private CompletableFuture<String> attempt(String region) {
+        CompletableFuture<String> attempt = new CompletableFuture<>();
+        attempts.put(region, attempt);
+        return attempt;
+    }
+
+    /**
+     * Two regions without exploration; neither is measured yet, so the first is always preferred
+     */
+    private static LatencyAwareRouter<String> router(boolean hedging) {
+        Map<String, String> regions = new LinkedHashMap<>();
+        regions.put("primary", "primary");
+        regions.put("secondary", "secondary");
+        return new LatencyAwareRouter<>(regions, 0.0, hedging, HEDGE_DELAY);
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, "timed out waiting");
+            TimeUnit.MILLISECONDS.sleep(1);
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.scanmyfood.backend.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class MealDescriptionParserTest {
+
+    @Test
+    void sameMealCanonicalizesIdentically() {
+        assertEquals(MealDescriptionParser.canonicalize("2 eggs, 1 toast"),
+                MealDescriptionParser.canonicalize("1 toast and 2 Eggs"));
+    }
+
+    @Test
+    void parsesQuantityUnitAndPreparation() {
+        List<MealDescriptionParser.Item> items = MealDescriptionParser.parse("200g grilled chicken breasts");
+
+        assertEquals(List.of(new MealDescriptionParser.Item("chicken breast", "grilled", 200.0, "g")), items);
+    }
+
+    @Test
+    void keepsLettersOfOtherScripts() {
+        assertEquals("2 crêpe", MealDescriptionParser.canonicalize("2 crêpes"));
+        assertEquals("1 bowl 牛肉面", MealDescriptionParser.canonicalize("1 bowl 牛肉面"));
+    }
+
+    @Test
+    void doesNotSplitKnownDishes() {
+        assertEquals(List.of(new MealDescriptionParser.Item("mac and cheese", null, 1.0, "bowl")),
+                MealDescriptionParser.parse("1 bowl of mac and cheese"));
+        assertEquals(List.of(new MealDescriptionParser.Item("fish and chips", null, null, null)),
+                MealDescriptionParser.parse("fish and chips"));
+    }
+
+    @Test
+    void stillSplitsOtherItemsOnAnd() {
+        assertEquals("1 coffee; mac and cheese",
+                MealDescriptionParser.canonicalize("mac and cheese with a coffee"));
+    }
+
+    @Test
+    void percentageIsPartOfTheFoodNotItsQuantity() {
+        MealDescriptionParser.Item item = MealDescriptionParser.parse("100% whole wheat bread").get(0);
+
+        assertNull(item.quantity());
+        assertEquals("100% whole wheat bread", item.food());
+    }
+
+    @Test
+    void stripsTrailingPeriod() {
+        assertEquals(List.of(new MealDescriptionParser.Item("egg", "scrambled", 2.0, null)),
+                MealDescriptionParser.parse("2 scrambled eggs."));
+        assertEquals(List.of(new MealDescriptionParser.Item("cheese", null, 2.0, "oz")),
+                MealDescriptionParser.parse("2 oz. cheese"));
+    }
+
+    @Test
+    void keepsDecimalQuantities() {
+        assertEquals(List.of(new MealDescriptionParser.Item("rice", null, 1.5, "cup")),
+                MealDescriptionParser.parse("1.5 cups rice."));
+    }
+}
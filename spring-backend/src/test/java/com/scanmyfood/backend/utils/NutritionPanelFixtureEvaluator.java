@@ -0,0 +1,61 @@
+package com.scanmyfood.backend.utils;
+
+import javax.imageio.ImageIO;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Scores {@link NutritionPanelDetector} against a directory of labelled label photos. The directory
+ * holds the images and a {@code boxes.csv} with one {@code filename,x,y,width,height} line per image
+ * giving the hand-drawn panel box in upright pixels.
+ *
+ * <p>Run with {@code java ... NutritionPanelFixtureEvaluator <fixture-dir>}; prints per-image IoU and
+ * kept area, then the mean IoU, the share of images with IoU >= 0.5 and the mean kept area.
+ */
+public class NutritionPanelFixtureEvaluator {
+
+    public static void main(String[] args) throws IOException {
+        Path dir = Path.of(args.length > 0 ? args[0] : "src/test/resources/nutrition-panels");
+        List<String> lines = Files.readAllLines(dir.resolve("boxes.csv"));
+
+        int images = 0;
+        int hits = 0;
+        double totalIou = 0;
+        double totalArea = 0;
+        for (String line : lines) {
+            if (line.isBlank() || line.startsWith("#")) {
+                continue;
+            }
+            String[] fields = line.split(",");
+            Rectangle expected = new Rectangle(Integer.parseInt(fields[1].trim()), Integer.parseInt(fields[2].trim()),
+                    Integer.parseInt(fields[3].trim()), Integer.parseInt(fields[4].trim()));
+            byte[] data = Files.readAllBytes(dir.resolve(fields[0].trim()));
+            BufferedImage image = ImagePreprocessor.orient(ImageIO.read(dir.resolve(fields[0].trim()).toFile()),
+                    ExifOrientation.read(data));
+
+            long start = System.nanoTime();
+            Rectangle detected = NutritionPanelDetector.detect(image);
+            long millis = (System.nanoTime() - start) / 1_000_000;
+            Rectangle kept = detected != null ? detected : new Rectangle(0, 0, image.getWidth(), image.getHeight());
+            double iou = NutritionPanelDetector.intersectionOverUnion(kept, expected);
+            double area = (double) kept.width * kept.height / ((double) image.getWidth() * image.getHeight());
+
+            System.out.printf("%-32s iou=%.2f kept=%.2f %s %dms%n", fields[0].trim(), iou, area,
+                    detected != null ? "cropped" : "uncropped", millis);
+            images++;
+            hits += iou >= 0.5 ? 1 : 0;
+            totalIou += iou;
+            totalArea += area;
+        }
+        if (images == 0) {
+            System.out.println("No fixtures in " + dir);
+            return;
+        }
+        System.out.printf("images=%d meanIoU=%.3f iou>=0.5=%.0f%% meanKept=%.2f%n",
+                images, totalIou / images, 100.0 * hits / images, totalArea / images);
+    }
+}
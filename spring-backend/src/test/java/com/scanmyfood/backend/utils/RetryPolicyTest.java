@@ -0,0 +1,93 @@
+package com.scanmyfood.backend.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RetryPolicyTest {
+
+    private final AtomicInteger calls = new AtomicInteger();
+
+    @Test
+    void retryableErrorIsRetried() {
+        RetryPolicy policy = policy(3, Duration.ofMillis(1), Duration.ofSeconds(5));
+
+        String result = policy.execute(() -> calls.incrementAndGet() < 3
+                ? CompletableFuture.failedFuture(new IllegalStateException("unavailable"))
+                : CompletableFuture.completedFuture("ok")).join();
+
+        assertEquals("ok", result);
+        assertEquals(3, calls.get());
+        assertEquals(2, policy.getRetries());
+    }
+
+    @Test
+    void otherErrorsAreNotRetried() {
+        RetryPolicy policy = policy(3, Duration.ofMillis(1), Duration.ofSeconds(5));
+        IllegalArgumentException failure = new IllegalArgumentException("bad request");
+
+        CompletableFuture<String> result = policy.execute(() -> {
+            calls.incrementAndGet();
+            return CompletableFuture.failedFuture(failure);
+        });
+
+        assertEquals(failure, assertThrows(CompletionException.class, result::join).getCause());
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    void attemptStillRunningAtTheDeadlineIsCancelled() {
+        RetryPolicy policy = policy(3, Duration.ofMillis(1), Duration.ofMillis(50));
+        CompletableFuture<String> attempt = new CompletableFuture<>();
+
+        CompletableFuture<String> result = policy.execute(() -> attempt);
+
+        assertInstanceOf(TimeoutException.class, assertThrows(CompletionException.class, result::join).getCause());
+        assertTrue(attempt.isCancelled());
+        assertEquals(1, policy.getDeadlinesExceeded());
+    }
+
+    @Test
+    void cancellingTheCallCancelsTheAttemptInFlight() {
+        RetryPolicy policy = policy(3, Duration.ofMillis(1), Duration.ofSeconds(5));
+        CompletableFuture<String> attempt = new CompletableFuture<>();
+
+        CompletableFuture<String> result = policy.execute(() -> attempt);
+        result.cancel(true);
+
+        assertTrue(attempt.isCancelled());
+    }
+
+    @Test
+    void cancellingTheCallDuringBackoffStopsTheRetry() throws InterruptedException {
+        RetryPolicy policy = policy(3, Duration.ofMillis(100), Duration.ofSeconds(5));
+
+        CompletableFuture<String> result = policy.execute(() -> {
+            calls.incrementAndGet();
+            return CompletableFuture.failedFuture(new IllegalStateException("unavailable"));
+        });
+        result.cancel(true);
+        int callsAtCancel = calls.get();
+        TimeUnit.MILLISECONDS.sleep(200);
+
+        assertEquals(callsAtCancel, calls.get());
+    }
+
+    /**
+     * Only {@link IllegalStateException} is retryable
+     */
+    private static RetryPolicy policy(int maxAttempts, Duration initialBackoff, Duration deadline) {
+        return new RetryPolicy(maxAttempts, initialBackoff, initialBackoff, deadline,
+                error -> error instanceof IllegalStateException);
+    }
+}
@@ -0,0 +1,96 @@
+package com.scanmyfood.backend.utils;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SingleFlightTest {
+
+    private final SingleFlight<String, String> singleFlight = new SingleFlight<>(new SimpleMeterRegistry(), "test");
+    private final AtomicInteger calls = new AtomicInteger();
+
+    @Test
+    void concurrentCallsWithTheSameKeyShareOneCall() {
+        CompletableFuture<String> pending = new CompletableFuture<>();
+
+        CompletableFuture<String> first = singleFlight.execute("key", () -> call(pending));
+        CompletableFuture<String> second = singleFlight.execute("key", () -> call(new CompletableFuture<>()));
+        assertFalse(first.isDone());
+        pending.complete("result");
+
+        assertEquals("result", first.join());
+        assertEquals("result", second.join());
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    void differentKeysRunSeparately() {
+        singleFlight.execute("a", () -> call(new CompletableFuture<>()));
+        singleFlight.execute("b", () -> call(new CompletableFuture<>()));
+
+        assertEquals(2, calls.get());
+    }
+
+    @Test
+    void errorReachesEveryCaller() {
+        CompletableFuture<String> pending = new CompletableFuture<>();
+        IllegalStateException failure = new IllegalStateException("model down");
+
+        CompletableFuture<String> first = singleFlight.execute("key", () -> call(pending));
+        CompletableFuture<String> second = singleFlight.execute("key", () -> call(new CompletableFuture<>()));
+        pending.completeExceptionally(failure);
+
+        assertSame(failure, assertThrows(CompletionException.class, first::join).getCause());
+        assertSame(failure, assertThrows(CompletionException.class, second::join).getCause());
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    void callThatThrowsFailsItsCallers() {
+        IllegalStateException failure = new IllegalStateException("could not build request");
+
+        CompletableFuture<String> result = singleFlight.execute("key", () -> {
+            throw failure;
+        });
+
+        assertSame(failure, assertThrows(CompletionException.class, result::join).getCause());
+    }
+
+    @Test
+    void nothingIsKeptOnceTheCallCompletes() {
+        singleFlight.execute("key", () -> call(CompletableFuture.completedFuture("first"))).join();
+        singleFlight.execute("key", () -> call(CompletableFuture.failedFuture(new IllegalStateException("failed")))).exceptionally(e -> null).join();
+
+        String result = singleFlight.execute("key", () -> call(CompletableFuture.completedFuture("third"))).join();
+
+        assertEquals("third", result);
+        assertEquals(3, calls.get());
+    }
+
+    @Test
+    void cancellingOneCallerLeavesTheOthersWaiting() {
+        CompletableFuture<String> pending = new CompletableFuture<>();
+        CompletableFuture<String> first = singleFlight.execute("key", () -> call(pending));
+        CompletableFuture<String> second = singleFlight.execute("key", () -> call(new CompletableFuture<>()));
+
+        first.cancel(true);
+        pending.complete("result");
+
+        assertTrue(first.isCancelled());
+        assertEquals("result", second.join());
+    }
+
+    private CompletableFuture<String> call(CompletableFuture<String> answer) {
+        calls.incrementAndGet();
+        return answer;
+    }
+}
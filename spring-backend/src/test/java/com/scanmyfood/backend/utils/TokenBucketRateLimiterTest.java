@@ -0,0 +1,53 @@
+package com.scanmyfood.backend.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TokenBucketRateLimiterTest {
+
+    @Test
+    void allowsABurstUpToCapacity() {
+        TokenBucketRateLimiter limiter = new TokenBucketRateLimiter(3, 60, 4, 100);
+
+        assertEquals(0, limiter.tryAcquire("user"));
+        assertEquals(0, limiter.tryAcquire("user"));
+        assertEquals(0, limiter.tryAcquire("user"));
+
+        long waitNanos = limiter.tryAcquire("user");
+        // One token per second
+        assertTrue(waitNanos > 0 && waitNanos <= TimeUnit.SECONDS.toNanos(1), "wait was " + waitNanos);
+    }
+
+    @Test
+    void keysHaveSeparateBuckets() {
+        TokenBucketRateLimiter limiter = new TokenBucketRateLimiter(1, 60, 4, 100);
+
+        assertEquals(0, limiter.tryAcquire("first"));
+        assertTrue(limiter.tryAcquire("first") > 0);
+
+        assertEquals(0, limiter.tryAcquire("second"));
+    }
+
+    @Test
+    void refillsOverTime() throws InterruptedException {
+        // 100 tokens a second
+        TokenBucketRateLimiter limiter = new TokenBucketRateLimiter(1, 6000, 4, 100);
+        assertEquals(0, limiter.tryAcquire("user"));
+        assertTrue(limiter.tryAcquire("user") > 0);
+
+        TimeUnit.MILLISECONDS.sleep(20);
+
+        assertEquals(0, limiter.tryAcquire("user"));
+    }
+
+    @Test
+    void rejectsInvalidSettings() {
+        assertThrows(IllegalArgumentException.class, () -> new TokenBucketRateLimiter(0, 60, 4, 100));
+        assertThrows(IllegalArgumentException.class, () -> new TokenBucketRateLimiter(1, 0, 4, 100));
+    }
+}